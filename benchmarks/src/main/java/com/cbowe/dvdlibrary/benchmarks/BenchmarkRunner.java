@@ -0,0 +1,36 @@
+package com.cbowe.dvdlibrary.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The {@code BenchmarkRunner} class is the entry point of the
+ * benchmark jar. It runs the selected benchmarks and writes the
+ * results as JSON so runs can be compared between releases.
+ */
+
+public class BenchmarkRunner {
+
+    /**
+     * Runs the benchmarks:
+     * {@code java -jar benchmarks.jar [include-regex] [result-file]}.
+     * Runs everything into jmh-result.json by default.
+     *
+     * @param args optional benchmark regex and result file name
+     * @throws RunnerException if JMH fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : ".*";
+        String resultFile = args.length > 1 ? args[1] : "jmh-result.json";
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,66 @@
+package com.cbowe.dvdlibrary.benchmarks;
+
+import com.cbowe.dvdlibrary.dao.DvdLibraryDao;
+import com.cbowe.dvdlibrary.dao.DvdLibraryDaoException;
+import com.cbowe.dvdlibrary.dao.DvdLibraryDaoFileImpl;
+import com.cbowe.dvdlibrary.dto.Dvd;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures getDvd and getAllDvds through DvdLibraryDaoFileImpl, both
+ * in the default mode that re-reads the file on every call and in
+ * write-behind mode that serves reads from memory.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class DaoLookupBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int librarySize;
+
+    @Param({"false", "true"})
+    public boolean writeBehind;
+
+    private Path directory;
+    private Path libraryFile;
+    private DvdLibraryDao dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DvdLibraryDaoException {
+        directory = Files.createTempDirectory("dvd-bench");
+        libraryFile = SyntheticCatalog.write(directory.resolve("library.txt"), librarySize, 42L);
+        dao = writeBehind
+                ? new DvdLibraryDaoFileImpl(libraryFile.toString(), 0, Integer.MAX_VALUE)
+                : new DvdLibraryDaoFileImpl(libraryFile.toString());
+        dao.getAllDvds();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, DvdLibraryDaoException {
+        dao.close();
+        Files.deleteIfExists(libraryFile);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public Dvd getDvd() throws DvdLibraryDaoException {
+        int i = ThreadLocalRandom.current().nextInt(librarySize);
+        return dao.getDvd(SyntheticCatalog.title(i));
+    }
+
+    @Benchmark
+    public List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+        return dao.getAllDvds();
+    }
+}
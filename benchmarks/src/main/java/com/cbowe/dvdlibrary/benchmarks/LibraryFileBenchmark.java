@@ -0,0 +1,74 @@
+package com.cbowe.dvdlibrary.benchmarks;
+
+import com.cbowe.dvdlibrary.dao.DvdLibraryDaoException;
+import com.cbowe.dvdlibrary.dao.DvdLibraryDaoFileImpl;
+import com.cbowe.dvdlibrary.dao.DvdTextFormat;
+import com.cbowe.dvdlibrary.dto.Dvd;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures reading a whole library file into memory and writing it
+ * back out, the work done by loadDvdFile and writeDvdFile.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LibraryFileBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int librarySize;
+
+    private Path directory;
+    private Path libraryFile;
+    private Path outputFile;
+    private List<Dvd> dvds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DvdLibraryDaoException {
+        directory = Files.createTempDirectory("dvd-bench");
+        libraryFile = SyntheticCatalog.write(directory.resolve("library.txt"), librarySize, 42L);
+        outputFile = directory.resolve("written.txt");
+        DvdLibraryDaoFileImpl dao = new DvdLibraryDaoFileImpl(libraryFile.toString());
+        try {
+            dvds = dao.getAllDvds();
+        } finally {
+            dao.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(libraryFile);
+        Files.deleteIfExists(outputFile);
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * A fresh DAO loads the whole file on its first call. It is
+     * closed again so its file watcher does not outlive the call.
+     */
+    @Benchmark
+    public List<Dvd> loadDvdFile() throws DvdLibraryDaoException {
+        DvdLibraryDaoFileImpl dao = new DvdLibraryDaoFileImpl(libraryFile.toString());
+        try {
+            return dao.getAllDvds();
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Benchmark
+    public Path writeDvdFile() throws IOException {
+        DvdTextFormat.writeLibrary(outputFile, dvds);
+        return outputFile;
+    }
+}
@@ -0,0 +1,49 @@
+package com.cbowe.dvdlibrary.benchmarks;
+
+import com.cbowe.dvdlibrary.dao.DvdLibraryDaoException;
+import com.cbowe.dvdlibrary.dao.DvdTextFormat;
+import com.cbowe.dvdlibrary.dto.Dvd;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures turning one library line into a Dvd object and back.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MarshallingBenchmark {
+
+    // Number of sample lines cycled through, so one line isn't
+    // measured straight out of the CPU cache every time
+    private static final int SAMPLES = 1024;
+
+    private String[] lines;
+    private Dvd[] dvds;
+    private int next;
+
+    @Setup
+    public void setUp() throws DvdLibraryDaoException {
+        lines = SyntheticCatalog.lines(SAMPLES, 42L);
+        dvds = new Dvd[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            dvds[i] = DvdTextFormat.unmarshallDvd(lines[i]);
+        }
+    }
+
+    @Benchmark
+    public Dvd unmarshallDvd() throws DvdLibraryDaoException {
+        next = (next + 1) & (SAMPLES - 1);
+        return DvdTextFormat.unmarshallDvd(lines[next]);
+    }
+
+    @Benchmark
+    public String marshallDvd() {
+        next = (next + 1) & (SAMPLES - 1);
+        return DvdTextFormat.marshallDvd(dvds[next]);
+    }
+}
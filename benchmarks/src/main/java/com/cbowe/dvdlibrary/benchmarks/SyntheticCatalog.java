@@ -0,0 +1,120 @@
+package com.cbowe.dvdlibrary.benchmarks;
+
+import com.cbowe.dvdlibrary.dao.DvdTextFormat;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * The {@code SyntheticCatalog} class generates DVD libraries in the
+ * dvdTest.txt "::" format for benchmarking. Titles are unique, while
+ * studios, directors and MPAA ratings repeat the way they do in a
+ * real catalog. The same size and seed always give the same file.
+ */
+
+public final class SyntheticCatalog {
+
+    private static final String[] MONTHS = {
+            "January", "February", "March", "April", "May", "June", "July",
+            "August", "September", "October", "November", "December"
+    };
+    private static final String[] MPAA_RATINGS = {"G", "PG", "PG-13", "R", "NC-17", "NR"};
+    private static final String[] STUDIOS = {
+            "Universal Pictures", "20th Century Fox", "Touchstone Pictures", "Warner Bros.",
+            "Paramount Pictures", "Columbia Pictures", "Lionsgate", "New Line Cinema",
+            "DreamWorks Pictures", "Miramax", "A24", "Focus Features"
+    };
+    private static final String[] USER_RATINGS = {
+            "Great Comedy", "Holiday Favorite", "Great Action/Comedy", "Suspense",
+            "Drama", "Cartoon Comedy", "Must Watch", "Skip It", "Family Night"
+    };
+    // Number of distinct directors in a generated catalog
+    private static final int DIRECTORS = 5_000;
+
+    private SyntheticCatalog() {
+    }
+
+    /**
+     * Returns the title of the i-th generated DVD.
+     *
+     * @param i index of the DVD
+     * @return unique title
+     */
+    public static String title(int i) {
+        return "Synthetic Title " + i;
+    }
+
+    /**
+     * Generates one library line.
+     *
+     * @param i index of the DVD, which decides its title
+     * @param random source of the other field values
+     * @return DVD in the "::" library format
+     */
+    public static String line(int i, Random random) {
+        String d = DvdTextFormat.DELIMITER;
+        return title(i)
+                + d + MONTHS[random.nextInt(MONTHS.length)] + " " + (1 + random.nextInt(28))
+                + ", " + (1930 + random.nextInt(95))
+                + d + MPAA_RATINGS[random.nextInt(MPAA_RATINGS.length)]
+                + d + "Director " + random.nextInt(DIRECTORS)
+                + d + STUDIOS[random.nextInt(STUDIOS.length)]
+                + d + USER_RATINGS[random.nextInt(USER_RATINGS.length)];
+    }
+
+    /**
+     * Generates lines for a catalog without writing them to disk.
+     *
+     * @param size number of DVDs
+     * @param seed random seed
+     * @return library lines
+     */
+    public static String[] lines(int size, long seed) {
+        Random random = new Random(seed);
+        String[] lines = new String[size];
+        for (int i = 0; i < size; i++) {
+            lines[i] = line(i, random);
+        }
+        return lines;
+    }
+
+    /**
+     * Writes a catalog file.
+     *
+     * @param file file to write
+     * @param size number of DVDs
+     * @param seed random seed
+     * @return the file written
+     * @throws IOException if the file could not be written
+     */
+    public static Path write(Path file, int size, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < size; i++) {
+                out.write(line(i, random));
+                out.newLine();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes a catalog from the command line:
+     * {@code SyntheticCatalog <file> <size> [seed]}.
+     *
+     * @param args file name, number of DVDs and optional seed
+     * @throws IOException if the file could not be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticCatalog <file> <size> [seed]");
+            System.exit(1);
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+        write(Paths.get(args[0]), Integer.parseInt(args[1]), seed);
+    }
+}
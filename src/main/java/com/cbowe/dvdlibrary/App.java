@@ -1,23 +1,103 @@
 package com.cbowe.dvdlibrary;
 
+import com.cbowe.dvdlibrary.controller.DvdLibraryBatchController;
 import com.cbowe.dvdlibrary.controller.DvdLibraryController;
+import com.cbowe.dvdlibrary.controller.DvdLibraryHttpController;
 import com.cbowe.dvdlibrary.dao.DvdLibraryDao;
-import com.cbowe.dvdlibrary.dao.DvdLibraryDaoFileImpl;
+import com.cbowe.dvdlibrary.dao.DvdLibraryDaoException;
+import com.cbowe.dvdlibrary.dao.DvdLibraryDaoFactory;
 import com.cbowe.dvdlibrary.ui.DvdLibraryView;
 import com.cbowe.dvdlibrary.ui.UserIO;
 import com.cbowe.dvdlibrary.ui.UserIOConsoleImpl;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Properties;
 
 public class App {
 
     public static void main(String[] args) {
         // Instantiate UserIOConsoleImpl, DvdLibraryView,
-        // DvdLibraryDaoFileImpl, and DvdLibraryController objects
+        // DvdLibraryDao, and DvdLibraryController objects.
+        // The storage backend comes from dvdLibrary.properties and
+        // --key=value flags, e.g. --backend=journal --file=dvds.txt
         UserIO myIo = new UserIOConsoleImpl();
         DvdLibraryView myView = new DvdLibraryView(myIo);
-        DvdLibraryDao myDao = new DvdLibraryDaoFileImpl();
-        DvdLibraryController controller = new DvdLibraryController(myDao, myView);
+        DvdLibraryDao myDao;
+        Properties config;
+        try {
+            config = DvdLibraryDaoFactory.loadConfig(args);
+            myDao = DvdLibraryDaoFactory.create(config);
+        } catch (DvdLibraryDaoException e) {
+            myView.displayErrorMessage(e.getMessage());
+            return;
+        }
 
-        // Call run method
-        controller.run();
+        // With --batch=FILE (or --batch=- for stdin) run a command
+        // script, and with --port=N serve the library over HTTP,
+        // instead of running the console menu
+        String batch = config.getProperty("batch");
+        String port = config.getProperty("port");
+        if (batch != null) {
+            int failedCommands = runBatch(myDao, batch.trim(), myView);
+            try {
+                myDao.close();
+            } catch (DvdLibraryDaoException e) {
+                myView.displayErrorMessage(e.getMessage());
+                failedCommands++;
+            }
+            // Tell the calling script whether every command succeeded
+            System.exit(failedCommands == 0 ? 0 : 1);
+        } else if (port != null) {
+            try {
+                new DvdLibraryHttpController(myDao, myView, Integer.parseInt(port.trim())).run();
+            } catch (NumberFormatException | IOException e) {
+                myView.displayErrorMessage("Could not start the service on port " + port + ": " + e.getMessage());
+            }
+        } else {
+            DvdLibraryController controller = new DvdLibraryController(myDao, myView);
+
+            // Call run method
+            controller.run();
+        }
+
+        // Make sure any changes held by the DAO reach the file
+        try {
+            myDao.close();
+        } catch (DvdLibraryDaoException e) {
+            myView.displayErrorMessage(e.getMessage());
+        }
+    }
+
+    /**
+     * Runs a batch command script, writing its results to stdout.
+     *
+     * @param dao DvdLibraryDao object the script runs against
+     * @param script script file, or "-" to read stdin
+     * @param view DvdLibraryView object for errors
+     * @return number of failed commands, or 1 if the script could not
+     * be run or saved
+     */
+    private static int runBatch(DvdLibraryDao dao, String script, DvdLibraryView view) {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try (BufferedReader in = script.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8)) {
+            return new DvdLibraryBatchController(dao, in, out).run();
+        } catch (NoSuchFileException e) {
+            view.displayErrorMessage("No such batch script: " + script);
+            return 1;
+        } catch (IOException | InvalidPathException | DvdLibraryDaoException e) {
+            out.flush();
+            view.displayErrorMessage("Batch " + script + " failed: " + e.getMessage());
+            return 1;
+        }
     }
 }
@@ -0,0 +1,323 @@
+package com.cbowe.dvdlibrary.controller;
+
+import com.cbowe.dvdlibrary.dao.DvdTextFormat;
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@code DvdJson} class converts DVDs to and from the JSON the
+ * HTTP service speaks. A DVD is a flat object:
+ * <pre>
+ * {"title":"Alien","releaseDate":"May 25, 1979","mpaa":"R",
+ *  "directorsName":"Ridley Scott","studio":"Fox","userRating":"5"}
+ * </pre>
+ * Request bodies must be a single object whose values are strings or
+ * null; anything else is rejected with an IllegalArgumentException,
+ * which the service answers with 400 Bad Request. So are titles and
+ * values the library file could not hold, such as those containing
+ * "::" or a line break, since one such value would leave the whole
+ * library unreadable.
+ */
+
+final class DvdJson {
+
+    // JSON property name of each editable field
+    static final Map<String, DvdField> FIELDS = new LinkedHashMap<>();
+
+    static {
+        FIELDS.put("releaseDate", DvdField.RELEASE_DATE);
+        FIELDS.put("mpaa", DvdField.MPAA);
+        FIELDS.put("directorsName", DvdField.DIRECTOR_NAME);
+        FIELDS.put("studio", DvdField.STUDIO);
+        FIELDS.put("userRating", DvdField.USER_RATING);
+    }
+
+    private DvdJson() {
+    }
+
+    /**
+     * Writes one DVD as a JSON object.
+     *
+     * @param dvd DVD to write
+     * @return the JSON text
+     */
+    static String write(Dvd dvd) {
+        return appendDvd(new StringBuilder(256), dvd).toString();
+    }
+
+    /**
+     * Writes DVDs as a JSON array of objects.
+     *
+     * @param dvds DVDs to write, in the order given
+     * @return the JSON text
+     */
+    static String write(Collection<Dvd> dvds) {
+        StringBuilder json = new StringBuilder(64 + dvds.size() * 160).append('[');
+        for (Dvd dvd : dvds) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            appendDvd(json, dvd);
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Writes an error message as {"error": message}.
+     *
+     * @param message error message
+     * @return the JSON text
+     */
+    static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        return json.append('}').toString();
+    }
+
+    /**
+     * Builds a DVD from a JSON object. The title comes from the caller
+     * rather than the body, so it always matches the request path.
+     *
+     * @param title title of the DVD
+     * @param json JSON object with every one of the DVD's other fields
+     * @return the DVD
+     * @throws IllegalArgumentException if the text is not a flat
+     * object of strings, names an unknown field, leaves a field out
+     * or holds a value that cannot be stored
+     */
+    static Dvd readDvd(String title, String json) {
+        Map<String, String> values = readObject(json);
+        for (String name : values.keySet()) {
+            if (!name.equals("title") && !FIELDS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown field: " + name);
+            }
+        }
+        for (String name : FIELDS.keySet()) {
+            if (!values.containsKey(name)) {
+                throw new IllegalArgumentException("Missing field: " + name);
+            }
+            checkValue(name, values.get(name));
+        }
+        return new Dvd(title, values.get("releaseDate"), values.get("mpaa"),
+                values.get("directorsName"), values.get("studio"), values.get("userRating"));
+    }
+
+    /**
+     * Checks that a title or field value can be saved in the library.
+     *
+     * @param name name of the field, used in the error message
+     * @param value the title or value
+     * @return value, unchanged
+     * @throws IllegalArgumentException if the value is null or could
+     * not be read back from the library file
+     */
+    static String checkValue(String name, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException(name + " must be a string, not null");
+        }
+        if (!DvdTextFormat.isStorable(value)) {
+            throw new IllegalArgumentException(name + " must not contain \"" + DvdTextFormat.DELIMITER
+                    + "\" or a line break, nor end with ':'");
+        }
+        return value;
+    }
+
+    /**
+     * Parses a JSON object whose values are all strings or null.
+     *
+     * @param json text of the object
+     * @return the properties in the order given
+     * @throws IllegalArgumentException if the text is not such an object
+     */
+    static Map<String, String> readObject(String json) {
+        Parser parser = new Parser(json);
+        Map<String, String> values = parser.object();
+        parser.end();
+        return values;
+    }
+
+    private static StringBuilder appendDvd(StringBuilder json, Dvd dvd) {
+        json.append("{\"title\":");
+        appendString(json, dvd.getTitle());
+        json.append(",\"releaseDate\":");
+        appendString(json, dvd.getReleaseDate());
+        json.append(",\"mpaa\":");
+        appendString(json, dvd.getMPAA());
+        json.append(",\"directorsName\":");
+        appendString(json, dvd.getDirectorsName());
+        json.append(",\"studio\":");
+        appendString(json, dvd.getStudio());
+        json.append(",\"userRating\":");
+        appendString(json, dvd.getUserRating());
+        return json.append('}');
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Recursive-descent parser for one flat JSON object.
+     */
+    private static final class Parser {
+        private final String text;
+        private int position = 0;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Map<String, String> object() {
+            Map<String, String> values = new LinkedHashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                position++;
+                return values;
+            }
+            do {
+                String name = string();
+                expect(':');
+                if (values.put(name, value()) != null) {
+                    throw new IllegalArgumentException("Field given twice: " + name);
+                }
+            } while (consume(','));
+            expect('}');
+            return values;
+        }
+
+        void end() {
+            if (peek() != 0) {
+                throw error("Unexpected text after the object");
+            }
+        }
+
+        private String value() {
+            if (peek() == '"') {
+                return string();
+            }
+            if (text.startsWith("null", position)) {
+                position += 4;
+                return null;
+            }
+            throw error("Field values must be strings or null");
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        value.append(escaped);
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw error("Incomplete \\u escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid \\u escape");
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape \\" + escaped);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            position++;
+        }
+
+        private boolean consume(char c) {
+            if (peek() == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Skips whitespace and returns the next character, or 0 at the end.
+         */
+        private char peek() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            return position < text.length() ? text.charAt(position) : 0;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at character " + position);
+        }
+    }
+}
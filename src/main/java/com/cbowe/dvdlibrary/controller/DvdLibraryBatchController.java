@@ -0,0 +1,268 @@
+package com.cbowe.dvdlibrary.controller;
+
+import com.cbowe.dvdlibrary.dao.DvdLibraryDao;
+import com.cbowe.dvdlibrary.dao.DvdLibraryDaoException;
+import com.cbowe.dvdlibrary.dao.DvdTextFormat;
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The {@code DvdLibraryBatchController} class runs a script of
+ * commands against the library without any prompts, for jobs such as
+ * a nightly sync. Commands are read one per line, with fields
+ * separated by "::" as in the library file:
+ * <pre>
+ * add::title::releaseDate::mpaa::director::studio::userRating
+ * remove::title
+ * edit::title::field::value     field is a DvdField, e.g. studio or user-rating
+ * get::title
+ * list
+ * </pre>
+ * Blank lines and lines starting with '#' are skipped.
+ * <p>
+ * Each command writes one line of output: ADDED, REPLACED, REMOVED or
+ * EDITED with the title, DVD with the DVD in library format,
+ * NOT FOUND with the title, or ERROR with the line number and the
+ * reason. A failed command does not stop the script. list writes a
+ * DVD line per DVD in title order and then LISTED with the count.
+ * <p>
+ * Changes are not written as they are read. They are held until the
+ * end of the script, and get and list see them, so the whole script
+ * is saved with one applyChanges call. For most backends that is one
+ * write of the library, however many commands the script holds. A
+ * final SAVED line gives the number of DVDs removed or written.
+ * <p>
+ * Edits are saved as field edits that expect the version each DVD
+ * had when the script first edited it, so a DVD changed by someone
+ * else while the script ran is not overwritten. If that happens, or
+ * saving fails for any other reason, nothing is saved and run throws.
+ * Titles and values the library file cannot hold, such as those
+ * containing "::", are rejected as errors.
+ */
+
+public class DvdLibraryBatchController {
+
+    private final DvdLibraryDao dao;
+    private final BufferedReader in;
+    private final PrintWriter out;
+
+    // Changes made by the script and not saved yet, by title; a null
+    // value marks a removed DVD
+    private final Map<String, Dvd> pending = new LinkedHashMap<>();
+    // Field edits to DVDs the script has not added or removed, saved
+    // as edits so they are checked against the stored versions
+    private final Map<String, List<DvdEdit>> edits = new LinkedHashMap<>();
+    // Number of commands that failed
+    private int errors = 0;
+
+    /**
+     * Constructor initializes the dao and the script's input and
+     * output via dependency injection.
+     *
+     * @param dao DvdLibraryDao object
+     * @param in commands, one per line
+     * @param out where the results are written, one per line
+     */
+    public DvdLibraryBatchController(DvdLibraryDao dao, BufferedReader in, PrintWriter out) {
+        this.dao = dao;
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Method runs every command in the script and then saves the
+     * changes.
+     *
+     * @return number of commands that failed
+     * @throws IOException if the script could not be read
+     * @throws DvdLibraryDaoException if the changes could not be saved
+     */
+    public int run() throws IOException, DvdLibraryDaoException {
+        String line;
+        long lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            String command = line.stripLeading(); // Trailing spaces may belong to a value
+            if (command.isEmpty() || command.startsWith("#")) {
+                continue;
+            }
+            try {
+                runCommand(command);
+            } catch (IllegalArgumentException | DvdLibraryDaoException e) {
+                errors++;
+                out.println("ERROR::line " + lineNumber + "::" + e.getMessage());
+            }
+        }
+        out.println("SAVED::" + save());
+        out.flush();
+        return errors;
+    }
+
+    /**
+     * Method runs one command.
+     */
+    private void runCommand(String command) throws DvdLibraryDaoException {
+        int delimiter = command.indexOf(DvdTextFormat.DELIMITER);
+        String name = (delimiter < 0 ? command : command.substring(0, delimiter)).toLowerCase(Locale.ROOT);
+        String arguments = delimiter < 0 ? "" : command.substring(delimiter + DvdTextFormat.DELIMITER.length());
+
+        switch (name) {
+            case "add":
+                Dvd dvd = DvdTextFormat.unmarshallDvd(arguments);
+                checkStorable(dvd.getTitle(), dvd.getReleaseDate(), dvd.getMPAA(), dvd.getDirectorsName(),
+                        dvd.getStudio(), dvd.getUserRating());
+                out.println((lookup(dvd.getTitle()) == null ? "ADDED::" : "REPLACED::") + dvd.getTitle());
+                pending.put(dvd.getTitle(), dvd);
+                edits.remove(dvd.getTitle());
+                break;
+            case "remove":
+                String removedTitle = title(arguments);
+                if (lookup(removedTitle) == null) {
+                    out.println("NOT FOUND::" + removedTitle);
+                } else {
+                    pending.put(removedTitle, null);
+                    edits.remove(removedTitle);
+                    out.println("REMOVED::" + removedTitle);
+                }
+                break;
+            case "edit":
+                edit(arguments);
+                break;
+            case "get":
+                String title = title(arguments);
+                Dvd found = lookup(title);
+                out.println(found == null ? "NOT FOUND::" + title : "DVD::" + DvdTextFormat.marshallDvd(found));
+                break;
+            case "list":
+                List<Dvd> dvds = listAll();
+                for (Dvd listed : dvds) {
+                    out.println("DVD::" + DvdTextFormat.marshallDvd(listed));
+                }
+                out.println("LISTED::" + dvds.size());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + name);
+        }
+    }
+
+    /**
+     * Method runs edit::title::field::value. The field is a DvdField
+     * name in any case, with '-' or '_' between words.
+     */
+    private void edit(String arguments) throws DvdLibraryDaoException {
+        String[] parts = arguments.split(DvdTextFormat.DELIMITER, 3);
+        if (parts.length < 3 || parts[0].isEmpty()) {
+            throw new IllegalArgumentException("Expected edit::title::field::value");
+        }
+        checkStorable(parts[2]);
+        DvdField field;
+        try {
+            field = DvdField.valueOf(parts[1].strip().replace('-', '_').toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown field: " + parts[1]);
+        }
+
+        Dvd current = lookup(parts[0]);
+        if (current == null) {
+            out.println("NOT FOUND::" + parts[0]);
+            return;
+        }
+        if (!pending.containsKey(parts[0]) || edits.containsKey(parts[0])) {
+            // A stored DVD: expect the version the first edit was made to
+            long version = edits.containsKey(parts[0])
+                    ? edits.get(parts[0]).get(0).getExpectedVersion() : current.getVersion();
+            edits.computeIfAbsent(parts[0], title -> new ArrayList<>())
+                    .add(new DvdEdit(parts[0], field, parts[2], version));
+        }
+        pending.put(parts[0], field.apply(current, parts[2]));
+        out.println("EDITED::" + parts[0]);
+    }
+
+    /**
+     * Method returns a DVD as the script has left it so far.
+     */
+    private Dvd lookup(String title) throws DvdLibraryDaoException {
+        if (pending.containsKey(title)) {
+            return pending.get(title);
+        }
+        return dao.getDvd(title);
+    }
+
+    /**
+     * Method returns every DVD as the script has left it so far, in
+     * title order.
+     */
+    private List<Dvd> listAll() throws DvdLibraryDaoException {
+        Map<String, Dvd> dvds = new HashMap<>();
+        for (Dvd dvd : dao.getAllDvds()) {
+            dvds.put(dvd.getTitle(), dvd);
+        }
+        for (Map.Entry<String, Dvd> change : pending.entrySet()) {
+            if (change.getValue() == null) {
+                dvds.remove(change.getKey());
+            } else {
+                dvds.put(change.getKey(), change.getValue());
+            }
+        }
+        List<Dvd> listed = new ArrayList<>(dvds.values());
+        listed.sort(DvdLibraryDao.TITLE_ORDER);
+        return listed;
+    }
+
+    /**
+     * Method saves the pending changes with one applyChanges call,
+     * skipping it if there is nothing to do.
+     *
+     * @return number of DVDs removed or written
+     */
+    private int save() throws DvdLibraryDaoException {
+        List<DvdEdit> fieldEdits = new ArrayList<>();
+        List<String> removedTitles = new ArrayList<>();
+        List<Dvd> newDvds = new ArrayList<>();
+        for (Map.Entry<String, Dvd> change : pending.entrySet()) {
+            if (edits.containsKey(change.getKey())) {
+                fieldEdits.addAll(edits.get(change.getKey()));
+            } else if (change.getValue() == null) {
+                removedTitles.add(change.getKey());
+            } else {
+                newDvds.add(change.getValue());
+            }
+        }
+        if (!pending.isEmpty()) {
+            dao.applyChanges(fieldEdits, removedTitles, newDvds);
+        }
+        int saved = pending.size();
+        pending.clear();
+        edits.clear();
+        return saved;
+    }
+
+    /**
+     * Method rejects titles and values the library file cannot hold.
+     */
+    private static void checkStorable(String... values) {
+        for (String value : values) {
+            if (!DvdTextFormat.isStorable(value)) {
+                throw new IllegalArgumentException("Values must not contain \"" + DvdTextFormat.DELIMITER
+                        + "\" or a line break, nor end with ':': " + value);
+            }
+        }
+    }
+
+    private static String title(String arguments) {
+        if (arguments.isEmpty() || arguments.contains(DvdTextFormat.DELIMITER)) {
+            throw new IllegalArgumentException("Expected a single title");
+        }
+        return arguments;
+    }
+}
@@ -1,9 +1,17 @@
 package com.cbowe.dvdlibrary.controller;
 
+import com.cbowe.dvdlibrary.dao.DvdLibraryConflictException;
 import com.cbowe.dvdlibrary.dao.DvdLibraryDao;
 import com.cbowe.dvdlibrary.dao.DvdLibraryDaoException;
+import com.cbowe.dvdlibrary.dao.DvdLibraryMetrics;
+import com.cbowe.dvdlibrary.dao.DvdTextFormat;
 import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdPatch;
 import com.cbowe.dvdlibrary.ui.DvdLibraryView;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -16,6 +24,13 @@ import java.util.List;
 
 public class DvdLibraryController {
 
+    // Number of DVDs listed per page
+    private static final int PAGE_SIZE = 20;
+    // Maximum number of matches shown for a title search
+    private static final int SEARCH_RESULT_LIMIT = 10;
+    // File the performance metrics are exported to
+    private static final String METRICS_FILE = "dvdLibraryMetrics.txt";
+
     // Declare DvdLibraryView and DvdLibraryDao objects
     private DvdLibraryView view;
     private DvdLibraryDao dao;
@@ -60,7 +75,16 @@ public class DvdLibraryController {
                     case 5:
                         removeDvd();
                         break;
-                    case 6: // Option to exit application
+                    case 6:
+                        searchDvds();
+                        break;
+                    case 7:
+                        importDvds();
+                        break;
+                    case 8:
+                        showMetrics();
+                        break;
+                    case 9: // Option to exit application
                         keepGoing = false;
                         break;
                     default:
@@ -104,18 +128,52 @@ public class DvdLibraryController {
     }
 
     /**
-     * Method to display a list of all Dvd objects to the user
+     * Method to display all Dvd objects to the user one page at a
+     * time, in title order, with next and previous navigation. Each
+     * page is fetched by seeking from the first or last title on the
+     * page before, so moving between pages costs the same at the end
+     * of a large library as at the start. The library is counted once
+     * on entering the list, as counting can mean a full scan on some
+     * backends.
      *
      * @throws DvdLibraryDaoException prints message
      */
     private void listDvds() throws DvdLibraryDaoException {
         // Display the Display All Banner
         view.displayDisplayAllBanner();
-        // Retrieve all Dvd objects in the system from the DAO
-        // and store as a List
-        List<Dvd> dvdList = dao.getAllDvds();
-        // Display the list of Dvds
-        view.displayDvdList(dvdList);
+        int pageIndex = 0;
+        int pageCount = Math.max(1, (dao.countDvds() + PAGE_SIZE - 1) / PAGE_SIZE);
+        List<Dvd> dvdPage = dao.getDvdsAfter(null, PAGE_SIZE);
+        boolean keepGoing = true;
+        while (keepGoing) {
+            // Stretch the count if DVDs were added since it was taken
+            pageCount = Math.max(pageCount, pageIndex + 1);
+
+            switch (view.displayDvdPageAndGetChoice(dvdPage, pageIndex + 1, pageCount)) {
+                case 1: // Next page, staying on the last one
+                    if (!dvdPage.isEmpty()) {
+                        String lastTitle = dvdPage.get(dvdPage.size() - 1).getTitle();
+                        List<Dvd> nextPage = dao.getDvdsAfter(lastTitle, PAGE_SIZE);
+                        if (!nextPage.isEmpty()) {
+                            dvdPage = nextPage;
+                            pageIndex++;
+                        }
+                    }
+                    break;
+                case 2: // Previous page, staying on the first one
+                    if (pageIndex > 0 && !dvdPage.isEmpty()) {
+                        dvdPage = dao.getDvdsBefore(dvdPage.get(0).getTitle(), PAGE_SIZE);
+                        pageIndex--;
+                    }
+                    if (pageIndex == 0) {
+                        // Realign with the start in case the library changed
+                        dvdPage = dao.getDvdsAfter(null, PAGE_SIZE);
+                    }
+                    break;
+                default: // Return to main menu
+                    keepGoing = false;
+            }
+        }
     }
 
     /**
@@ -150,10 +208,82 @@ public class DvdLibraryController {
         view.displayRemoveResult(removedDvd);
     }
 
+    /**
+     * Method to search the library by title when the user does not
+     * know the exact title, and view one of the matches
+     *
+     * @throws DvdLibraryDaoException prints message
+     */
+    private void searchDvds() throws DvdLibraryDaoException {
+        // Display the Search DVDs Banner
+        view.displaySearchBanner();
+        // Get the text the user wants to search for
+        String searchText = view.getSearchText();
+        // Find the closest titles via the dao
+        List<Dvd> matches = dao.searchDvds(searchText, SEARCH_RESULT_LIMIT);
+        // Display the matches and view the one the user picks
+        int choice = view.displaySearchResultsAndGetChoice(matches);
+        if (choice > 0) {
+            view.displayDvd(matches.get(choice - 1));
+        }
+    }
+
+    /**
+     * Method to import every DVD in a "::" delimited file in one batch,
+     * so the library is saved once however many DVDs the file holds.
+     * A file that cannot be read is reported and nothing is imported.
+     *
+     * @throws DvdLibraryDaoException prints message
+     */
+    private void importDvds() throws DvdLibraryDaoException {
+        // Display the Import DVDs Banner
+        view.displayImportBanner();
+        // Get name of the file the user wants to import
+        String fileName = view.getImportFileName();
+
+        // Read every Dvd object from the file
+        List<Dvd> newDvds = new ArrayList<>();
+        try {
+            DvdTextFormat.readLibrary(Paths.get(fileName), newDvds::add);
+        } catch (IOException | InvalidPathException e) {
+            view.displayErrorMessage("Could not read " + fileName + ": " + e.getMessage());
+            return;
+        } catch (DvdLibraryDaoException e) {
+            view.displayErrorMessage(e.getMessage());
+            return;
+        }
+
+        // Store all Dvd objects with a single save
+        dao.addAll(newDvds);
+        // Display number of Dvd objects imported
+        view.displayImportResult(newDvds.size());
+    }
+
+    /**
+     * Method to display how often each DAO operation has run and how
+     * long it took, and to export the same report to METRICS_FILE so
+     * it can be kept or compared later.
+     */
+    private void showMetrics() {
+        // Display the Performance Metrics Banner
+        view.displayMetricsBanner();
+        DvdLibraryMetrics metrics = DvdLibraryMetrics.shared();
+        view.displayMetrics(metrics.report());
+        try {
+            metrics.exportTo(Paths.get(METRICS_FILE));
+            view.displayMetricsExported(METRICS_FILE);
+        } catch (IOException e) {
+            view.displayErrorMessage("Could not write " + METRICS_FILE + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Method controls the application when the user wishes to edit
      * a DVD in the library. A menu is displayed, similar to the main
-     * menu, for the user to select what information to edit.
+     * menu, for the user to select what information to edit. The
+     * changes are collected as the user makes them and saved together
+     * with a single updateDvd call when the user chooses to save. The
+     * save is refused if someone else changed the DVD in the meantime.
      *
      * @throws DvdLibraryDaoException prints message
      */
@@ -171,6 +301,9 @@ public class DvdLibraryController {
         else {
             // Display currentDvd object
             view.displayDvd(currentDVD);
+            // Changes made so far, saved together when the user is done
+            // and only if the DVD is still the version displayed
+            DvdPatch patch = new DvdPatch().expectVersion(currentDVD.getVersion());
             int editMenuSelection = 0;
             boolean keepGoing = true;
             while (keepGoing) {
@@ -179,21 +312,26 @@ public class DvdLibraryController {
 
                 switch (editMenuSelection) {
                     case 1:
-                        editReleaseDate(title);
+                        editReleaseDate(patch);
                         break;
                     case 2:
-                        editMPAA(title);
+                        editMPAA(patch);
                         break;
                     case 3:
-                        editDirectorName(title);
+                        editDirectorName(patch);
                         break;
                     case 4:
-                        editStudioName(title);
+                        editStudioName(patch);
                         break;
                     case 5:
-                        editUserRating(title);
+                        editUserRating(patch);
+                        break;
+                    case 6: // Option to save the changes and exit edit
+                        saveEdits(title, patch);
+                        keepGoing = false;
                         break;
-                    case 6: // Option to exit edit
+                    case 7: // Option to exit edit without saving
+                        view.displayEditDiscarded();
                         keepGoing = false;
                         break;
                     default:
@@ -218,95 +356,111 @@ public class DvdLibraryController {
     }
 
     /**
-     * Method allows the release date of a Dvd object to be edited.
+     * Method saves every change collected in the edit menu with one
+     * call to the dao. If the DVD was changed by someone else since it
+     * was displayed, nothing is saved and the user is told so.
      *
      * @param title title of DVD to be edited
+     * @param patch changes made in the edit menu
      * @throws DvdLibraryDaoException prints message
      */
-    private void editReleaseDate(String title) throws DvdLibraryDaoException {
+    private void saveEdits(String title, DvdPatch patch) throws DvdLibraryDaoException {
+        if (patch.isEmpty()) {
+            view.displayEditDiscarded();
+            return;
+        }
+        Dvd editedDvd;
+        try {
+            // Update every changed field of the Dvd object at once
+            editedDvd = dao.updateDvd(title, patch);
+        } catch (DvdLibraryConflictException e) {
+            view.displayEditConflict();
+            return;
+        }
+        if (editedDvd == null) {
+            // The DVD was removed while the menu was open
+            view.displayNullDVD();
+        } else {
+            // Display message for successful editing
+            view.displayEditDvdSuccess();
+        }
+    }
+
+    /**
+     * Method allows the release date of a Dvd object to be edited.
+     *
+     * @param patch changes to add the new release date to
+     */
+    private void editReleaseDate(DvdPatch patch) {
         // Display the Edit Release Date Banner
         view.displayEditReleaseDateBanner();
         // Prompt for and get new release date
-        String newReleaseDate = view.getNewReleaseDate();
-        // Update the release date of the Dvd object
-        dao.editReleaseDate(title, newReleaseDate);
-        // Display message for successful editing
-        view.displayEditDvdSuccess();
+        patch.setReleaseDate(view.getNewReleaseDate());
+        // Display message that the change will be saved later
+        view.displayEditPending();
     }
 
     /**
      * Method allows the MPAA rating of a Dvd object to be edited.
      *
-     * @param title title of DVD to be edited
-     * @throws DvdLibraryDaoException prints message
+     * @param patch changes to add the new MPAA rating to
      */
-    private void editMPAA(String title) throws DvdLibraryDaoException {
+    private void editMPAA(DvdPatch patch) {
         // Display the Edit MPAA Rating Banner
         view.displayEditMpaaBanner();
         // Prompt for and get new MPAA rating
-        String newMpaaRating = view.getNewMpaaRating();
-        // Update the MPAA rating of the Dvd object
-        dao.editMPAA(title, newMpaaRating);
-        // Display message for successful editing
-        view.displayEditDvdSuccess();
+        patch.setMPAA(view.getNewMpaaRating());
+        // Display message that the change will be saved later
+        view.displayEditPending();
     }
 
     /**
      * Method allows the director name of a Dvd object to be edited.
      *
-     * @param title title of DVD to be edited
-     * @throws DvdLibraryDaoException prints message
+     * @param patch changes to add the new director name to
      */
-    private void editDirectorName(String title) throws DvdLibraryDaoException {
+    private void editDirectorName(DvdPatch patch) {
         // Display the Edit Director Name Banner
         view.displayEditDirectorNameBanner();
         // Prompt for and get new Director name
-        String newDirectorName = view.getNewDirectorName();
-        // Update the director name of the Dvd object
-        dao.editDirectorName(title, newDirectorName);
-        // Display message for successful editing
-        view.displayEditDvdSuccess();
+        patch.setDirectorsName(view.getNewDirectorName());
+        // Display message that the change will be saved later
+        view.displayEditPending();
     }
 
     /**
      * Method allows the user rating of a Dvd object to be edited.
      *
-     * @param title title of DVD to be edited
-     * @throws DvdLibraryDaoException prints message
+     * @param patch changes to add the new user rating to
      */
-    private void editUserRating(String title) throws DvdLibraryDaoException {
+    private void editUserRating(DvdPatch patch) {
         // Display the Edit User Rating Banner
         view.displayEditUserRating();
         // Prompt for and get new user rating
-        String newUserRating = view.getNewUserRating();
-        // Update the user rating of the Dvd object
-        dao.editUserRating(title, newUserRating);
-        // Display message for successful editing
-        view.displayEditDvdSuccess();
+        patch.setUserRating(view.getNewUserRating());
+        // Display message that the change will be saved later
+        view.displayEditPending();
     }
 
     /**
      * Method allows the studio name of a Dvd object to be edited.
      *
-     * @param title title of DVD to be edited
-     * @throws DvdLibraryDaoException prints message
+     * @param patch changes to add the new studio name to
      */
-    private void editStudioName(String title) throws DvdLibraryDaoException {
+    private void editStudioName(DvdPatch patch) {
         // Display the Edit Studio Banner
         view.displayEditStudio();
         // Prompt for and get new Studio name
-        String newStudioName = view.getNewStudio();
-        // Update the studio name of the Dvd object
-        dao.editStudio(title, newStudioName);
-        // Display message for successful editing
-        view.displayEditDvdSuccess();
+        patch.setStudio(view.getNewStudio());
+        // Display message that the change will be saved later
+        view.displayEditPending();
     }
 
 
     /**
      * Method asks the view to display banner when an unknown
      * command is received.
-     * Ex: Menu options are 1 - 6, but the user input is 7.
+     * Ex: Menu options are 1 - 9, but the user input is 10.
      */
     private void unknownCommand() {
         view.displayUnknownCommandBanner();
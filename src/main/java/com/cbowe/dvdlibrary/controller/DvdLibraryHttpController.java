@@ -0,0 +1,403 @@
+package com.cbowe.dvdlibrary.controller;
+
+import com.cbowe.dvdlibrary.dao.DvdLibraryConflictException;
+import com.cbowe.dvdlibrary.dao.DvdLibraryDao;
+import com.cbowe.dvdlibrary.dao.DvdLibraryDaoException;
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdPatch;
+import com.cbowe.dvdlibrary.ui.DvdLibraryView;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code DvdLibraryHttpController} class serves the DvdLibraryDao
+ * operations over HTTP with JSON bodies, so many clients can use the
+ * same library at once:
+ * <pre>
+ * GET    /dvds                       every DVD
+ * GET    /dvds?offset=40&amp;limit=20    one page in title order
+ * GET    /dvds/{title}               one DVD, or 404
+ * PUT    /dvds/{title}               add or replace; 201 if it is new
+ * PATCH  /dvds/{title}               change the fields in the body
+ * DELETE /dvds/{title}               remove, answering with the DVD
+ * </pre>
+ * Titles in the path are percent-encoded. DVDs are written as
+ * described in DvdJson, and errors as {"error": message}. A PUT body
+ * must give every field; a PATCH body at least one. Titles and values
+ * the library file cannot hold are answered with 400 Bad Request.
+ * <p>
+ * Every response holding one DVD carries its version stamp as the
+ * ETag header. A PUT or PATCH with an If-Match header naming that
+ * ETag is applied only if the DVD still has that version, and is
+ * answered with 412 Precondition Failed otherwise, so two clients
+ * editing the same DVD cannot silently overwrite each other.
+ * <p>
+ * Each request runs on its own virtual thread where the JVM offers
+ * them, and on a pooled platform thread otherwise. All requests
+ * share one DAO, which must therefore be safe to call from many
+ * threads at once.
+ */
+
+public class DvdLibraryHttpController {
+
+    // Path every DVD resource lives under
+    private static final String DVDS_PATH = "/dvds";
+    // Largest request body accepted
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    // Connections the operating system queues before accepting them
+    private static final int BACKLOG = 1024;
+    // Seconds in-flight requests get to finish when stopping
+    private static final int STOP_DELAY_SECONDS = 2;
+    // JDK server setting that turns off Nagle's algorithm, so small
+    // responses are not held back waiting for the client's ACK
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final DvdLibraryDao dao;
+    private final DvdLibraryView view;
+    private final int port;
+
+    // Server and the executor running its requests; null until started
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructor initializes the dao and view objects via dependency
+     * injection, with the port to listen on.
+     *
+     * @param dao thread-safe DvdLibraryDao object shared by all requests
+     * @param view DvdLibraryView object for startup and shutdown messages
+     * @param port TCP port to listen on, or 0 for any free port
+     */
+    public DvdLibraryHttpController(DvdLibraryDao dao, DvdLibraryView view, int port) {
+        this.dao = dao;
+        this.view = view;
+        this.port = port;
+    }
+
+    /**
+     * Method starts the service and blocks until the JVM is asked to
+     * shut down, for example with Ctrl+C, then stops it.
+     *
+     * @throws IOException if the port could not be bound
+     */
+    public void run() throws IOException {
+        int boundPort = start();
+        view.displayServiceStarted("http://localhost:" + boundPort + DVDS_PATH);
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stop();
+            stopped.countDown();
+            try {
+                mainThread.join(TimeUnit.SECONDS.toMillis(5)); // Let the caller close the DAO
+            } catch (InterruptedException ignored) {
+                // Exiting anyway
+            }
+        }, "dvd-http-shutdown"));
+
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+        }
+        view.displayServiceStopped();
+    }
+
+    /**
+     * Method starts listening and returns straight away.
+     *
+     * @return the port the service is listening on
+     * @throws IOException if the port could not be bound
+     */
+    public synchronized int start() throws IOException {
+        if (server != null) {
+            return server.getAddress().getPort();
+        }
+        if (System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true"); // Read when the first server is created
+        }
+        HttpServer newServer = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        executor = newRequestExecutor();
+        newServer.setExecutor(executor);
+        newServer.createContext(DVDS_PATH, this::handle);
+        newServer.start();
+        server = newServer;
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Method stops accepting requests, gives those in flight a moment
+     * to finish and releases the threads.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(STOP_DELAY_SECONDS);
+            executor.shutdown();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * Method creates an executor that starts a virtual thread per
+     * task. Virtual threads are looked up by reflection, so the
+     * service still runs, on a cached pool of platform threads, on
+     * JVMs that do not offer them.
+     *
+     * @return executor for the requests
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "dvd-http-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Method answers one request, turning every failure into a JSON
+     * error response.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getRawPath();
+            if (path.equals(DVDS_PATH) || path.equals(DVDS_PATH + "/")) {
+                handleCollection(exchange);
+            } else if (path.startsWith(DVDS_PATH + "/")) {
+                handleDvd(exchange, decode(path.substring(DVDS_PATH.length() + 1)));
+            } else {
+                send(exchange, 404, DvdJson.error("No such resource: " + path));
+            }
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, DvdJson.error(e.getMessage()));
+        } catch (DvdLibraryConflictException e) {
+            send(exchange, 412, DvdJson.error(e.getMessage()));
+        } catch (DvdLibraryDaoException e) {
+            send(exchange, 500, DvdJson.error(e.getMessage()));
+        } catch (RuntimeException e) {
+            send(exchange, 500, DvdJson.error("Internal error: " + e));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Method answers requests for /dvds: the whole library, or one
+     * page of it in title order when offset or limit is given.
+     */
+    private void handleCollection(HttpExchange exchange) throws IOException, DvdLibraryDaoException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            send(exchange, 405, DvdJson.error("Use GET to list DVDs"));
+            return;
+        }
+        Map<String, String> parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+        List<Dvd> dvds;
+        if (parameters.containsKey("offset") || parameters.containsKey("limit")) {
+            dvds = dao.getDvdPage(intParameter(parameters, "offset", 0),
+                    intParameter(parameters, "limit", Integer.MAX_VALUE));
+        } else {
+            dvds = dao.getAllDvds();
+        }
+        send(exchange, 200, DvdJson.write(dvds));
+    }
+
+    /**
+     * Method answers requests for /dvds/{title}.
+     */
+    private void handleDvd(HttpExchange exchange, String title) throws IOException, DvdLibraryDaoException {
+        if (title.isEmpty()) {
+            throw new IllegalArgumentException("Title must not be empty");
+        }
+        DvdJson.checkValue("title", title);
+        switch (exchange.getRequestMethod()) {
+            case "GET":
+                sendDvd(exchange, title, dao.getDvd(title));
+                break;
+            case "PUT":
+                Dvd dvd = DvdJson.readDvd(title, readBody(exchange));
+                long expectedVersion = ifMatch(exchange);
+                if (expectedVersion != DvdEdit.ANY_VERSION) {
+                    sendReplaced(exchange, title, replace(title, dvd, expectedVersion));
+                    break;
+                }
+                Dvd previousDvd = dao.addDvd(title, dvd);
+                setETag(exchange, dvd);
+                send(exchange, previousDvd == null ? 201 : 200, DvdJson.write(dvd));
+                break;
+            case "PATCH":
+                Map<String, String> fields = DvdJson.readObject(readBody(exchange));
+                sendDvd(exchange, title, patch(title, fields, ifMatch(exchange)));
+                break;
+            case "DELETE":
+                sendDvd(exchange, title, dao.removeDvd(title));
+                break;
+            default:
+                exchange.getResponseHeaders().set("Allow", "GET, PUT, PATCH, DELETE");
+                send(exchange, 405, DvdJson.error("Method not allowed: " + exchange.getRequestMethod()));
+        }
+    }
+
+    /**
+     * Method applies the fields of a PATCH body to a DVD with one
+     * updateDvd call, so either every field changes or none does.
+     *
+     * @return the edited DVD, or null if no DVD has the title
+     */
+    private Dvd patch(String title, Map<String, String> fields, long expectedVersion) throws DvdLibraryDaoException {
+        DvdPatch patch = new DvdPatch().expectVersion(expectedVersion);
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (!DvdJson.FIELDS.containsKey(field.getKey())) {
+                throw new IllegalArgumentException("Cannot change field: " + field.getKey());
+            }
+            patch.set(DvdJson.FIELDS.get(field.getKey()), DvdJson.checkValue(field.getKey(), field.getValue()));
+        }
+        if (patch.isEmpty()) {
+            throw new IllegalArgumentException("Give at least one field to change");
+        }
+        return dao.updateDvd(title, patch);
+    }
+
+    /**
+     * Method replaces every field of a DVD, but only if it still has
+     * the expected version.
+     *
+     * @return the new DVD, or null if no DVD has the title
+     */
+    private Dvd replace(String title, Dvd dvd, long expectedVersion) throws DvdLibraryDaoException {
+        DvdPatch patch = new DvdPatch().expectVersion(expectedVersion);
+        for (DvdField field : DvdJson.FIELDS.values()) {
+            patch.set(field, field.get(dvd));
+        }
+        return dao.updateDvd(title, patch);
+    }
+
+    /**
+     * Method reads the version named by an If-Match header.
+     *
+     * @return the version, or DvdEdit.ANY_VERSION if there is no header
+     */
+    private static long ifMatch(HttpExchange exchange) {
+        String eTag = exchange.getRequestHeaders().getFirst("If-Match");
+        if (eTag == null || eTag.strip().equals("*")) {
+            return DvdEdit.ANY_VERSION;
+        }
+        String version = eTag.strip();
+        if (version.length() > 1 && version.startsWith("\"") && version.endsWith("\"")) {
+            version = version.substring(1, version.length() - 1);
+        }
+        try {
+            long number = Long.parseLong(version);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("If-Match must be an ETag sent by this service: " + eTag);
+    }
+
+    private static void setETag(HttpExchange exchange, Dvd dvd) {
+        exchange.getResponseHeaders().set("ETag", "\"" + dvd.getVersion() + "\"");
+    }
+
+    /**
+     * Method answers a conditional PUT. A missing DVD fails the
+     * condition just as a changed one does.
+     */
+    private void sendReplaced(HttpExchange exchange, String title, Dvd dvd) throws IOException {
+        if (dvd == null) {
+            send(exchange, 412, DvdJson.error("No such DVD: " + title));
+        } else {
+            sendDvd(exchange, title, dvd);
+        }
+    }
+
+    private void sendDvd(HttpExchange exchange, String title, Dvd dvd) throws IOException {
+        if (dvd == null) {
+            send(exchange, 404, DvdJson.error("No such DVD: " + title));
+        } else {
+            setETag(exchange, dvd);
+            send(exchange, 200, DvdJson.write(dvd));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body is larger than " + MAX_BODY_BYTES + " bytes");
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, String> queryParameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static int intParameter(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number < 0) {
+                throw new IllegalArgumentException(name + " must not be negative");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number: " + value);
+        }
+    }
+
+    /**
+     * Decodes a percent-encoded path segment. Unlike a query string,
+     * a path keeps '+' as a plus sign.
+     */
+    private static String decode(String rawSegment) {
+        return URLDecoder.decode(rawSegment.replace("+", "%2B"), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,525 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The {@code DvdBinaryFormat} class reads and writes the binary
+ * library format, a compact alternative to the "::" text format.
+ * <p>
+ * All numbers are big-endian. Strings are a varint of their byte
+ * length plus one followed by UTF-8 bytes, 0 marking a null string.
+ * Studio, director and MPAA values repeat across a catalog, so each
+ * distinct value is stored once in a string table and records refer
+ * to it by varint id; id 0 stands for null and the table's strings
+ * are numbered from 1.
+ * <pre>
+ * header   magic "DVDB", u16 version, u16 flags, i32 record count,
+ *          i32 string count, i64 string table offset,
+ *          i64 records offset, i64 index offset (0 if none)
+ * strings  string count strings
+ * records  title, release date, varint MPAA id, varint director id,
+ *          varint studio id, user rating, i64 version stamp
+ * index    i32 entry count, then (i32 title hash, i64 record offset)
+ *          entries sorted by hash
+ * </pre>
+ * Version 1 files have no version stamps; their records are read as
+ * Dvd.UNVERSIONED. Version 1 and 2 files store strings as their plain
+ * byte length and number the string table from 0, so they cannot hold
+ * null values.
+ */
+
+public final class DvdBinaryFormat {
+
+    // Marks a binary library file
+    private static final int MAGIC = ('D' << 24) | ('V' << 16) | ('D' << 8) | 'B';
+    // Version written by this class
+    public static final int VERSION = 3;
+    // Last version whose records have no version stamp
+    private static final int UNSTAMPED_VERSION = 1;
+    // Last version that cannot store null strings
+    private static final int NON_NULL_VERSION = 2;
+    // Flag set when the file ends with a title index
+    private static final int FLAG_TITLE_INDEX = 1;
+    // Size in bytes of the fixed header
+    private static final int HEADER_SIZE = 40;
+    // Size of the buffers used to read and write files
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Size of the buffer used to read single records by title
+    private static final int LOOKUP_BUFFER_SIZE = 4 * 1024;
+
+    private DvdBinaryFormat() {
+    }
+
+    /**
+     * Writes DVDs to a binary library file with a title index. The
+     * file is written next to the target and renamed over it.
+     *
+     * @param file library file to write
+     * @param dvds DVDs to write
+     * @throws IOException if the file could not be written
+     */
+    public static void writeLibrary(Path file, Collection<Dvd> dvds) throws IOException {
+        // Build the string table of repeated values; id 0 is null
+        Map<String, Integer> ids = new HashMap<>();
+        ids.put(null, 0);
+        for (Dvd dvd : dvds) {
+            ids.putIfAbsent(dvd.getMPAA(), ids.size());
+            ids.putIfAbsent(dvd.getDirectorsName(), ids.size());
+            ids.putIfAbsent(dvd.getStudio(), ids.size());
+        }
+        String[] strings = new String[ids.size() - 1];
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            if (entry.getKey() != null) {
+                strings[entry.getValue() - 1] = entry.getKey();
+            }
+        }
+
+        Path temp = DvdTextFormat.tempFileFor(file);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel, HEADER_SIZE);
+
+            long stringTableOffset = out.position();
+            for (String value : strings) {
+                out.writeString(value);
+            }
+
+            long recordsOffset = out.position();
+            // Title hash in the high half, record number in the low half
+            long[] index = new long[dvds.size()];
+            long[] offsets = new long[dvds.size()];
+            int count = 0;
+            for (Dvd dvd : dvds) {
+                index[count] = ((long) titleHash(dvd.getTitle()) << 32) | count;
+                offsets[count++] = out.position();
+                out.writeString(dvd.getTitle());
+                out.writeString(dvd.getReleaseDate());
+                out.writeVarInt(ids.get(dvd.getMPAA()));
+                out.writeVarInt(ids.get(dvd.getDirectorsName()));
+                out.writeVarInt(ids.get(dvd.getStudio()));
+                out.writeString(dvd.getUserRating());
+                out.writeLong(dvd.getVersion());
+            }
+
+            // Sort (hash, record number) pairs so lookups can binary search
+            Arrays.sort(index);
+            long indexOffset = out.position();
+            out.writeInt(count);
+            for (long entry : index) {
+                out.writeInt((int) (entry >> 32));
+                out.writeLong(offsets[(int) entry]);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort((short) VERSION).putShort((short) FLAG_TITLE_INDEX)
+                    .putInt(count).putInt(strings.length)
+                    .putLong(stringTableOffset).putLong(recordsOffset).putLong(indexOffset);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        DvdTextFormat.replace(temp, file);
+    }
+
+    /**
+     * Reads every DVD from a binary library file in file order.
+     *
+     * @param file library file to read
+     * @param consumer receives each DVD
+     * @return number of DVDs read
+     * @throws IOException if the file could not be read
+     * @throws DvdLibraryDaoException if the file is not a binary library
+     */
+    public static long readLibrary(Path file, Consumer<Dvd> consumer)
+            throws IOException, DvdLibraryDaoException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel, file);
+            Input in = new Input(channel, header.stringTableOffset, BUFFER_SIZE, header.nullable);
+            String[] strings = readStrings(in, header);
+
+            in.seek(header.recordsOffset);
+            for (int i = 0; i < header.recordCount; i++) {
+                consumer.accept(readRecord(in, strings, header));
+            }
+            return header.recordCount;
+        }
+    }
+
+    /**
+     * Looks one title up through the footer index without reading
+     * the rest of the records.
+     *
+     * @param file library file to search
+     * @param title title of the DVD to find
+     * @return the DVD, or null if the title is not in the file
+     * @throws IOException if the file could not be read
+     * @throws DvdLibraryDaoException if the file is not a binary library
+     *                                or has no title index
+     */
+    public static Dvd findDvd(Path file, String title) throws IOException, DvdLibraryDaoException {
+        return findDvd(file, title, new StringTableCache());
+    }
+
+    /**
+     * Looks one title up through the footer index, taking the string
+     * table from the cache while the file is unchanged, so repeated
+     * lookups decode it only once.
+     *
+     * @param file library file to search
+     * @param title title of the DVD to find
+     * @param cache string table of an earlier lookup in the same file
+     * @return the DVD, or null if the title is not in the file
+     * @throws IOException if the file could not be read
+     * @throws DvdLibraryDaoException if the file is not a binary library,
+     *                                has no title index or is corrupt
+     */
+    static Dvd findDvd(Path file, String title, StringTableCache cache)
+            throws IOException, DvdLibraryDaoException {
+        // Taken before opening, so a file replaced after this is seen
+        // as changed by the next lookup
+        long modifiedMillis = Files.getLastModifiedTime(file).toMillis();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel, file);
+            if (header.indexOffset == 0) {
+                throw new DvdLibraryDaoException("Binary library " + file + " has no title index.");
+            }
+
+            // Binary search for the first entry with the title's hash
+            int hash = titleHash(title);
+            ByteBuffer entry = ByteBuffer.allocate(12);
+            int low = 0;
+            int high = header.recordCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                readFully(channel, entry.clear(), header.indexOffset + 4 + 12L * mid);
+                if (entry.getInt(0) < hash) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            // One small buffer, reused for every candidate record
+            Input in = new Input(channel, 0, LOOKUP_BUFFER_SIZE, header.nullable);
+            for (int i = low; i < header.recordCount; i++) {
+                readFully(channel, entry.clear(), header.indexOffset + 4 + 12L * i);
+                if (entry.getInt(0) != hash) {
+                    break;
+                }
+                in.seek(entry.getLong(4));
+                if (!title.equals(in.readString())) {
+                    continue;
+                }
+                long size = channel.size();
+                if (cache.strings == null || cache.size != size || cache.modifiedMillis != modifiedMillis) {
+                    Input table = new Input(channel, header.stringTableOffset, LOOKUP_BUFFER_SIZE, header.nullable);
+                    cache.strings = readStrings(table, header);
+                    cache.size = size;
+                    cache.modifiedMillis = modifiedMillis;
+                }
+                in.seek(entry.getLong(4));
+                return readRecord(in, cache.strings, header);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Tells whether a file starts with the binary library magic number.
+     *
+     * @param file file to check
+     * @return true for a binary library file
+     * @throws IOException if the file could not be read
+     */
+    public static boolean isBinaryLibrary(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // keep reading until four bytes or end of file
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    private static String[] readStrings(Input in, Header header) throws IOException {
+        String[] strings = new String[header.stringCount];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readString();
+        }
+        return strings;
+    }
+
+    private static Dvd readRecord(Input in, String[] strings, Header header)
+            throws IOException, DvdLibraryDaoException {
+        String title = in.readString();
+        String releaseDate = in.readString();
+        String mpaa = lookUp(strings, in.readVarInt(), header);
+        String director = lookUp(strings, in.readVarInt(), header);
+        String studio = lookUp(strings, in.readVarInt(), header);
+        String userRating = in.readString();
+        long version = header.stamped ? in.readLong() : Dvd.UNVERSIONED;
+        return new Dvd(title, releaseDate, mpaa, director, studio, userRating, version);
+    }
+
+    /**
+     * Returns the string a record refers to by id.
+     *
+     * @throws DvdLibraryDaoException if the id is not in the table
+     */
+    private static String lookUp(String[] strings, int id, Header header) throws DvdLibraryDaoException {
+        if (header.nullable) {
+            if (id == 0) {
+                return null;
+            }
+            id--;
+        }
+        if (id < 0 || id >= strings.length) {
+            throw new DvdLibraryDaoException("Corrupt binary DVD library: string id " + id
+                    + " is outside a table of " + strings.length + ".");
+        }
+        return strings[id];
+    }
+
+    private static Header readHeader(FileChannel channel, Path file)
+            throws IOException, DvdLibraryDaoException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        try {
+            readFully(channel, buffer, 0);
+        } catch (EOFException e) {
+            throw new DvdLibraryDaoException(file + " is not a binary DVD library.", e);
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new DvdLibraryDaoException(file + " is not a binary DVD library.");
+        }
+        int version = buffer.getShort() & 0xffff;
+        if (version < UNSTAMPED_VERSION || version > VERSION) {
+            throw new DvdLibraryDaoException("Unsupported binary DVD library version " + version + ".");
+        }
+        int flags = buffer.getShort() & 0xffff;
+        Header header = new Header();
+        header.stamped = version != UNSTAMPED_VERSION;
+        header.nullable = version > NON_NULL_VERSION;
+        header.recordCount = buffer.getInt();
+        header.stringCount = buffer.getInt();
+        if (header.recordCount < 0 || header.stringCount < 0) {
+            throw new DvdLibraryDaoException("Corrupt binary DVD library: negative record or string count.");
+        }
+        header.stringTableOffset = buffer.getLong();
+        header.recordsOffset = buffer.getLong();
+        header.indexOffset = (flags & FLAG_TITLE_INDEX) != 0 ? buffer.getLong() : 0;
+        return header;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Binary DVD library ends early.");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Hash stored in the title index; String.hashCode is specified,
+     * so files stay readable across JVMs.
+     */
+    private static int titleHash(String title) {
+        return title.hashCode();
+    }
+
+    /**
+     * Values read from the fixed header.
+     */
+    private static final class Header {
+        int recordCount;
+        int stringCount;
+        long stringTableOffset;
+        long recordsOffset;
+        long indexOffset;
+        // Whether records end with a version stamp
+        boolean stamped;
+        // Whether strings and string ids can stand for null
+        boolean nullable;
+    }
+
+    /**
+     * String table read by an earlier title lookup, with the size and
+     * modification time of the file it came from. A caller that looks
+     * up many titles keeps one, so the table is decoded only once
+     * while the file is unchanged.
+     */
+    static final class StringTableCache {
+        private String[] strings;
+        private long size;
+        private long modifiedMillis;
+    }
+
+    /**
+     * Buffered writer over a file channel that tracks its position.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long flushed;
+
+        Output(FileChannel channel, long start) {
+            this.channel = channel;
+            this.flushed = start;
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void writeInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void writeVarInt(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                buffer.put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer, flushed);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Buffered reader over a file channel starting at a given offset.
+     * Seeking keeps the buffer, so one Input can read many records.
+     */
+    private static final class Input {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        // Whether string lengths are stored plus one, 0 meaning null
+        private final boolean nullable;
+        private long next;
+        private byte[] scratch = new byte[256];
+
+        Input(FileChannel channel, long position, int bufferSize, boolean nullable) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(bufferSize);
+            this.nullable = nullable;
+            seek(position);
+        }
+
+        void seek(long position) {
+            next = position;
+            buffer.clear().limit(0);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                int read = channel.read(buffer, next);
+                if (read < 0) {
+                    throw new EOFException("Binary DVD library ends early.");
+                }
+                next += read;
+            }
+            buffer.flip();
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                ensure(1);
+                byte b = buffer.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in binary DVD library.");
+        }
+
+        long readLong() throws IOException {
+            ensure(8);
+            return buffer.getLong();
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt();
+            if (nullable) {
+                if (length == 0) {
+                    return null;
+                }
+                length--;
+            }
+            if (length < 0) {
+                throw new IOException("Malformed string length in binary DVD library.");
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            int offset = 0;
+            while (offset < length) {
+                ensure(1);
+                int chunk = Math.min(buffer.remaining(), length - offset);
+                buffer.get(scratch, offset, chunk);
+                offset += chunk;
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
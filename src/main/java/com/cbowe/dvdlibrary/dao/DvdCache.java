@@ -0,0 +1,486 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code DvdCache} class holds a bounded number of DVDs by title,
+ * including titles known to be missing, for DvdLibraryDaoCachedImpl.
+ * <p>
+ * The cache is split into segments by title hash, each with its own
+ * lock, so threads looking up different titles rarely wait for each
+ * other. A lookup is a hash, an uncontended lock and a map probe.
+ * Each segment evicts by one of two policies:
+ * <ul>
+ * <li>LRU evicts the least recently used title.</li>
+ * <li>TINY_LFU, in the style of W-TinyLFU, puts new titles in a small
+ * LRU window. A title pushed out of the window only enters the main
+ * area if it has been asked for more often than the title it would
+ * push out of that area, judged by a count-min sketch of recent
+ * lookups. A scan of titles read once therefore cannot flush the
+ * titles that are read over and over.</li>
+ * </ul>
+ * <p>
+ * Each segment counts its invalidations. A caller that loads a DVD
+ * after a miss passes the count it saw before loading to put, and the
+ * DVD is not stored if the title's segment was invalidated in the
+ * meantime, because the loaded value may already be stale.
+ */
+
+final class DvdCache {
+
+    /**
+     * Eviction policies.
+     */
+    enum Policy {
+        LRU,
+        TINY_LFU;
+
+        /**
+         * Parses a policy name in any case, with '-' or '_' between
+         * words, such as "lru" or "tiny-lfu".
+         *
+         * @param name policy name
+         * @return the policy
+         * @throws IllegalArgumentException if no policy has that name
+         */
+        static Policy parse(String name) {
+            String normalized = name.strip().replace('-', '_').toUpperCase(Locale.ROOT);
+            if (normalized.equals("TINYLFU") || normalized.equals("W_TINYLFU") || normalized.equals("W_TINY_LFU")) {
+                return TINY_LFU;
+            }
+            try {
+                return valueOf(normalized);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown cache policy \"" + name + "\"; choose lru or tinylfu");
+            }
+        }
+    }
+
+    /**
+     * A cached lookup result. A null DVD records that the title is
+     * not in the library.
+     */
+    static final class Entry {
+        final Dvd dvd;
+
+        Entry(Dvd dvd) {
+            this.dvd = dvd;
+        }
+    }
+
+    // Caches smaller than this get a single segment, so small limits
+    // are not split into uselessly small LRU lists
+    private static final int MIN_ENTRIES_PER_SEGMENT = 64;
+    // Most segments used, however large the cache
+    private static final int MAX_SEGMENTS = 64;
+    // Share of a TINY_LFU segment given to the window, in percent
+    private static final int WINDOW_PERCENT = 1;
+    // Share of a TINY_LFU main area given to protected, in percent
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxEntries most titles held, counting missing titles
+     * @param policy eviction policy
+     * @param hits counter of lookups answered from the cache
+     * @param misses counter of lookups that were not
+     * @param evictions counter of titles evicted to stay within maxEntries
+     * @throws IllegalArgumentException if maxEntries is not positive
+     */
+    DvdCache(int maxEntries, Policy policy, LongAdder hits, LongAdder misses, LongAdder evictions) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        int wanted = Math.min(MAX_SEGMENTS, Math.max(1, maxEntries / MIN_ENTRIES_PER_SEGMENT));
+        int count = Math.min(Integer.highestOneBit(wanted),
+                Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // Spread the remainder so the capacities add up to maxEntries
+            int capacity = maxEntries / count + (i < maxEntries % count ? 1 : 0);
+            segments[i] = policy == Policy.LRU ? new LruSegment(capacity) : new TinyLfuSegment(capacity);
+        }
+        segmentMask = count - 1;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * Looks a title up, counting a hit or a miss.
+     *
+     * @param title title of the DVD
+     * @return the cached entry, or null if the title is not cached
+     */
+    Entry get(String title) {
+        int hash = spread(title.hashCode());
+        Entry entry = segmentFor(hash).get(title, hash);
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the invalidation count of a title's segment, to be
+     * passed to put after loading the title.
+     *
+     * @param title title about to be loaded
+     * @return current invalidation count
+     */
+    long generation(String title) {
+        return segmentFor(spread(title.hashCode())).generation();
+    }
+
+    /**
+     * Stores the result of loading a title, unless its segment was
+     * invalidated since the load began.
+     *
+     * @param title title of the DVD
+     * @param dvd the DVD, or null if the title is not in the library
+     * @param generation invalidation count seen before loading
+     */
+    void put(String title, Dvd dvd, long generation) {
+        int hash = spread(title.hashCode());
+        evictions.add(segmentFor(hash).put(title, hash, new Entry(dvd), generation));
+    }
+
+    /**
+     * Drops a title, after it was changed in the library.
+     *
+     * @param title title of the DVD
+     */
+    void invalidate(String title) {
+        segmentFor(spread(title.hashCode())).invalidate(title);
+    }
+
+    /**
+     * Drops every title.
+     */
+    void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns the number of titles cached, counting missing titles.
+     *
+     * @return number of entries
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(int hash) {
+        // The low bits pick the slot inside the sketch, so use high bits here
+        return segments[(hash >>> 26) & segmentMask];
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * One lock's worth of the cache. Subclasses hold the entries.
+     */
+    private abstract static class Segment {
+        // Invalidations so far, read without the lock by generation()
+        private volatile long generation;
+
+        abstract Entry lookup(String title, int hash);
+
+        /**
+         * Adds an entry, evicting as needed.
+         *
+         * @return number of entries evicted
+         */
+        abstract int store(String title, int hash, Entry entry);
+
+        abstract Entry remove(String title);
+
+        abstract void removeAll();
+
+        abstract int count();
+
+        synchronized Entry get(String title, int hash) {
+            return lookup(title, hash);
+        }
+
+        long generation() {
+            return generation;
+        }
+
+        synchronized int put(String title, int hash, Entry entry, long seenGeneration) {
+            if (generation != seenGeneration) {
+                return 0;
+            }
+            return store(title, hash, entry);
+        }
+
+        synchronized void invalidate(String title) {
+            remove(title);
+            generation++;
+        }
+
+        synchronized void clear() {
+            removeAll();
+            generation++;
+        }
+
+        synchronized int size() {
+            return count();
+        }
+    }
+
+    /**
+     * Segment evicting its least recently used title.
+     */
+    private static final class LruSegment extends Segment {
+        private final int capacity;
+        private final LinkedHashMap<String, Entry> entries;
+
+        LruSegment(int capacity) {
+            this.capacity = capacity;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        @Override
+        Entry lookup(String title, int hash) {
+            return entries.get(title);
+        }
+
+        @Override
+        int store(String title, int hash, Entry entry) {
+            entries.put(title, entry);
+            return evictOver(entries, capacity);
+        }
+
+        @Override
+        Entry remove(String title) {
+            return entries.remove(title);
+        }
+
+        @Override
+        void removeAll() {
+            entries.clear();
+        }
+
+        @Override
+        int count() {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Segment with an LRU window in front of a main area that admits
+     * only titles looked up more often than its victim. The main area
+     * is split into probation, where admitted titles start, and
+     * protected, which titles move up to when they are looked up again
+     * and which takes most of the space. Victims come from probation
+     * first, so titles read once cannot push out titles read often.
+     */
+    private static final class TinyLfuSegment extends Segment {
+        private final int windowCapacity;
+        private final int mainCapacity;
+        private final int protectedCapacity;
+        private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, Entry> protectedArea = new LinkedHashMap<>(16, 0.75f, true);
+        private final FrequencySketch sketch;
+
+        TinyLfuSegment(int capacity) {
+            this.windowCapacity = Math.max(1, capacity * WINDOW_PERCENT / 100);
+            this.mainCapacity = capacity - windowCapacity;
+            this.protectedCapacity = mainCapacity * PROTECTED_PERCENT / 100;
+            this.sketch = new FrequencySketch(capacity);
+        }
+
+        @Override
+        Entry lookup(String title, int hash) {
+            sketch.increment(hash); // Misses count too, so a title earns its way in
+            Entry entry = protectedArea.get(title);
+            if (entry != null) {
+                return entry;
+            }
+            entry = probation.remove(title);
+            if (entry != null) {
+                protect(title, entry);
+                return entry;
+            }
+            return window.get(title);
+        }
+
+        @Override
+        int store(String title, int hash, Entry entry) {
+            if (protectedArea.containsKey(title)) {
+                protectedArea.put(title, entry);
+                return 0;
+            }
+            if (probation.containsKey(title)) {
+                probation.put(title, entry);
+                return 0;
+            }
+            window.put(title, entry);
+            if (window.size() <= windowCapacity) {
+                return 0;
+            }
+
+            // The window is full: its eldest title is a candidate for main
+            Map.Entry<String, Entry> candidate = removeEldest(window);
+            if (probation.size() + protectedArea.size() < mainCapacity) {
+                probation.put(candidate.getKey(), candidate.getValue());
+                return 0;
+            }
+            LinkedHashMap<String, Entry> victims = probation.isEmpty() ? protectedArea : probation;
+            if (victims.isEmpty()) {
+                return 1;
+            }
+            String victim = victims.keySet().iterator().next();
+            if (sketch.frequency(spread(candidate.getKey().hashCode()))
+                    > sketch.frequency(spread(victim.hashCode()))) {
+                victims.remove(victim);
+                probation.put(candidate.getKey(), candidate.getValue());
+            }
+            return 1; // Either the victim or the candidate is gone
+        }
+
+        /**
+         * Moves a title looked up again into protected, moving the
+         * least recently used protected title back to probation if
+         * protected is full.
+         */
+        private void protect(String title, Entry entry) {
+            protectedArea.put(title, entry);
+            if (protectedArea.size() > protectedCapacity) {
+                Map.Entry<String, Entry> demoted = removeEldest(protectedArea);
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+        }
+
+        @Override
+        Entry remove(String title) {
+            Entry entry = window.remove(title);
+            if (entry == null) {
+                entry = probation.remove(title);
+            }
+            return entry != null ? entry : protectedArea.remove(title);
+        }
+
+        @Override
+        void removeAll() {
+            window.clear();
+            probation.clear();
+            protectedArea.clear();
+        }
+
+        @Override
+        int count() {
+            return window.size() + probation.size() + protectedArea.size();
+        }
+    }
+
+    /**
+     * Removes and returns the least recently used entry of a map that
+     * is not empty.
+     */
+    private static Map.Entry<String, Entry> removeEldest(LinkedHashMap<String, Entry> entries) {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        Map.Entry<String, Entry> entry = eldest.next();
+        eldest.remove();
+        return entry;
+    }
+
+    /**
+     * Removes least recently used entries until at most capacity remain.
+     *
+     * @return number of entries removed
+     */
+    private static int evictOver(LinkedHashMap<String, Entry> entries, int capacity) {
+        int evicted = 0;
+        Iterator<String> eldest = entries.keySet().iterator();
+        while (entries.size() > capacity) {
+            eldest.next();
+            eldest.remove();
+            evicted++;
+        }
+        return evicted;
+    }
+
+    /**
+     * Count-min sketch of how often each title hash was looked up,
+     * with four 4-bit counters per title. Once the number of lookups
+     * recorded reaches ten times the width, every counter is halved,
+     * so the sketch follows what is popular now rather than ever.
+     */
+    private static final class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97cb3127, 0x5e2c7b9d, 0x2f6a3c5b, 0x1b873593};
+
+        private final byte[] counters;
+        private final int mask;
+        private final int resetAt;
+        private int recorded = 0;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity) * 2 - 1);
+            counters = new byte[width * SEEDS.length];
+            mask = width - 1;
+            resetAt = width * 10;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int index = indexOf(hash, row);
+                if (counters[index] < MAX_COUNT) {
+                    counters[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++recorded >= resetAt) {
+                halve();
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < SEEDS.length; row++) {
+                frequency = Math.min(frequency, counters[indexOf(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+            return row * (mask + 1) + ((h ^ (h >>> 15)) & mask);
+        }
+
+        private void halve() {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] >>= 1;
+            }
+            recorded /= 2;
+        }
+    }
+}
@@ -0,0 +1,646 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * The {@code DvdColumnStore} class holds a library column by column in
+ * direct buffers outside the Java heap, so a large catalog gives the
+ * garbage collector almost nothing to trace.
+ * <p>
+ * Each DVD is one row. Titles are kept as UTF-8 bytes, back to back,
+ * in a title arena; int columns hold each row's offset, length and
+ * hash into it. The other fields repeat across a catalog, so their
+ * columns hold an id into a dictionary of the field's distinct
+ * values, and a long column holds each row's version stamp. The
+ * dictionaries are the only part kept on the heap, and they grow
+ * with the number of distinct dates, ratings, directors and studios
+ * rather than with the number of DVDs. An open
+ * addressing table of row numbers, also off the heap, finds a row by
+ * title without decoding any other.
+ * <p>
+ * Edits overwrite a row's ids in place. Removing a DVD marks its row
+ * dead, and the columns are rebuilt without dead rows once those
+ * outnumber the live ones. Queries are answered by scanning the id
+ * columns; only matching rows are decoded into Dvd objects.
+ * <p>
+ * Like HashMap, this class is not thread safe;
+ * DvdLibraryDaoOffHeapImpl synchronizes its public methods.
+ */
+
+final class DvdColumnStore {
+
+    private static final int INITIAL_ROWS = 1024;
+    private static final int INITIAL_ARENA_BYTES = 1 << 16;
+    // Dead rows tolerated before the columns are rebuilt
+    private static final int COMPACT_THRESHOLD = 1024;
+    // Most rows the store can hold; the hash table, at twice the
+    // row capacity, must still fit in one direct buffer
+    private static final int MAX_ROWS = 1 << 27;
+    // Title length of a removed row
+    private static final int DEAD = -1;
+    // Hash table entry of a removed row; 0 is an empty slot
+    private static final int TOMBSTONE = -1;
+    private static final int FNV_OFFSET = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    // Dictionary-coded fields, in Dvd constructor order
+    private static final int RELEASE_DATE = 0;
+    private static final int MPAA = 1;
+    private static final int DIRECTOR = 2;
+    private static final int STUDIO = 3;
+    private static final int USER_RATING = 4;
+    private static final int FIELD_COUNT = 5;
+
+    // UTF-8 bytes of every title
+    private ByteBuffer titleArena = ByteBuffer.allocateDirect(INITIAL_ARENA_BYTES);
+    private int arenaUsed = 0;
+    // Per-row columns
+    private IntBuffer titleStarts = newColumn(INITIAL_ROWS);
+    private IntBuffer titleLengths = newColumn(INITIAL_ROWS);
+    private IntBuffer titleHashes = newColumn(INITIAL_ROWS);
+    private final IntBuffer[] fieldIds = new IntBuffer[FIELD_COUNT];
+    private LongBuffer versions = newVersionColumn(INITIAL_ROWS);
+    private int rowCount = 0;
+    private int liveCount = 0;
+    // Distinct values of each coded field
+    private final Dictionary[] dictionaries = new Dictionary[FIELD_COUNT];
+    // Row + 1 of each title, keyed by title hash
+    private IntBuffer table = newColumn(INITIAL_ROWS * 2);
+    // Live rows in DvdLibraryDao.TITLE_ORDER; null until next needed
+    private IntBuffer sortedRows;
+
+    DvdColumnStore() {
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            fieldIds[field] = newColumn(INITIAL_ROWS);
+            dictionaries[field] = new Dictionary();
+        }
+    }
+
+    /**
+     * Returns the number of DVDs in the store.
+     *
+     * @return number of live rows
+     */
+    int size() {
+        return liveCount;
+    }
+
+    /**
+     * Looks a title up in the hash table and decodes only its row.
+     *
+     * @param title title of the DVD to retrieve
+     * @return Dvd object stored under the title, or null
+     */
+    Dvd get(String title) {
+        int slot = slotOf(title.getBytes(StandardCharsets.UTF_8));
+        return slot < 0 ? null : decode(table.get(slot) - 1);
+    }
+
+    /**
+     * Stores a DVD under a title. An existing row has its ids
+     * overwritten in place; a new title is appended as a new row.
+     *
+     * @param title title to store the DVD under
+     * @param dvd Dvd object to store
+     * @return Dvd object previously stored under the title, or null
+     * @throws IllegalStateException if the store cannot grow further
+     */
+    Dvd put(String title, Dvd dvd) {
+        byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+        int slot = slotOf(bytes);
+        Dvd previousDvd = null;
+        int row;
+        if (slot >= 0) {
+            row = table.get(slot) - 1;
+            previousDvd = decode(row);
+        } else {
+            row = append(bytes);
+        }
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            fieldIds[field].put(row, dictionaries[field].idOf(valueOf(dvd, field)));
+        }
+        versions.put(row, dvd.getVersion());
+        return previousDvd;
+    }
+
+    /**
+     * Removes the DVD stored under a title by marking its row dead.
+     *
+     * @param title title of the DVD to remove
+     * @return removed Dvd object, or null if the title is not stored
+     */
+    Dvd remove(String title) {
+        int slot = slotOf(title.getBytes(StandardCharsets.UTF_8));
+        if (slot < 0) {
+            return null;
+        }
+        int row = table.get(slot) - 1;
+        Dvd removedDvd = decode(row);
+        table.put(slot, TOMBSTONE);
+        titleLengths.put(row, DEAD);
+        liveCount--;
+        sortedRows = null;
+        if (rowCount - liveCount >= COMPACT_THRESHOLD && rowCount - liveCount > liveCount) {
+            compact();
+        }
+        return removedDvd;
+    }
+
+    /**
+     * Replaces the DVD stored under a title with a copy that has one
+     * field changed.
+     *
+     * @param title title of DVD to be edited
+     * @param field field to edit
+     * @param value new value for the field
+     * @return edited Dvd object, or null if the title is not stored
+     */
+    Dvd edit(String title, DvdField field, String value) {
+        Dvd currentDvd = get(title);
+        if (currentDvd == null) {
+            return null;
+        }
+        Dvd editedDvd = field.apply(currentDvd, value);
+        put(title, editedDvd);
+        return editedDvd;
+    }
+
+    /**
+     * Returns a view of every DVD in row order that decodes each row
+     * as it is iterated, for writing the library out. The view must
+     * not be used after the store changes.
+     *
+     * @return Dvd objects, decoded one at a time
+     */
+    Collection<Dvd> values() {
+        return new AbstractCollection<Dvd>() {
+            @Override
+            public Iterator<Dvd> iterator() {
+                return new Iterator<Dvd>() {
+                    private int row = nextLive(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return row < rowCount;
+                    }
+
+                    @Override
+                    public Dvd next() {
+                        if (row >= rowCount) {
+                            throw new NoSuchElementException();
+                        }
+                        Dvd dvd = decode(row);
+                        row = nextLive(row + 1);
+                        return dvd;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return liveCount;
+            }
+        };
+    }
+
+    /**
+     * Finds the DVDs matching a query. Each criterion is first
+     * resolved against its field's dictionary into the set of
+     * accepted ids; the id columns are then scanned row by row
+     * without decoding any title that does not match.
+     *
+     * @param query criteria to match
+     * @return matching Dvd objects, in row order
+     */
+    List<Dvd> find(DvdQuery query) {
+        boolean[][] accepted = new boolean[FIELD_COUNT][];
+        accepted[DIRECTOR] = matchingKey(DIRECTOR, query.getDirectorsName());
+        accepted[STUDIO] = matchingKey(STUDIO, query.getStudio());
+        accepted[MPAA] = matchingKey(MPAA, query.getMPAA());
+        if (query.getReleaseYear() != null) {
+            int year = query.getReleaseYear();
+            accepted[RELEASE_DATE] = dictionaries[RELEASE_DATE]
+                    .matching(value -> DvdQuery.releaseYearOf(value) == year);
+        }
+
+        List<Dvd> matches = new ArrayList<>();
+        for (int row = 0; row < rowCount; row++) {
+            if (titleLengths.get(row) != DEAD && accepts(accepted, row)) {
+                matches.add(decode(row));
+            }
+        }
+        return matches;
+    }
+
+    private boolean[] matchingKey(int field, String criterion) {
+        if (criterion == null) {
+            return null;
+        }
+        String key = DvdQuery.key(criterion);
+        return dictionaries[field].matching(value -> key.equals(DvdQuery.key(value)));
+    }
+
+    private boolean accepts(boolean[][] accepted, int row) {
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (accepted[field] != null && !accepted[field][fieldIds[field].get(row)]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns one page of the store in title order.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs on the page
+     * @return the Dvd objects on the page
+     */
+    List<Dvd> page(int offset, int limit) {
+        int start = Math.min(Math.max(offset, 0), liveCount);
+        return sortedRange(start, start + Math.min(limit, liveCount - start));
+    }
+
+    /**
+     * Returns the DVDs that come straight after a title in title order.
+     *
+     * @param title title to start after, or null to start at the first
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     */
+    List<Dvd> after(String title, int limit) {
+        int start = title == null ? 0 : position(DvdQuery.key(title), title, true);
+        return sortedRange(start, start + Math.min(limit, liveCount - start));
+    }
+
+    /**
+     * Returns the DVDs that come straight before a title in title order.
+     *
+     * @param title title to end before, or null to end at the last
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     */
+    List<Dvd> before(String title, int limit) {
+        int end = title == null ? liveCount : position(DvdQuery.key(title), title, false);
+        return sortedRange(Math.max(0, end - limit), end);
+    }
+
+    /**
+     * Returns the DVDs with titles from one bound up to, but not
+     * including, another, ignoring case.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     */
+    List<Dvd> between(String fromTitle, String toTitle, int limit) {
+        int start = fromTitle == null ? 0 : position(DvdQuery.key(fromTitle), null, false);
+        int end = toTitle == null ? liveCount : position(DvdQuery.key(toTitle), null, false);
+        return sortedRange(start, Math.max(start, Math.min(end, start + limit)));
+    }
+
+    private List<Dvd> sortedRange(int start, int end) {
+        IntBuffer sorted = sortedRows();
+        List<Dvd> range = new ArrayList<>(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            range.add(decode(sorted.get(i)));
+        }
+        return range;
+    }
+
+    /**
+     * Binary searches the title order, decoding only the titles it
+     * compares against.
+     *
+     * @param key DvdQuery.key of the title searched for
+     * @param title exact title to break ties on, or null to compare
+     *              keys only
+     * @param after whether to skip past rows equal to the probe
+     * @return position of the first row after, or not before, the probe
+     */
+    private int position(String key, String title, boolean after) {
+        IntBuffer sorted = sortedRows();
+        int low = 0;
+        int high = liveCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            String rowTitle = title(sorted.get(middle));
+            int comparison = DvdQuery.key(rowTitle).compareTo(key);
+            if (comparison == 0 && title != null) {
+                comparison = rowTitle.compareTo(title);
+            }
+            if (comparison < 0 || (after && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Sorts the live rows into title order if a change since the
+     * last sort has invalidated it. Titles are decoded only for the
+     * sort; the result is kept off the heap as row numbers.
+     */
+    private IntBuffer sortedRows() {
+        if (sortedRows == null) {
+            String[] sortKeys = new String[liveCount];
+            Integer[] rows = new Integer[liveCount];
+            for (int row = nextLive(0), i = 0; row < rowCount; row = nextLive(row + 1), i++) {
+                String title = title(row);
+                sortKeys[i] = DvdQuery.key(title) + '\0' + title;
+                rows[i] = i;
+            }
+            Arrays.sort(rows, (a, b) -> sortKeys[a].compareTo(sortKeys[b]));
+
+            int[] liveRows = new int[liveCount];
+            for (int row = nextLive(0), i = 0; row < rowCount; row = nextLive(row + 1), i++) {
+                liveRows[i] = row;
+            }
+            IntBuffer sorted = newColumn(Math.max(1, liveCount));
+            for (int i = 0; i < liveCount; i++) {
+                sorted.put(i, liveRows[rows[i]]);
+            }
+            sortedRows = sorted;
+        }
+        return sortedRows;
+    }
+
+    private int nextLive(int row) {
+        while (row < rowCount && titleLengths.get(row) == DEAD) {
+            row++;
+        }
+        return row;
+    }
+
+    /**
+     * Appends a new row for a title that is not stored yet, growing
+     * the columns, arena and hash table as needed. Its ids are left
+     * for the caller to fill in.
+     */
+    private int append(byte[] title) {
+        if (rowCount == titleStarts.capacity()) {
+            growRows(newCapacity(rowCount, rowCount + 1L, MAX_ROWS));
+        }
+        if (title.length > titleArena.capacity() - arenaUsed) {
+            int capacity = newCapacity(titleArena.capacity(), arenaUsed + (long) title.length, Integer.MAX_VALUE);
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+            grown.put(0, titleArena, 0, arenaUsed);
+            titleArena = grown;
+        }
+
+        int row = rowCount++;
+        int hash = hash(title);
+        titleArena.put(arenaUsed, title);
+        titleStarts.put(row, arenaUsed);
+        titleLengths.put(row, title.length);
+        titleHashes.put(row, hash);
+        arenaUsed += title.length;
+        insert(row, hash);
+        liveCount++;
+        sortedRows = null;
+        return row;
+    }
+
+    private static int newCapacity(int capacity, long needed, int max) {
+        if (needed > max) {
+            throw new IllegalStateException("Library is too large for the off-heap store");
+        }
+        return (int) Math.min(max, Math.max(needed, (long) capacity * 2));
+    }
+
+    /**
+     * Grows every per-row column and the hash table. Row capacities
+     * are powers of two, and the table is kept at twice the row
+     * capacity so it never fills past half.
+     */
+    private void growRows(int capacity) {
+        titleStarts = copyColumn(titleStarts, rowCount, capacity);
+        titleLengths = copyColumn(titleLengths, rowCount, capacity);
+        titleHashes = copyColumn(titleHashes, rowCount, capacity);
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            fieldIds[field] = copyColumn(fieldIds[field], rowCount, capacity);
+        }
+        LongBuffer grownVersions = newVersionColumn(capacity);
+        grownVersions.put(0, versions, 0, rowCount);
+        versions = grownVersions;
+        rebuildTable(capacity * 2);
+    }
+
+    private void rebuildTable(int capacity) {
+        table = newColumn(capacity);
+        for (int row = nextLive(0); row < rowCount; row = nextLive(row + 1)) {
+            insert(row, titleHashes.get(row));
+        }
+    }
+
+    /**
+     * Rebuilds the columns and title arena with the dead rows left
+     * out. The dictionaries are kept as they are.
+     */
+    private void compact() {
+        int capacity = Math.max(INITIAL_ROWS, Integer.highestOneBit(Math.max(1, liveCount)) << 1);
+        ByteBuffer arena = ByteBuffer.allocateDirect(Math.max(INITIAL_ARENA_BYTES, arenaUsed));
+        IntBuffer starts = newColumn(capacity);
+        IntBuffer lengths = newColumn(capacity);
+        IntBuffer hashes = newColumn(capacity);
+        IntBuffer[] ids = new IntBuffer[FIELD_COUNT];
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            ids[field] = newColumn(capacity);
+        }
+        LongBuffer keptVersions = newVersionColumn(capacity);
+
+        int used = 0;
+        int kept = 0;
+        for (int row = nextLive(0); row < rowCount; row = nextLive(row + 1), kept++) {
+            int length = titleLengths.get(row);
+            arena.put(used, titleArena, titleStarts.get(row), length);
+            starts.put(kept, used);
+            lengths.put(kept, length);
+            hashes.put(kept, titleHashes.get(row));
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                ids[field].put(kept, fieldIds[field].get(row));
+            }
+            keptVersions.put(kept, versions.get(row));
+            used += length;
+        }
+
+        titleArena = arena;
+        arenaUsed = used;
+        titleStarts = starts;
+        titleLengths = lengths;
+        titleHashes = hashes;
+        System.arraycopy(ids, 0, fieldIds, 0, FIELD_COUNT);
+        versions = keptVersions;
+        rowCount = kept;
+        rebuildTable(capacity * 2);
+    }
+
+    /**
+     * Adds a row to the hash table, reusing the first removed entry
+     * on its probe path.
+     */
+    private void insert(int row, int hash) {
+        int mask = table.capacity() - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table.get(slot);
+            if (entry == 0 || entry == TOMBSTONE) {
+                table.put(slot, row + 1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the hash table slot holding a title.
+     *
+     * @param title UTF-8 bytes of the title
+     * @return slot index, or -1 if the title is not stored
+     */
+    private int slotOf(byte[] title) {
+        int hash = hash(title);
+        int mask = table.capacity() - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table.get(slot);
+            if (entry == 0) {
+                return -1;
+            }
+            if (entry != TOMBSTONE && titleHashes.get(entry - 1) == hash && titleEquals(entry - 1, title)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean titleEquals(int row, byte[] title) {
+        if (titleLengths.get(row) != title.length) {
+            return false;
+        }
+        int start = titleStarts.get(row);
+        for (int i = 0; i < title.length; i++) {
+            if (titleArena.get(start + i) != title[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] title) {
+        int hash = FNV_OFFSET;
+        for (byte b : title) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private String title(int row) {
+        byte[] bytes = new byte[titleLengths.get(row)];
+        titleArena.get(titleStarts.get(row), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Dvd decode(int row) {
+        return new Dvd(title(row),
+                dictionaries[RELEASE_DATE].value(fieldIds[RELEASE_DATE].get(row)),
+                dictionaries[MPAA].value(fieldIds[MPAA].get(row)),
+                dictionaries[DIRECTOR].value(fieldIds[DIRECTOR].get(row)),
+                dictionaries[STUDIO].value(fieldIds[STUDIO].get(row)),
+                dictionaries[USER_RATING].value(fieldIds[USER_RATING].get(row)),
+                versions.get(row));
+    }
+
+    private static String valueOf(Dvd dvd, int field) {
+        switch (field) {
+            case RELEASE_DATE:
+                return dvd.getReleaseDate();
+            case MPAA:
+                return dvd.getMPAA();
+            case DIRECTOR:
+                return dvd.getDirectorsName();
+            case STUDIO:
+                return dvd.getStudio();
+            default:
+                return dvd.getUserRating();
+        }
+    }
+
+    private static IntBuffer newColumn(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * Integer.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+    }
+
+    private static LongBuffer newVersionColumn(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * Long.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asLongBuffer();
+    }
+
+    private static IntBuffer copyColumn(IntBuffer column, int used, int capacity) {
+        IntBuffer grown = newColumn(capacity);
+        grown.put(0, column, 0, used);
+        return grown;
+    }
+
+    /**
+     * Distinct values of one field, each with a small int id. Id 0
+     * stands for null.
+     */
+    private static final class Dictionary {
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        Dictionary() {
+            values.add(null);
+        }
+
+        int idOf(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                values.add(value);
+                ids.put(value, id);
+            }
+            return id;
+        }
+
+        String value(int id) {
+            return values.get(id);
+        }
+
+        /**
+         * Tests every distinct value once, so a query costs one check
+         * per value rather than one per DVD.
+         *
+         * @return accepted flag for each id
+         */
+        boolean[] matching(Predicate<String> test) {
+            boolean[] accepted = new boolean[values.size()];
+            for (int id = 0; id < accepted.length; id++) {
+                accepted[id] = test.test(values.get(id));
+            }
+            return accepted;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.cbowe.dvdlibrary.dao;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * The {@code DvdFileTracker} class tells a DAO whether its library
+ * file has changed since the DAO last read or wrote it, and how.
+ * <p>
+ * A WatchService on the file's directory marks the file as possibly
+ * changed whenever it is created, modified or replaced. Until then
+ * {@link #check} answers without touching the file system at all.
+ * Once marked, the file's size and modification time are compared
+ * with the ones recorded, and a CRC32C checksum of its contents
+ * decides whether the bytes really changed: a file that only grew
+ * past its old, unchanged contents is reported as appended to, so
+ * only the new tail has to be parsed. Where no WatchService is
+ * available the size and modification time are checked on every call
+ * instead.
+ * <p>
+ * When the DAO reads or writes the whole file it hands the tracker a
+ * Fingerprint filled in during that same pass, so recording never
+ * reads the file again.
+ * <p>
+ * The tracker is used by one DAO under its own lock; only the
+ * changed flag is shared with the watching thread.
+ */
+
+final class DvdFileTracker {
+
+    /**
+     * What happened to the file since it was last recorded.
+     */
+    enum Change {
+        // Same contents as recorded
+        NONE,
+        // Recorded contents followed by whole new lines
+        APPENDED,
+        // Anything else: the file must be read again from the start
+        REPLACED
+    }
+
+    private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+
+    // Library file being tracked
+    private final Path file;
+    // Watches the file's directory; null if watching is unavailable
+    private final WatchService watcher;
+    // Set by the watching thread when the file may have changed
+    private volatile boolean changed = true;
+
+    // State of the file when it was last read or written by the DAO
+    private boolean recorded = false;
+    private long size;
+    private long modifiedMillis;
+    private long checksum;
+    private boolean endsWithNewline;
+
+    /**
+     * Starts watching a library file. If the platform offers no
+     * WatchService the tracker falls back to checking the file's
+     * attributes on every call.
+     *
+     * @param file library file to track
+     */
+    DvdFileTracker(Path file) {
+        this.file = file.toAbsolutePath();
+        this.watcher = startWatching(this.file);
+    }
+
+    private WatchService startWatching(Path watchedFile) {
+        Path directory = watchedFile.getParent();
+        WatchService service;
+        try {
+            service = watchedFile.getFileSystem().newWatchService();
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | UnsupportedOperationException e) {
+            return null; // Check the attributes on every call instead
+        }
+
+        Thread thread = new Thread(() -> watch(service), "dvd-library-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return service;
+    }
+
+    /**
+     * Body of the watching thread: marks the file changed on every
+     * event that names it, or on overflow, until the service closes.
+     */
+    private void watch(WatchService service) {
+        Path name = file.getFileName();
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (!key.reset()) {
+                    changed = true; // Directory is gone; check on every call
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Tracker closed
+        }
+    }
+
+    /**
+     * Reports how the file differs from the state last recorded.
+     * Returns NONE straight away while the watcher has seen no event
+     * for the file.
+     *
+     * @return the kind of change
+     * @throws IOException if the file could not be examined
+     */
+    Change check() throws IOException {
+        if (!recorded) {
+            return Change.REPLACED;
+        }
+        if (watcher != null && !changed) {
+            return Change.NONE;
+        }
+        changed = false; // Events from here on are seen by the next check
+
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long newSize = attributes.size();
+        long newModifiedMillis = attributes.lastModifiedTime().toMillis();
+        if (newSize == size && newModifiedMillis == modifiedMillis) {
+            return Change.NONE;
+        }
+        if (newSize > size && endsWithNewline && checksum(file, size) == checksum) {
+            return Change.APPENDED;
+        }
+        if (newSize == size && checksum(file, size) == checksum) {
+            modifiedMillis = newModifiedMillis; // Touched, not changed
+            return Change.NONE;
+        }
+        return Change.REPLACED;
+    }
+
+    /**
+     * Returns the size of the file when it was last recorded. After a
+     * check reports APPENDED, the new lines start at this offset.
+     *
+     * @return recorded size in bytes
+     */
+    long recordedSize() {
+        return size;
+    }
+
+    /**
+     * Returns whether the file ended with a line break when it was
+     * last recorded, so that it holds no half-written last line.
+     *
+     * @return true if the recorded file ends with a whole line
+     */
+    boolean recordedWholeLines() {
+        return endsWithNewline;
+    }
+
+    /**
+     * Records the file as it is now, reading it to compute the
+     * checksum. The DAO records the file before reading new lines and
+     * reads no further than the recorded size, so a change made while
+     * it reads is seen by the next check.
+     *
+     * @throws IOException if the file could not be read
+     */
+    void record() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        size = attributes.size();
+        modifiedMillis = attributes.lastModifiedTime().toMillis();
+        checksum = checksum(file, size);
+        endsWithNewline = size == 0 || lastByte(file, size) == '\n';
+        recorded = true;
+    }
+
+    /**
+     * Records the contents the DAO has just read or written, without
+     * touching the file. The modification time must be taken before
+     * the contents were read, or from the written file before it was
+     * moved into place, so that a change made by another process in
+     * between is seen by the next check.
+     *
+     * @param contents fingerprint of the whole file, from offset 0
+     * @param modifiedMillis modification time of those contents
+     */
+    void record(Fingerprint contents, long modifiedMillis) {
+        size = contents.length;
+        this.modifiedMillis = modifiedMillis;
+        checksum = contents.getValue();
+        endsWithNewline = size == 0 || contents.lastByte == '\n';
+        recorded = true;
+    }
+
+    /**
+     * Forgets the recorded state, so the next check reports the file
+     * as replaced.
+     */
+    void invalidate() {
+        recorded = false;
+    }
+
+    /**
+     * Stops the watching thread.
+     */
+    void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ignored) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    /**
+     * Computes the CRC32C checksum of the first length bytes of a file.
+     */
+    private static long checksum(Path file, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHECKSUM_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), length - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    return ~crc.getValue(); // File shrank; cannot match
+                }
+                buffer.flip();
+                crc.update(buffer);
+                position += read;
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static int lastByte(Path file, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.read(buffer, size - 1) == 1 ? buffer.get(0) : -1;
+        }
+    }
+
+    /**
+     * CRC32C checksum of a file's contents that also counts the bytes
+     * and keeps the last one, so DvdTextFormat can fill it in while
+     * it streams the file and the tracker can record the file from it.
+     */
+    static final class Fingerprint implements Checksum {
+        private final CRC32C crc = new CRC32C();
+        // Number of bytes seen
+        private long length;
+        // Last byte seen, or -1 before any
+        private int lastByte = -1;
+
+        @Override
+        public void update(int b) {
+            crc.update(b);
+            length++;
+            lastByte = b & 0xFF;
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            crc.update(b, off, len);
+            if (len > 0) {
+                length += len;
+                lastByte = b[off + len - 1] & 0xFF;
+            }
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            int remaining = buffer.remaining();
+            if (remaining > 0) {
+                lastByte = buffer.get(buffer.limit() - 1) & 0xFF;
+                length += remaining;
+                crc.update(buffer);
+            }
+        }
+
+        @Override
+        public long getValue() {
+            return crc.getValue();
+        }
+
+        @Override
+        public void reset() {
+            crc.reset();
+            length = 0;
+            lastByte = -1;
+        }
+
+        /**
+         * Returns the number of bytes seen.
+         *
+         * @return length in bytes
+         */
+        long length() {
+            return length;
+        }
+    }
+}
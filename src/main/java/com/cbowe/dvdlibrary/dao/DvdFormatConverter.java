@@ -0,0 +1,76 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@code DvdFormatConverter} class converts library files between
+ * the "::" text format and the binary format. When a title appears
+ * more than once in the input the last record wins, as it does when
+ * a DAO loads the file.
+ * <p>
+ * Usage: {@code DvdFormatConverter to-binary|to-text <input> <output>}
+ */
+
+public class DvdFormatConverter {
+
+    /**
+     * Converts a text library file to a binary one.
+     *
+     * @param textFile "::" library file to read
+     * @param binaryFile binary library file to write
+     * @return number of DVDs written
+     * @throws IOException if either file could not be accessed
+     * @throws DvdLibraryDaoException if the text file is malformed
+     */
+    public static int textToBinary(Path textFile, Path binaryFile) throws IOException, DvdLibraryDaoException {
+        Map<String, Dvd> dvds = new LinkedHashMap<>();
+        DvdTextFormat.readLibrary(textFile, currentDvd -> dvds.put(currentDvd.getTitle(), currentDvd));
+        DvdBinaryFormat.writeLibrary(binaryFile, dvds.values());
+        return dvds.size();
+    }
+
+    /**
+     * Converts a binary library file to a text one.
+     *
+     * @param binaryFile binary library file to read
+     * @param textFile "::" library file to write
+     * @return number of DVDs written
+     * @throws IOException if either file could not be accessed
+     * @throws DvdLibraryDaoException if the binary file is not valid
+     */
+    public static int binaryToText(Path binaryFile, Path textFile) throws IOException, DvdLibraryDaoException {
+        Map<String, Dvd> dvds = new LinkedHashMap<>();
+        DvdBinaryFormat.readLibrary(binaryFile, currentDvd -> dvds.put(currentDvd.getTitle(), currentDvd));
+        DvdTextFormat.writeLibrary(textFile, dvds.values());
+        return dvds.size();
+    }
+
+    /**
+     * Runs a conversion from the command line.
+     *
+     * @param args direction, input file and output file
+     */
+    public static void main(String[] args) {
+        if (args.length != 3 || !(args[0].equals("to-binary") || args[0].equals("to-text"))) {
+            System.err.println("Usage: DvdFormatConverter to-binary|to-text <input> <output>");
+            System.exit(2);
+        }
+
+        Path input = Paths.get(args[1]);
+        Path output = Paths.get(args[2]);
+        try {
+            int count = args[0].equals("to-binary")
+                    ? textToBinary(input, output)
+                    : binaryToText(input, output);
+            System.out.println("Converted " + count + " DVDs to " + output);
+        } catch (IOException | DvdLibraryDaoException e) {
+            System.err.println("Could not convert " + input + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code DvdIndex} class keeps secondary indexes from director,
+ * studio, MPAA rating and release year to the titles that have them,
+ * so a DvdQuery only looks at the DVDs in its smallest matching
+ * posting set instead of scanning the whole library.
+ * <p>
+ * Dvd objects are immutable, so a DVD is always removed under the
+ * field values it was added with; callers replacing a DVD remove the
+ * old object and add the new one. The posting maps are concurrent,
+ * so adds and removes for different titles may run in parallel; a
+ * query racing them may see a stale title, which is why every
+ * candidate is checked against the query before it is returned.
+ */
+
+final class DvdIndex {
+
+    // Postings keyed by DvdQuery.key of each field; values are titles
+    private final Map<String, Set<String>> byDirector = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byStudio = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byMpaa = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<String>> byReleaseYear = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a Dvd object to every index under its current field values.
+     *
+     * @param title library key the DVD is stored under
+     * @param dvd Dvd object to index, ignored if null
+     */
+    void add(String title, Dvd dvd) {
+        if (dvd == null) {
+            return;
+        }
+        post(byDirector, DvdQuery.key(dvd.getDirectorsName()), title);
+        post(byStudio, DvdQuery.key(dvd.getStudio()), title);
+        post(byMpaa, DvdQuery.key(dvd.getMPAA()), title);
+        int year = DvdQuery.releaseYearOf(dvd.getReleaseDate());
+        if (year >= 0) {
+            post(byReleaseYear, year, title);
+        }
+    }
+
+    /**
+     * Removes a Dvd object from every index, using its current field
+     * values to find the postings it is in.
+     *
+     * @param title library key the DVD is stored under
+     * @param dvd Dvd object to remove, ignored if null
+     */
+    void remove(String title, Dvd dvd) {
+        if (dvd == null) {
+            return;
+        }
+        unpost(byDirector, DvdQuery.key(dvd.getDirectorsName()), title);
+        unpost(byStudio, DvdQuery.key(dvd.getStudio()), title);
+        unpost(byMpaa, DvdQuery.key(dvd.getMPAA()), title);
+        int year = DvdQuery.releaseYearOf(dvd.getReleaseDate());
+        if (year >= 0) {
+            unpost(byReleaseYear, year, title);
+        }
+    }
+
+    /**
+     * Empties every index.
+     */
+    void clear() {
+        byDirector.clear();
+        byStudio.clear();
+        byMpaa.clear();
+        byReleaseYear.clear();
+    }
+
+    /**
+     * Finds the DVDs matching a query. The posting sets of the fields
+     * the query sets are looked up, and only the titles in the
+     * smallest one are fetched and checked against the whole query.
+     *
+     * @param query criteria to match
+     * @param dvds library the indexed titles are looked up in
+     * @return matching Dvd objects, in no particular order
+     */
+    List<Dvd> find(DvdQuery query, Map<String, Dvd> dvds) {
+        if (query.isEmpty()) {
+            return new ArrayList<>(dvds.values());
+        }
+
+        Set<String> smallest = null;
+        List<Set<String>> postings = new ArrayList<>(4);
+        if (query.getDirectorsName() != null) {
+            postings.add(byDirector.get(DvdQuery.key(query.getDirectorsName())));
+        }
+        if (query.getStudio() != null) {
+            postings.add(byStudio.get(DvdQuery.key(query.getStudio())));
+        }
+        if (query.getMPAA() != null) {
+            postings.add(byMpaa.get(DvdQuery.key(query.getMPAA())));
+        }
+        if (query.getReleaseYear() != null) {
+            postings.add(byReleaseYear.get(query.getReleaseYear()));
+        }
+        for (Set<String> titles : postings) {
+            if (titles == null) {
+                return new ArrayList<>(); // No DVD has that value
+            }
+            if (smallest == null || titles.size() < smallest.size()) {
+                smallest = titles;
+            }
+        }
+
+        List<Dvd> matches = new ArrayList<>(smallest.size());
+        for (String title : smallest) {
+            Dvd dvd = dvds.get(title);
+            if (dvd != null && query.matches(dvd)) {
+                matches.add(dvd);
+            }
+        }
+        return matches;
+    }
+
+    private static <K> void post(Map<K, Set<String>> index, K key, String title) {
+        if (key == null) {
+            return;
+        }
+        index.compute(key, (k, titles) -> {
+            if (titles == null) {
+                titles = ConcurrentHashMap.newKeySet();
+            }
+            titles.add(title);
+            return titles;
+        });
+    }
+
+    private static <K> void unpost(Map<K, Set<String>> index, K key, String title) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfPresent(key, (k, titles) -> {
+            titles.remove(title);
+            return titles.isEmpty() ? null : titles;
+        });
+    }
+}
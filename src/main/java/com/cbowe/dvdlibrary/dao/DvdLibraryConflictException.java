@@ -0,0 +1,54 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+
+/**
+ * The {@code DvdLibraryConflictException} class is thrown when an
+ * edit expected a DVD to have one version but it has another, because
+ * someone else changed it after it was read. Nothing in the batch is
+ * applied; the caller can read the DVD again and retry.
+ */
+
+public class DvdLibraryConflictException extends DvdLibraryDaoException {
+
+    private final String title;
+    private final long expectedVersion;
+    private final long actualVersion;
+
+    public DvdLibraryConflictException(String title, long expectedVersion, long actualVersion) {
+        super("DVD " + title + " was changed by someone else: expected version "
+                + expectedVersion + " but found " + actualVersion);
+        this.title = title;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    /**
+     * Throws a DvdLibraryConflictException unless an edit may be
+     * applied to the current DVD. Backends call this for every edit
+     * of a batch, against the DVD as it was before the batch, before
+     * changing anything.
+     *
+     * @param edit edit about to be applied
+     * @param current DVD the edit would apply to
+     * @throws DvdLibraryConflictException if the versions differ
+     */
+    static void check(DvdEdit edit, Dvd current) throws DvdLibraryConflictException {
+        if (!edit.isExpected(current)) {
+            throw new DvdLibraryConflictException(edit.getTitle(), edit.getExpectedVersion(), current.getVersion());
+        }
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getActualVersion() {
+        return actualVersion;
+    }
+}
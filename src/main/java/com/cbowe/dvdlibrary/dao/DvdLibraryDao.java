@@ -1,7 +1,16 @@
 package com.cbowe.dvdlibrary.dao;
 
 import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdPatch;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * The {@code DvdLibraryDao} interface defines methods that must be
@@ -10,6 +19,14 @@ import java.util.List;
  */
 
 public interface DvdLibraryDao {
+    /**
+     * The order DVDs are listed in: by title ignoring case and
+     * surrounding spaces, then by exact title so the order is stable.
+     */
+    Comparator<Dvd> TITLE_ORDER = Comparator
+            .comparing((Dvd dvd) -> DvdQuery.key(dvd.getTitle()))
+            .thenComparing(Dvd::getTitle);
+
     /**
      * Adds the given Dvd to the library and associates it with the
      * given DVD Title. If there is already a dvd associated with the
@@ -32,6 +49,99 @@ public interface DvdLibraryDao {
      */
     List<Dvd> getAllDvds() throws DvdLibraryDaoException;
 
+    /**
+     * Returns the number of DVDs in the library.
+     *
+     * @return number of DVDs in the library
+     * @throws DvdLibraryDaoException prints message
+     */
+    default int countDvds() throws DvdLibraryDaoException {
+        return getAllDvds().size();
+    }
+
+    /**
+     * Returns one page of the library in TITLE_ORDER, so a large
+     * library can be listed without holding every DVD in one list.
+     * Implementations that keep their titles sorted walk straight to
+     * the page; the default sorts getAllDvds.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs on the page
+     * @return the DVDs on the page, empty once offset is past the end
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> getDvdPage(int offset, int limit) throws DvdLibraryDaoException {
+        return getAllDvds().stream()
+                .sorted(TITLE_ORDER)
+                .skip(offset)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the DVDs that come straight after the given title in
+     * TITLE_ORDER, for paging forward from the last DVD on a page.
+     * Implementations that keep their titles sorted seek to the title
+     * instead of counting from the start; the default sorts
+     * getAllDvds.
+     *
+     * @param title title to start after, which need not be in the
+     *              library, or null to start at the first DVD
+     * @param limit maximum number of DVDs to return
+     * @return the DVDs in TITLE_ORDER
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> getDvdsAfter(String title, int limit) throws DvdLibraryDaoException {
+        Dvd after = title == null ? null : new Dvd(title);
+        return getAllDvds().stream()
+                .filter(dvd -> after == null || TITLE_ORDER.compare(dvd, after) > 0)
+                .sorted(TITLE_ORDER)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the DVDs that come straight before the given title in
+     * TITLE_ORDER, for paging back from the first DVD on a page.
+     *
+     * @param title title to end before, which need not be in the
+     *              library, or null to end at the last DVD
+     * @param limit maximum number of DVDs to return
+     * @return the DVDs in TITLE_ORDER
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> getDvdsBefore(String title, int limit) throws DvdLibraryDaoException {
+        Dvd before = title == null ? null : new Dvd(title);
+        List<Dvd> earlier = getAllDvds().stream()
+                .filter(dvd -> before == null || TITLE_ORDER.compare(dvd, before) < 0)
+                .sorted(TITLE_ORDER)
+                .collect(Collectors.toList());
+        return new ArrayList<>(earlier.subList(Math.max(0, earlier.size() - limit), earlier.size()));
+    }
+
+    /**
+     * Returns the DVDs whose titles fall from fromTitle up to, but
+     * not including, toTitle, ignoring case. The bounds need not be
+     * whole titles: between "A" and "C" returns every title starting
+     * with A or B.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return the DVDs in TITLE_ORDER
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> getDvdsBetween(String fromTitle, String toTitle, int limit) throws DvdLibraryDaoException {
+        String fromKey = DvdQuery.key(fromTitle);
+        String toKey = DvdQuery.key(toTitle);
+        return getAllDvds().stream()
+                .filter(dvd -> fromKey == null || DvdQuery.key(dvd.getTitle()).compareTo(fromKey) >= 0)
+                .filter(dvd -> toKey == null || DvdQuery.key(dvd.getTitle()).compareTo(toKey) < 0)
+                .sorted(TITLE_ORDER)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
     /**
      * Returns the DVD object associated with the given title.
      * Returns null if no such DVD exists
@@ -117,4 +227,262 @@ public interface DvdLibraryDao {
      * @throws DvdLibraryDaoException prints message
      */
     Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException;
+
+    /**
+     * Adds every given DVD to the library, each under its own title,
+     * replacing any DVD already stored under that title.
+     * Implementations that can should persist the whole batch once,
+     * and either add all the DVDs or none of them. The default adds
+     * them one at a time through addDvd.
+     *
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException prints message
+     */
+    default void addAll(Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        for (Dvd dvd : newDvds) {
+            addDvd(dvd.getTitle(), dvd);
+        }
+    }
+
+    /**
+     * Removes the DVDs with the given titles from the library. Titles
+     * that are not in the library are ignored. Implementations that
+     * can should persist the whole batch once, and either remove all
+     * the DVDs or none of them. The default removes them one at a
+     * time through removeDvd.
+     *
+     * @param titles titles of DVDs to be removed
+     * @return the DVD objects that were removed
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> removeAll(Collection<String> titles) throws DvdLibraryDaoException {
+        List<Dvd> removedDvds = new ArrayList<>();
+        for (String title : titles) {
+            Dvd removedDvd = removeDvd(title);
+            if (removedDvd != null) {
+                removedDvds.add(removedDvd);
+            }
+        }
+        return removedDvds;
+    }
+
+    /**
+     * Applies a list of field edits in order. If any edit names a
+     * title that is not in the library, or expects a version other
+     * than the one the DVD has before the batch, no edit is applied
+     * and an exception is thrown. Implementations that can should
+     * persist the whole batch once, and should check the versions
+     * under the same lock as they apply the edits, so no other change
+     * can slip in between. The default checks every edit first and
+     * then applies the edits one at a time through the editXxx
+     * methods, so it cannot rule out such a change.
+     *
+     * @param edits field edits to apply
+     * @return the edited DVD objects, one per edit
+     * @throws DvdLibraryConflictException if a DVD does not have the
+     * version an edit expects
+     * @throws DvdLibraryDaoException if a title is missing or the
+     * edits could not be saved
+     */
+    default List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = getDvd(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+        }
+
+        List<Dvd> editedDvds = new ArrayList<>();
+        for (DvdEdit edit : edits) {
+            String title = edit.getTitle();
+            String value = edit.getValue();
+            switch (edit.getField()) {
+                case RELEASE_DATE:
+                    editedDvds.add(editReleaseDate(title, value));
+                    break;
+                case MPAA:
+                    editedDvds.add(editMPAA(title, value));
+                    break;
+                case DIRECTOR_NAME:
+                    editedDvds.add(editDirectorName(title, value));
+                    break;
+                case STUDIO:
+                    editedDvds.add(editStudio(title, value));
+                    break;
+                case USER_RATING:
+                    editedDvds.add(editUserRating(title, value));
+                    break;
+            }
+        }
+        return editedDvds;
+    }
+
+    /**
+     * Changes any subset of the fields of one DVD together, in place
+     * of one editXxx call per field. The changes are applied as a
+     * single batch, so either every field changes or none does, and
+     * implementations that persist batches once write the library
+     * once for the whole patch. A patch that expects a version is
+     * refused if the DVD no longer has it.
+     *
+     * @param title of DVD to be edited
+     * @param patch new values of the fields to change
+     * @return DVD object after the changes, or null if no DVD was
+     * associated with the given title
+     * @throws DvdLibraryConflictException if the DVD does not have
+     * the version the patch expects
+     * @throws DvdLibraryDaoException if the changes could not be saved
+     */
+    default Dvd updateDvd(String title, DvdPatch patch) throws DvdLibraryDaoException {
+        Dvd currentDvd = getDvd(title);
+        if (currentDvd == null || patch.isEmpty()) {
+            return currentDvd;
+        }
+        List<Dvd> editedDvds = applyBatch(patch.toEdits(title));
+        return editedDvds.get(editedDvds.size() - 1);
+    }
+
+    /**
+     * Applies field edits, removals and additions as one batch, for
+     * callers that collect changes to many titles before saving them.
+     * Each title should appear in only one of the three. Every edit is
+     * checked as applyBatch checks it before anything changes, so a
+     * missing title or a version conflict leaves the library as it
+     * was. Titles to remove that are not in the library are ignored,
+     * and added DVDs replace any DVD stored under the same title.
+     * Implementations that can should apply the whole batch under one
+     * lock and persist it once, so either all of it is saved or none
+     * of it. The default calls applyBatch, removeAll and addAll in
+     * turn, so a failure after the edits leaves them saved.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryConflictException if a DVD does not have the
+     * version an edit expects
+     * @throws DvdLibraryDaoException if a title to edit is missing or
+     * the changes could not be saved
+     */
+    default void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles, Collection<Dvd> newDvds)
+            throws DvdLibraryDaoException {
+        if (!edits.isEmpty()) {
+            applyBatch(edits);
+        }
+        if (!removedTitles.isEmpty()) {
+            removeAll(removedTitles);
+        }
+        if (!newDvds.isEmpty()) {
+            addAll(newDvds);
+        }
+    }
+
+    /**
+     * Returns every DVD matching the given query, in no particular
+     * order. Implementations that keep secondary indexes answer from
+     * them; the default scans getAllDvds.
+     *
+     * @param query director, studio, MPAA rating and release year to
+     *              match; fields left null match every DVD
+     * @return a List of the matching DVDs
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> findDvds(DvdQuery query) throws DvdLibraryDaoException {
+        List<Dvd> matches = new ArrayList<>();
+        for (Dvd dvd : getAllDvds()) {
+            if (query.matches(dvd)) {
+                matches.add(dvd);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns every DVD by the given director, ignoring case.
+     *
+     * @param directorsName name of film director
+     * @return a List of the director's DVDs
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> getDvdsByDirector(String directorsName) throws DvdLibraryDaoException {
+        DvdQuery query = new DvdQuery();
+        query.setDirectorsName(directorsName);
+        return findDvds(query);
+    }
+
+    /**
+     * Returns every DVD from the given studio, ignoring case.
+     *
+     * @param studio studio that released film
+     * @return a List of the studio's DVDs
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> getDvdsByStudio(String studio) throws DvdLibraryDaoException {
+        DvdQuery query = new DvdQuery();
+        query.setStudio(studio);
+        return findDvds(query);
+    }
+
+    /**
+     * Returns every DVD with the given MPAA rating, ignoring case.
+     *
+     * @param mpaa MPAA rating
+     * @return a List of the DVDs with that rating
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> getDvdsByMPAA(String mpaa) throws DvdLibraryDaoException {
+        DvdQuery query = new DvdQuery();
+        query.setMPAA(mpaa);
+        return findDvds(query);
+    }
+
+    /**
+     * Returns every DVD released in the given year.
+     *
+     * @param releaseYear four digit release year
+     * @return a List of the DVDs released that year
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> getDvdsByReleaseYear(int releaseYear) throws DvdLibraryDaoException {
+        DvdQuery query = new DvdQuery();
+        query.setReleaseYear(releaseYear);
+        return findDvds(query);
+    }
+
+    /**
+     * Searches the library by title for the given text, which need
+     * not be the exact title. Titles starting with the text come
+     * first, then titles whose start is a close misspelling of it.
+     * Case and surrounding spaces are ignored. Implementations that
+     * keep a title index answer from it; the default indexes the
+     * titles from getAllDvds for each search.
+     *
+     * @param text all or the start of a title, possibly mistyped
+     * @param limit maximum number of DVDs to return
+     * @return a List of matching DVDs, best match first
+     * @throws DvdLibraryDaoException prints message
+     */
+    default List<Dvd> searchDvds(String text, int limit) throws DvdLibraryDaoException {
+        Map<String, Dvd> dvdsByTitle = new HashMap<>();
+        DvdTitleIndex titleIndex = new DvdTitleIndex();
+        for (Dvd dvd : getAllDvds()) {
+            dvdsByTitle.put(dvd.getTitle(), dvd);
+            titleIndex.add(dvd.getTitle());
+        }
+        List<Dvd> matches = new ArrayList<>();
+        for (String title : titleIndex.search(text, limit)) {
+            matches.add(dvdsByTitle.get(title));
+        }
+        return matches;
+    }
+
+    /**
+     * Releases any resources held by the DAO and makes sure every
+     * change has been written to storage. Implementations that write
+     * through on every call have nothing to do here.
+     *
+     * @throws DvdLibraryDaoException if pending changes could not be saved
+     */
+    default void close() throws DvdLibraryDaoException {
+    }
 }
@@ -0,0 +1,492 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * The {@code DvdLibraryDaoBinaryImpl} class implements the
+ * DvdLibraryDao interface on top of a DvdBinaryFormat library file.
+ * <p>
+ * Until the library has to be loaded, getDvd reads just the one
+ * record it needs through the file's title index, decoding the
+ * file's string table once and keeping it for later lookups. The
+ * first listing or change loads the whole file into memory; after
+ * that reads are served from memory and every change writes the
+ * binary file again.
+ * A missing file is treated as an empty library.
+ */
+
+public class DvdLibraryDaoBinaryImpl implements DvdLibraryDao {
+
+    // Binary library file
+    private final Path libraryFile;
+    // Map to store and retrieve the Dvd, with secondary indexes on
+    // director, studio, MPAA rating and release year; null until loaded
+    private IndexedDvdMap dvds;
+    // String table kept by getDvd between lookups before the load
+    private final DvdBinaryFormat.StringTableCache stringTable = new DvdBinaryFormat.StringTableCache();
+    // Loads and writes of the binary file are timed in here
+    private final DvdLibraryMetrics metrics = DvdLibraryMetrics.shared();
+
+    /**
+     * No arg constructor, uses "dvdLibrary.dvdb".
+     */
+    public DvdLibraryDaoBinaryImpl() {
+        this("dvdLibrary.dvdb");
+    }
+
+    /**
+     * Constructor accepts String parameter
+     *
+     * @param libraryBinaryFile name of binary file with DVD info
+     */
+    public DvdLibraryDaoBinaryImpl(String libraryBinaryFile) {
+        this.libraryFile = Paths.get(libraryBinaryFile);
+    }
+
+    /**
+     * Adds a new Dvd object and writes the library
+     *
+     * @param title with which DVD is to be associated
+     * @param dvd DVD to be added to the library
+     * @return Dvd object previously stored under the title, or null
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
+        Dvd previousDvd = load().put(title, dvd);
+        writeLibrary();
+        return previousDvd;
+    }
+
+    /**
+     * Gets all Dvd objects, loading the library if needed
+     *
+     * @return ArrayList of values from dvds HashMap
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+        return new ArrayList<>(load().values());
+    }
+
+    /**
+     * Counts the Dvd objects, loading the library if needed.
+     *
+     * @return number of DVDs in the library
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized int countDvds() throws DvdLibraryDaoException {
+        return load().size();
+    }
+
+    /**
+     * Gets one page of Dvd objects in title order from the sorted
+     * title index, loading the library if needed.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs on the page
+     * @return Dvd objects on the page
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdPage(int offset, int limit) throws DvdLibraryDaoException {
+        return load().page(offset, limit);
+    }
+
+    /**
+     * Retrieves Dvd object associated with specified title, through
+     * the title index if the library has not been loaded
+     *
+     * @param title title of the DVD to retrieve
+     * @return Dvd object associated with title, or null
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized Dvd getDvd(String title) throws DvdLibraryDaoException {
+        if (dvds != null) {
+            return dvds.get(title);
+        }
+        if (!Files.exists(libraryFile)) {
+            return null;
+        }
+        try {
+            return DvdBinaryFormat.findDvd(libraryFile, title, stringTable);
+        } catch (IOException e) {
+            throw new DvdLibraryDaoException("*** Could not load DVD data into memory.", e);
+        }
+    }
+
+    /**
+     * Gets the Dvd objects that come straight after a title in title
+     * order by seeking in the sorted title index, loading the library if needed.
+     *
+     * @param title title to start after, or null to start at the first
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsAfter(String title, int limit) throws DvdLibraryDaoException {
+        return load().after(title, limit);
+    }
+
+    /**
+     * Gets the Dvd objects that come straight before a title in title
+     * order by seeking in the sorted title index, loading the library if needed.
+     *
+     * @param title title to end before, or null to end at the last
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsBefore(String title, int limit) throws DvdLibraryDaoException {
+        return load().before(title, limit);
+    }
+
+    /**
+     * Gets the Dvd objects in a title range from the sorted title
+     * index, loading the library if needed.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsBetween(String fromTitle, String toTitle, int limit) throws DvdLibraryDaoException {
+        return load().between(fromTitle, toTitle, limit);
+    }
+
+    /**
+     * Searches titles by prefix and with typo tolerance through the
+     * title index, loading the library if needed.
+     *
+     * @param text all or the start of a title, possibly mistyped
+     * @param limit maximum number of DVDs to return
+     * @return matching Dvd objects, best match first
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> searchDvds(String text, int limit) throws DvdLibraryDaoException {
+        return load().search(text, limit);
+    }
+
+    /**
+     * Finds the Dvd objects matching a query through the secondary
+     * indexes, loading the library if needed
+     *
+     * @param query criteria to match
+     * @return matching Dvd objects
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> findDvds(DvdQuery query) throws DvdLibraryDaoException {
+        return load().find(query);
+    }
+
+    /**
+     * Removes Dvd object associated with specified title
+     *
+     * @param title title of DVD to be removed
+     * @return removed Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd removeDvd(String title) throws DvdLibraryDaoException {
+        Dvd removedDvd = load().remove(title);
+        if (removedDvd != null) {
+            writeLibrary();
+        }
+        return removedDvd;
+    }
+
+    /**
+     * Edits the release date of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newReleaseDate release date for Dvd
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
+        Dvd currentDvd = load().edit(title, DvdField.RELEASE_DATE, newReleaseDate);
+        if (currentDvd != null) {
+            writeLibrary();
+        }
+        return currentDvd;
+    }
+
+    /**
+     * Edits the MPAA rating of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newMpaaRating rating of DVD
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
+        Dvd currentDvd = load().edit(title, DvdField.MPAA, newMpaaRating);
+        if (currentDvd != null) {
+            writeLibrary();
+        }
+        return currentDvd;
+    }
+
+    /**
+     * Edits the director name of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newDirectorName name of film director
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
+        Dvd currentDvd = load().edit(title, DvdField.DIRECTOR_NAME, newDirectorName);
+        if (currentDvd != null) {
+            writeLibrary();
+        }
+        return currentDvd;
+    }
+
+    /**
+     * Edits the user rating of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newUserRating user rating of DVD
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
+        Dvd currentDvd = load().edit(title, DvdField.USER_RATING, newUserRating);
+        if (currentDvd != null) {
+            writeLibrary();
+        }
+        return currentDvd;
+    }
+
+    /**
+     * Edits the studio name of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newStudioName studio that released film
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
+        Dvd currentDvd = load().edit(title, DvdField.STUDIO, newStudioName);
+        if (currentDvd != null) {
+            writeLibrary();
+        }
+        return currentDvd;
+    }
+
+    /**
+     * Adds every given Dvd object and writes the library once
+     *
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized void addAll(Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        load();
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        for (Dvd dvd : newDvds) {
+            previous.putIfAbsent(dvd.getTitle(), dvds.put(dvd.getTitle(), dvd));
+        }
+        writeBatch(previous);
+    }
+
+    /**
+     * Removes the Dvd objects with the given titles and writes the
+     * library once
+     *
+     * @param titles titles of DVDs to be removed
+     * @return removed Dvd objects
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized List<Dvd> removeAll(Collection<String> titles) throws DvdLibraryDaoException {
+        load();
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        List<Dvd> removedDvds = new ArrayList<>();
+        for (String title : titles) {
+            Dvd removedDvd = dvds.remove(title);
+            if (removedDvd != null) {
+                previous.put(title, removedDvd);
+                removedDvds.add(removedDvd);
+            }
+        }
+        if (!removedDvds.isEmpty()) {
+            writeBatch(previous);
+        }
+        return removedDvds;
+    }
+
+    /**
+     * Applies a list of field edits and writes the library once.
+     * Nothing changes if any title is missing.
+     *
+     * @param edits field edits to apply
+     * @return edited Dvd objects, one per edit
+     * @throws DvdLibraryDaoException if a title is missing or the file
+     * could not be written
+     */
+    @Override
+    public synchronized List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        load();
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+        }
+
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        List<Dvd> editedDvds = new ArrayList<>();
+        for (DvdEdit edit : edits) {
+            Dvd editedDvd = edit.getField().apply(dvds.get(edit.getTitle()), edit.getValue());
+            previous.putIfAbsent(edit.getTitle(), dvds.put(edit.getTitle(), editedDvd));
+            editedDvds.add(editedDvd);
+        }
+        writeBatch(previous);
+        return editedDvds;
+    }
+
+    /**
+     * Applies field edits, removals and additions and writes the
+     * library once for all of them. Nothing changes if any title to
+     * edit is missing or any DVD has changed since the version an edit
+     * expects, and if the write fails the library is left as it was.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if a title to edit is missing, a
+     * version does not match or the file could not be written
+     */
+    @Override
+    public synchronized void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles,
+                                          Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        load();
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+        }
+
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        for (DvdEdit edit : edits) {
+            Dvd editedDvd = edit.getField().apply(dvds.get(edit.getTitle()), edit.getValue());
+            previous.putIfAbsent(edit.getTitle(), dvds.put(edit.getTitle(), editedDvd));
+        }
+        for (String title : removedTitles) {
+            Dvd removedDvd = dvds.remove(title);
+            if (removedDvd != null) {
+                previous.putIfAbsent(title, removedDvd);
+            }
+        }
+        for (Dvd dvd : newDvds) {
+            Dvd previousDvd = dvds.put(dvd.getTitle(), dvd);
+            if (!previous.containsKey(dvd.getTitle())) {
+                previous.put(dvd.getTitle(), previousDvd);
+            }
+        }
+        if (!previous.isEmpty()) {
+            writeBatch(previous);
+        }
+    }
+
+    /**
+     * Writes the library after a batch. If that fails, puts back the
+     * values the batch replaced so memory matches the file again.
+     *
+     * @param previous value each changed title had before the batch,
+     *                 null for titles the batch added
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    private void writeBatch(Map<String, Dvd> previous) throws DvdLibraryDaoException {
+        try {
+            writeLibrary();
+        } catch (DvdLibraryDaoException e) {
+            for (Map.Entry<String, Dvd> entry : previous.entrySet()) {
+                if (entry.getValue() == null) {
+                    dvds.remove(entry.getKey());
+                } else {
+                    dvds.put(entry.getKey(), entry.getValue());
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the whole library into memory if it is not loaded yet.
+     * Each load is timed in the shared DvdLibraryMetrics.
+     *
+     * @return the in-memory library
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    private IndexedDvdMap load() throws DvdLibraryDaoException {
+        if (dvds == null) {
+            IndexedDvdMap loaded = new IndexedDvdMap();
+            if (Files.exists(libraryFile)) {
+                long start = System.nanoTime();
+                boolean failed = true;
+                long size = 0;
+                long parsed = 0;
+                try {
+                    size = Files.size(libraryFile);
+                    parsed = DvdBinaryFormat.readLibrary(libraryFile,
+                            currentDvd -> loaded.put(currentDvd.getTitle(), currentDvd));
+                    failed = false;
+                } catch (IOException e) {
+                    throw new DvdLibraryDaoException("*** Could not load DVD data into memory.", e);
+                } finally {
+                    metrics.recordRead("loadBinaryFile", System.nanoTime() - start, failed, size, parsed);
+                }
+            }
+            dvds = loaded;
+        }
+        return dvds;
+    }
+
+    /**
+     * Writes the in-memory library to the binary file. Each write is
+     * timed in the shared DvdLibraryMetrics.
+     *
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    private void writeLibrary() throws DvdLibraryDaoException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        long size = 0;
+        try {
+            DvdBinaryFormat.writeLibrary(libraryFile, dvds.values());
+            size = Files.size(libraryFile);
+            failed = false;
+        } catch (IOException e) {
+            throw new DvdLibraryDaoException("Could not save dvd data.", e);
+        } finally {
+            metrics.recordWrite("writeBinaryFile", System.nanoTime() - start, failed, size, dvds.size());
+        }
+    }
+}
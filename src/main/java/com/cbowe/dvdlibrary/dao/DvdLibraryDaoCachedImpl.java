@@ -0,0 +1,509 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdPatch;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code DvdLibraryDaoCachedImpl} class implements the
+ * DvdLibraryDao interface by passing every call on to another DAO,
+ * keeping the results of getDvd in a bounded DvdCache so that titles
+ * looked up again are answered without reaching the wrapped DAO.
+ * Titles that are not in the library are cached too, so repeated
+ * lookups of a missing title are just as cheap.
+ * <p>
+ * Every change made through this DAO drops the titles it touched from
+ * the cache once the wrapped DAO has finished, whether or not it
+ * succeeded, so the next lookup reads them again. Changes made to the
+ * wrapped DAO or its storage some other way are not seen until the
+ * title is evicted. Lookups that return lists, such as getAllDvds or
+ * findDvds, are passed on uncached.
+ * <p>
+ * Hits, misses and evictions are counted in a DvdLibraryMetrics as
+ * "cache hits", "cache misses" and "cache evictions".
+ */
+
+public class DvdLibraryDaoCachedImpl implements DvdLibraryDao {
+
+    // DAO that does the work
+    private final DvdLibraryDao dao;
+    // Recent getDvd results, keyed by title
+    private final DvdCache cache;
+    // Lookups answered from the cache
+    private final LongAdder hits;
+    // Lookups passed on to the wrapped DAO
+    private final LongAdder misses;
+    // Titles dropped to keep the cache within its size
+    private final LongAdder evictions;
+
+    /**
+     * Constructor that uses TinyLFU eviction and counts into the
+     * shared DvdLibraryMetrics.
+     *
+     * @param dao DAO to pass every call on to
+     * @param maxEntries most titles cached, counting missing titles
+     */
+    public DvdLibraryDaoCachedImpl(DvdLibraryDao dao, int maxEntries) {
+        this(dao, maxEntries, "tinylfu", DvdLibraryMetrics.shared());
+    }
+
+    /**
+     * Constructor accepts the DAO to wrap, the cache size and policy
+     * and the metrics to count into
+     *
+     * @param dao DAO to pass every call on to
+     * @param maxEntries most titles cached, counting missing titles
+     * @param policy "lru" to evict the least recently used title, or
+     * "tinylfu" to also keep titles that are looked up often
+     * @param metrics metrics the hits, misses and evictions are counted in
+     * @throws IllegalArgumentException if maxEntries is not positive
+     * or the policy is unknown
+     */
+    public DvdLibraryDaoCachedImpl(DvdLibraryDao dao, int maxEntries, String policy, DvdLibraryMetrics metrics) {
+        this.dao = dao;
+        this.hits = metrics.counter("cache hits");
+        this.misses = metrics.counter("cache misses");
+        this.evictions = metrics.counter("cache evictions");
+        this.cache = new DvdCache(maxEntries, DvdCache.Policy.parse(policy), hits, misses, evictions);
+    }
+
+    /**
+     * Passes addDvd on to the wrapped DAO and drops the title from the cache.
+     *
+     * @param title title of the DVD
+     * @param dvd DVD to be added to the library
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
+        try {
+            return dao.addDvd(title, dvd);
+        } finally {
+            cache.invalidate(title);
+        }
+    }
+
+    /**
+     * Passes getAllDvds on to the wrapped DAO.
+     *
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+        return dao.getAllDvds();
+    }
+
+    /**
+     * Passes countDvds on to the wrapped DAO.
+     *
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public int countDvds() throws DvdLibraryDaoException {
+        return dao.countDvds();
+    }
+
+    /**
+     * Passes getDvdPage on to the wrapped DAO.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs to return
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdPage(int offset, int limit) throws DvdLibraryDaoException {
+        return dao.getDvdPage(offset, limit);
+    }
+
+    /**
+     * Passes getDvdsAfter on to the wrapped DAO.
+     *
+     * @param title title of the DVD
+     * @param limit maximum number of DVDs to return
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsAfter(String title, int limit) throws DvdLibraryDaoException {
+        return dao.getDvdsAfter(title, limit);
+    }
+
+    /**
+     * Passes getDvdsBefore on to the wrapped DAO.
+     *
+     * @param title title of the DVD
+     * @param limit maximum number of DVDs to return
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsBefore(String title, int limit) throws DvdLibraryDaoException {
+        return dao.getDvdsBefore(title, limit);
+    }
+
+    /**
+     * Passes getDvdsBetween on to the wrapped DAO.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsBetween(String fromTitle, String toTitle, int limit) throws DvdLibraryDaoException {
+        return dao.getDvdsBetween(fromTitle, toTitle, limit);
+    }
+
+    /**
+     * Returns the DVD from the cache, or reads it through the wrapped
+     * DAO and caches it, or the fact that it is missing.
+     *
+     * @param title title of the DVD
+     * @return the DVD, or null if the library does not have it
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd getDvd(String title) throws DvdLibraryDaoException {
+        DvdCache.Entry cached = cache.get(title);
+        if (cached != null) {
+            return cached.dvd;
+        }
+        // Taken before reading, so a change made during the read
+        // stops the old DVD from being cached
+        long generation = cache.generation(title);
+        Dvd dvd = dao.getDvd(title);
+        cache.put(title, dvd, generation);
+        return dvd;
+    }
+
+    /**
+     * Passes removeDvd on to the wrapped DAO and drops the title from the cache.
+     *
+     * @param title title of the DVD
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd removeDvd(String title) throws DvdLibraryDaoException {
+        try {
+            return dao.removeDvd(title);
+        } finally {
+            cache.invalidate(title);
+        }
+    }
+
+    /**
+     * Passes editReleaseDate on to the wrapped DAO and drops the title from the cache.
+     *
+     * @param title title of the DVD
+     * @param newReleaseDate release date for Dvd
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
+        try {
+            return dao.editReleaseDate(title, newReleaseDate);
+        } finally {
+            cache.invalidate(title);
+        }
+    }
+
+    /**
+     * Passes editMPAA on to the wrapped DAO and drops the title from the cache.
+     *
+     * @param title title of the DVD
+     * @param newMpaaRating rating of DVD
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
+        try {
+            return dao.editMPAA(title, newMpaaRating);
+        } finally {
+            cache.invalidate(title);
+        }
+    }
+
+    /**
+     * Passes editDirectorName on to the wrapped DAO and drops the title from the cache.
+     *
+     * @param title title of the DVD
+     * @param newDirectorName name of film director
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
+        try {
+            return dao.editDirectorName(title, newDirectorName);
+        } finally {
+            cache.invalidate(title);
+        }
+    }
+
+    /**
+     * Passes editUserRating on to the wrapped DAO and drops the title from the cache.
+     *
+     * @param title title of the DVD
+     * @param newUserRating user rating of DVD
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
+        try {
+            return dao.editUserRating(title, newUserRating);
+        } finally {
+            cache.invalidate(title);
+        }
+    }
+
+    /**
+     * Passes editStudio on to the wrapped DAO and drops the title from the cache.
+     *
+     * @param title title of the DVD
+     * @param newStudioName studio that released film
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
+        try {
+            return dao.editStudio(title, newStudioName);
+        } finally {
+            cache.invalidate(title);
+        }
+    }
+
+    /**
+     * Passes addAll on to the wrapped DAO and drops every added title
+     * from the cache.
+     *
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public void addAll(Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        try {
+            dao.addAll(newDvds);
+        } finally {
+            for (Dvd dvd : newDvds) {
+                cache.invalidate(dvd.getTitle());
+            }
+        }
+    }
+
+    /**
+     * Passes removeAll on to the wrapped DAO and drops every title
+     * from the cache.
+     *
+     * @param titles titles of DVDs to be removed
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> removeAll(Collection<String> titles) throws DvdLibraryDaoException {
+        try {
+            return dao.removeAll(titles);
+        } finally {
+            for (String title : titles) {
+                cache.invalidate(title);
+            }
+        }
+    }
+
+    /**
+     * Passes applyBatch on to the wrapped DAO and drops every edited
+     * title from the cache.
+     *
+     * @param edits field edits to apply
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        try {
+            return dao.applyBatch(edits);
+        } finally {
+            for (DvdEdit edit : edits) {
+                cache.invalidate(edit.getTitle());
+            }
+        }
+    }
+
+    /**
+     * Passes updateDvd on to the wrapped DAO and drops the title from the cache.
+     *
+     * @param title title of the DVD
+     * @param patch new values of the fields to change
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd updateDvd(String title, DvdPatch patch) throws DvdLibraryDaoException {
+        try {
+            return dao.updateDvd(title, patch);
+        } finally {
+            cache.invalidate(title);
+        }
+    }
+
+    /**
+     * Passes applyChanges on to the wrapped DAO and drops every
+     * title it touched from the cache.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles, Collection<Dvd> newDvds)
+            throws DvdLibraryDaoException {
+        try {
+            dao.applyChanges(edits, removedTitles, newDvds);
+        } finally {
+            for (DvdEdit edit : edits) {
+                cache.invalidate(edit.getTitle());
+            }
+            for (String title : removedTitles) {
+                cache.invalidate(title);
+            }
+            for (Dvd dvd : newDvds) {
+                cache.invalidate(dvd.getTitle());
+            }
+        }
+    }
+
+    /**
+     * Passes findDvds on to the wrapped DAO.
+     *
+     * @param query criteria to match
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> findDvds(DvdQuery query) throws DvdLibraryDaoException {
+        return dao.findDvds(query);
+    }
+
+    /**
+     * Passes getDvdsByDirector on to the wrapped DAO.
+     *
+     * @param directorsName name of film director
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsByDirector(String directorsName) throws DvdLibraryDaoException {
+        return dao.getDvdsByDirector(directorsName);
+    }
+
+    /**
+     * Passes getDvdsByStudio on to the wrapped DAO.
+     *
+     * @param studio studio that released film
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsByStudio(String studio) throws DvdLibraryDaoException {
+        return dao.getDvdsByStudio(studio);
+    }
+
+    /**
+     * Passes getDvdsByMPAA on to the wrapped DAO.
+     *
+     * @param mpaa MPAA rating
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsByMPAA(String mpaa) throws DvdLibraryDaoException {
+        return dao.getDvdsByMPAA(mpaa);
+    }
+
+    /**
+     * Passes getDvdsByReleaseYear on to the wrapped DAO.
+     *
+     * @param releaseYear four digit release year
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsByReleaseYear(int releaseYear) throws DvdLibraryDaoException {
+        return dao.getDvdsByReleaseYear(releaseYear);
+    }
+
+    /**
+     * Passes searchDvds on to the wrapped DAO.
+     *
+     * @param text all or the start of a title, possibly mistyped
+     * @param limit maximum number of DVDs to return
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> searchDvds(String text, int limit) throws DvdLibraryDaoException {
+        return dao.searchDvds(text, limit);
+    }
+
+    /**
+     * Empties the cache and passes close on to the wrapped DAO.
+     *
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public void close() throws DvdLibraryDaoException {
+        cache.clear();
+        dao.close();
+    }
+
+    /**
+     * Returns the number of titles cached, counting missing titles.
+     *
+     * @return number of cache entries
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the number of getDvd calls answered from the cache.
+     *
+     * @return hits so far
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of getDvd calls passed on to the wrapped DAO.
+     *
+     * @return misses so far
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of titles dropped to keep the cache within
+     * its size.
+     *
+     * @return evictions so far
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,688 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The {@code DvdLibraryDaoConcurrentImpl} class implements the
+ * DvdLibraryDao interface for many callers sharing one library.
+ * <p>
+ * The library is loaded once into a ConcurrentHashMap. Reads go
+ * straight to the map without locking. An edit builds a new Dvd
+ * object inside ConcurrentHashMap.compute, so each title is updated
+ * atomically and readers only ever see a whole record, never one
+ * whose fields are part way through changing.
+ * The secondary indexes used by findDvds are updated inside the same
+ * compute calls, so they never miss a change to a title.
+ * <p>
+ * Batches hold a lock that single-title changes share, so no other
+ * change is interleaved with a batch, and a batch of edits is checked
+ * before any of it is applied. Reads never take the lock, so while a
+ * batch is being applied a reader can see some of its titles changed
+ * and others not yet; each DVD it reads is still whole.
+ * <p>
+ * Saving is done by a single writer thread. Changes only mark the
+ * library dirty; the writer then writes a snapshot of the map, so
+ * any number of changes made while a save is running are covered by
+ * the next one. The writer shares the batch lock while it writes, so
+ * a snapshot holds all of a batch or none of it. Call flush or close
+ * to wait until every change is on disk.
+ */
+
+public class DvdLibraryDaoConcurrentImpl implements DvdLibraryDao {
+
+    // Library file in the "::" format
+    private final Path libraryFile;
+    // Map to store and retrieve the Dvd; Key is the Dvd title
+    private final ConcurrentHashMap<String, Dvd> dvds = new ConcurrentHashMap<>();
+    // Secondary indexes over the values of dvds, only changed inside
+    // the map's compute calls so each title is re-indexed atomically
+    private final DvdIndex index = new DvdIndex();
+    // Prefix and typo-tolerant search over the keys of dvds
+    private final DvdTitleIndex titleIndex = new DvdTitleIndex();
+    // Shared by single-title changes and the writer, held exclusively
+    // by batches so a batch is never interleaved with other changes
+    // nor saved half applied
+    private final ReentrantReadWriteLock batchLock = new ReentrantReadWriteLock();
+    // Whether the library file has been loaded
+    private volatile boolean loaded = false;
+    // Single thread that writes the library file
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "dvd-library-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    // Set when the map has changed since the writer last took a snapshot
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    // Set while a save is queued but has not taken its snapshot yet
+    private final AtomicBoolean saveQueued = new AtomicBoolean(false);
+    // Most recently queued save
+    private volatile Future<?> lastSave;
+    // Failure of the last background save, reported by flush
+    private volatile IOException saveFailure;
+    // Loads and saves of the library file are timed in here
+    private final DvdLibraryMetrics metrics = DvdLibraryMetrics.shared();
+
+    /**
+     * No arg constructor, uses "dvdTest.txt".
+     */
+    public DvdLibraryDaoConcurrentImpl() {
+        this("dvdTest.txt");
+    }
+
+    /**
+     * Constructor accepts String parameter
+     *
+     * @param libraryTextFile name of file with DVD info
+     */
+    public DvdLibraryDaoConcurrentImpl(String libraryTextFile) {
+        this.libraryFile = Paths.get(libraryTextFile);
+    }
+
+    /**
+     * Adds a new Dvd object and queues a save
+     *
+     * @param title with which DVD is to be associated
+     * @param dvd DVD to be added to the library
+     * @return Dvd object previously stored under the title, or null
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
+        load();
+        Dvd previousDvd;
+        batchLock.readLock().lock();
+        try {
+            previousDvd = store(title, dvd);
+        } finally {
+            batchLock.readLock().unlock();
+        }
+        changed();
+        return previousDvd;
+    }
+
+    /**
+     * Gets all Dvd objects without locking
+     *
+     * @return ArrayList of values from the map
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+        load();
+        return new ArrayList<>(dvds.values());
+    }
+
+    /**
+     * Counts the Dvd objects without locking.
+     *
+     * @return number of DVDs in the library
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public int countDvds() throws DvdLibraryDaoException {
+        load();
+        return dvds.size();
+    }
+
+    /**
+     * Gets one page of Dvd objects in title order from the sorted
+     * title index, without locking.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs on the page
+     * @return Dvd objects on the page
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public List<Dvd> getDvdPage(int offset, int limit) throws DvdLibraryDaoException {
+        load();
+        return lookup(titleIndex.page(offset, limit));
+    }
+
+    /**
+     * Retrieves Dvd object associated with specified title without locking
+     *
+     * @param title title of the DVD to retrieve
+     * @return Dvd object associated with title, or null
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public Dvd getDvd(String title) throws DvdLibraryDaoException {
+        load();
+        return dvds.get(title);
+    }
+
+    /**
+     * Gets the Dvd objects that come straight after a title in title
+     * order by seeking in the sorted title index, without locking.
+     *
+     * @param title title to start after, or null to start at the first
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public List<Dvd> getDvdsAfter(String title, int limit) throws DvdLibraryDaoException {
+        load();
+        return lookup(titleIndex.after(title, limit));
+    }
+
+    /**
+     * Gets the Dvd objects that come straight before a title in title
+     * order by seeking in the sorted title index, without locking.
+     *
+     * @param title title to end before, or null to end at the last
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public List<Dvd> getDvdsBefore(String title, int limit) throws DvdLibraryDaoException {
+        load();
+        return lookup(titleIndex.before(title, limit));
+    }
+
+    /**
+     * Gets the Dvd objects in a title range from the sorted title
+     * index, without locking.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public List<Dvd> getDvdsBetween(String fromTitle, String toTitle, int limit) throws DvdLibraryDaoException {
+        load();
+        return lookup(titleIndex.between(fromTitle, toTitle, limit));
+    }
+
+    /**
+     * Searches titles by prefix and with typo tolerance through the
+     * title index. Titles removed while the search runs are left out.
+     *
+     * @param text all or the start of a title, possibly mistyped
+     * @param limit maximum number of DVDs to return
+     * @return matching Dvd objects, best match first
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public List<Dvd> searchDvds(String text, int limit) throws DvdLibraryDaoException {
+        load();
+        return lookup(titleIndex.search(text, limit));
+    }
+
+    /**
+     * Finds the Dvd objects matching a query through the secondary
+     * indexes, without locking
+     *
+     * @param query criteria to match
+     * @return matching Dvd objects
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public List<Dvd> findDvds(DvdQuery query) throws DvdLibraryDaoException {
+        load();
+        return index.find(query, dvds);
+    }
+
+    /**
+     * Removes Dvd object associated with specified title and queues a save
+     *
+     * @param title title of DVD to be removed
+     * @return removed Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public Dvd removeDvd(String title) throws DvdLibraryDaoException {
+        load();
+        Dvd removedDvd;
+        batchLock.readLock().lock();
+        try {
+            removedDvd = discard(title);
+        } finally {
+            batchLock.readLock().unlock();
+        }
+        if (removedDvd != null) {
+            changed();
+        }
+        return removedDvd;
+    }
+
+    /**
+     * Adds every given Dvd object as one batch and queues one save.
+     * Other writers wait for the batch; readers do not.
+     *
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public void addAll(Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        load();
+        batchLock.writeLock().lock();
+        try {
+            for (Dvd dvd : newDvds) {
+                store(dvd.getTitle(), dvd);
+            }
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+        changed();
+    }
+
+    /**
+     * Removes the Dvd objects with the given titles as one batch and
+     * queues one save.
+     *
+     * @param titles titles of DVDs to be removed
+     * @return removed Dvd objects
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public List<Dvd> removeAll(Collection<String> titles) throws DvdLibraryDaoException {
+        load();
+        List<Dvd> removedDvds = new ArrayList<>();
+        batchLock.writeLock().lock();
+        try {
+            for (String title : titles) {
+                Dvd removedDvd = discard(title);
+                if (removedDvd != null) {
+                    removedDvds.add(removedDvd);
+                }
+            }
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+        if (!removedDvds.isEmpty()) {
+            changed();
+        }
+        return removedDvds;
+    }
+
+    /**
+     * Applies a list of field edits as one batch and queues one save.
+     * Every title is checked while other writers are held off, so
+     * either all edits are applied or none is. The edits to each title
+     * are combined before it is stored, so readers see each DVD either
+     * before the batch or with all of its edits, never part way.
+     *
+     * @param edits field edits to apply
+     * @return new Dvd objects, one per edit
+     * @throws DvdLibraryDaoException if a title is missing
+     */
+    @Override
+    public List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        load();
+        List<Dvd> editedDvds = new ArrayList<>();
+        batchLock.writeLock().lock();
+        try {
+            for (DvdEdit edit : edits) {
+                Dvd currentDvd = dvds.get(edit.getTitle());
+                if (currentDvd == null) {
+                    throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+                }
+                DvdLibraryConflictException.check(edit, currentDvd);
+            }
+            Map<String, Dvd> edited = new LinkedHashMap<>(); // Latest copy of each edited title
+            for (DvdEdit edit : edits) {
+                Dvd copy = edit.getField().apply(
+                        edited.getOrDefault(edit.getTitle(), dvds.get(edit.getTitle())), edit.getValue());
+                edited.put(edit.getTitle(), copy);
+                editedDvds.add(copy);
+            }
+            for (Map.Entry<String, Dvd> entry : edited.entrySet()) {
+                store(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+        changed();
+        return editedDvds;
+    }
+
+    /**
+     * Applies field edits, removals and additions as one batch and
+     * queues one save. Every title to edit is checked while other
+     * writers are held off, so either the whole batch is applied or
+     * none of it is.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if a title to edit is missing or
+     * a version does not match
+     */
+    @Override
+    public void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles, Collection<Dvd> newDvds)
+            throws DvdLibraryDaoException {
+        load();
+        boolean changed = false;
+        batchLock.writeLock().lock();
+        try {
+            Map<String, Dvd> edited = new LinkedHashMap<>(); // Latest copy of each edited title
+            for (DvdEdit edit : edits) {
+                Dvd currentDvd = dvds.get(edit.getTitle());
+                if (currentDvd == null) {
+                    throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+                }
+                DvdLibraryConflictException.check(edit, currentDvd);
+                edited.put(edit.getTitle(),
+                        edit.getField().apply(edited.getOrDefault(edit.getTitle(), currentDvd), edit.getValue()));
+            }
+            for (Map.Entry<String, Dvd> entry : edited.entrySet()) {
+                store(entry.getKey(), entry.getValue());
+                changed = true;
+            }
+            for (String title : removedTitles) {
+                changed |= discard(title) != null;
+            }
+            for (Dvd dvd : newDvds) {
+                store(dvd.getTitle(), dvd);
+                changed = true;
+            }
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+        if (changed) {
+            changed();
+        }
+    }
+
+    /**
+     * Edits the release date of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newReleaseDate release date for Dvd
+     * @return new Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
+        return edit(title, DvdField.RELEASE_DATE, newReleaseDate);
+    }
+
+    /**
+     * Edits the MPAA rating of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newMpaaRating rating of DVD
+     * @return new Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
+        return edit(title, DvdField.MPAA, newMpaaRating);
+    }
+
+    /**
+     * Edits the director name of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newDirectorName name of film director
+     * @return new Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
+        return edit(title, DvdField.DIRECTOR_NAME, newDirectorName);
+    }
+
+    /**
+     * Edits the user rating of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newUserRating user rating of DVD
+     * @return new Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
+        return edit(title, DvdField.USER_RATING, newUserRating);
+    }
+
+    /**
+     * Edits the studio name of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newStudioName studio that released film
+     * @return new Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
+        return edit(title, DvdField.STUDIO, newStudioName);
+    }
+
+    /**
+     * Waits until every change made before this call is on disk.
+     *
+     * @throws DvdLibraryDaoException if a save failed
+     */
+    public void flush() throws DvdLibraryDaoException {
+        // Queue a save behind any running one so it sees every change
+        if (dirty.get()) {
+            queueSave();
+        }
+        Future<?> save = lastSave;
+        if (save != null) {
+            try {
+                save.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DvdLibraryDaoException("Interrupted while saving dvd data.", e);
+            } catch (ExecutionException e) {
+                throw new DvdLibraryDaoException("Could not save dvd data.", e.getCause());
+            }
+        }
+        IOException failure = saveFailure;
+        if (failure != null) {
+            throw new DvdLibraryDaoException("Could not save dvd data.", failure);
+        }
+    }
+
+    /**
+     * Writes any outstanding changes and stops the writer thread.
+     *
+     * @throws DvdLibraryDaoException if the final save failed
+     */
+    @Override
+    public void close() throws DvdLibraryDaoException {
+        try {
+            flush();
+        } finally {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Replaces a title's Dvd object with an edited copy, atomically
+     * with respect to other changes to the same title.
+     *
+     * @param title title of DVD to be edited
+     * @param field field to edit
+     * @param value new value for the field
+     * @return new Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    private Dvd edit(String title, DvdField field, String value) throws DvdLibraryDaoException {
+        load();
+        Dvd editedDvd;
+        batchLock.readLock().lock();
+        try {
+            editedDvd = dvds.computeIfPresent(title, (key, current) -> {
+                Dvd copy = field.apply(current, value);
+                index.remove(key, current);
+                index.add(key, copy);
+                return copy;
+            });
+        } finally {
+            batchLock.readLock().unlock();
+        }
+        if (editedDvd != null) {
+            changed();
+        }
+        return editedDvd;
+    }
+
+    /**
+     * Stores a Dvd object under a title and re-indexes the title,
+     * atomically with respect to other changes to the same title.
+     *
+     * @param title with which DVD is to be associated
+     * @param dvd DVD to be stored
+     * @return Dvd object previously stored under the title, or null
+     */
+    private Dvd store(String title, Dvd dvd) {
+        Dvd[] previousDvd = new Dvd[1];
+        dvds.compute(title, (key, current) -> {
+            if (current == null) {
+                titleIndex.add(key);
+            }
+            index.remove(key, current);
+            index.add(key, dvd);
+            previousDvd[0] = current;
+            return dvd;
+        });
+        return previousDvd[0];
+    }
+
+    /**
+     * Removes a title and its index entries, atomically with respect
+     * to other changes to the same title.
+     *
+     * @param title title of DVD to be removed
+     * @return removed Dvd object, or null if no DVD has that title
+     */
+    private Dvd discard(String title) {
+        Dvd[] removedDvd = new Dvd[1];
+        dvds.computeIfPresent(title, (key, current) -> {
+            index.remove(key, current);
+            titleIndex.remove(key);
+            removedDvd[0] = current;
+            return null;
+        });
+        return removedDvd[0];
+    }
+
+    /**
+     * Looks up titles read from the title index, leaving out any
+     * removed since the index was read.
+     *
+     * @param titles titles to look up
+     * @return Dvd objects for the titles still in the library
+     */
+    private List<Dvd> lookup(List<String> titles) {
+        List<Dvd> found = new ArrayList<>(titles.size());
+        for (String title : titles) {
+            Dvd dvd = dvds.get(title);
+            if (dvd != null) {
+                found.add(dvd);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Loads the library file the first time any caller needs it. The
+     * load is timed in the shared DvdLibraryMetrics.
+     *
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    private void load() throws DvdLibraryDaoException {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            long start = System.nanoTime();
+            boolean failed = true;
+            long size = 0;
+            long parsed = 0;
+            try {
+                size = Files.size(libraryFile);
+                parsed = DvdTextFormat.readLibrary(libraryFile,
+                        currentDvd -> store(currentDvd.getTitle(), currentDvd));
+                failed = false;
+            } catch (IOException e) {
+                throw new DvdLibraryDaoException("*** Could not load DVD data into memory.", e);
+            } finally {
+                metrics.recordRead("loadDvdFile", System.nanoTime() - start, failed, size, parsed);
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Marks the library dirty and makes sure a save is queued.
+     */
+    private void changed() {
+        dirty.set(true);
+        if (saveQueued.compareAndSet(false, true)) {
+            queueSave();
+        }
+    }
+
+    private void queueSave() {
+        saveQueued.set(true);
+        lastSave = writer.submit(this::save);
+    }
+
+    /**
+     * Runs on the writer thread. Changes made after the dirty flag is
+     * cleared queue another save, so none are lost. Holds the batch
+     * lock shared, so no batch is applied while the snapshot is taken.
+     * Each save is timed in the shared DvdLibraryMetrics.
+     */
+    private void save() {
+        saveQueued.set(false);
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        long size = 0;
+        long written = 0;
+        batchLock.readLock().lock(); // Wait for any batch to finish
+        try {
+            written = dvds.size();
+            DvdTextFormat.writeLibrary(libraryFile, dvds.values());
+            size = Files.size(libraryFile);
+            saveFailure = null;
+            failed = false;
+        } catch (IOException e) {
+            saveFailure = e;
+            dirty.set(true);
+        } finally {
+            batchLock.readLock().unlock();
+            metrics.recordWrite("writeDvdFile", System.nanoTime() - start, failed, size, written);
+        }
+    }
+}
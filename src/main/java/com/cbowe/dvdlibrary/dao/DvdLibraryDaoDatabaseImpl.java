@@ -0,0 +1,823 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.*;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+/**
+ * The {@code DvdLibraryDaoDatabaseImpl} class implements the
+ * DvdLibraryDao interface on top of an embedded H2 database kept in a
+ * local file, so no server is needed.
+ * <p>
+ * Each DVD is one row keyed by title. Next to the fields the row
+ * holds their DvdQuery keys and the release year, which carry the
+ * secondary indexes, and an index on (title key, title) serves
+ * listing in TITLE_ORDER, paging and title ranges. A change writes
+ * only the rows it touches, and each call or batch runs in one
+ * transaction, so a batch is stored completely or not at all.
+ * <p>
+ * Connections come from a pool, so reads run in parallel. Changes are
+ * made one at a time, which keeps the in-memory title index used by
+ * searchDvds in step with the table. The first time the database is
+ * opened, the "::" library text file is imported into it in a single
+ * transaction; after that the text file is no longer read.
+ */
+
+public class DvdLibraryDaoDatabaseImpl implements DvdLibraryDao {
+
+    // Name under which the migration is recorded in dvd_library_info
+    private static final String MIGRATED_FROM = "migrated from";
+    // Rows sent to the database per JDBC batch when importing
+    private static final int IMPORT_BATCH_SIZE = 1000;
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS dvd ("
+                + "title VARCHAR NOT NULL PRIMARY KEY, title_key VARCHAR NOT NULL, "
+                + "release_date VARCHAR, mpaa VARCHAR, directors_name VARCHAR, "
+                + "studio VARCHAR, user_rating VARCHAR, version BIGINT DEFAULT 0 NOT NULL, "
+                + "mpaa_key VARCHAR, director_key VARCHAR, studio_key VARCHAR, "
+                + "release_year INT NOT NULL)",
+        // Databases created before version stamps were kept
+        "ALTER TABLE dvd ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL",
+        "CREATE INDEX IF NOT EXISTS dvd_title_order ON dvd(title_key, title)",
+        "CREATE INDEX IF NOT EXISTS dvd_director ON dvd(director_key)",
+        "CREATE INDEX IF NOT EXISTS dvd_studio ON dvd(studio_key)",
+        "CREATE INDEX IF NOT EXISTS dvd_mpaa ON dvd(mpaa_key)",
+        "CREATE INDEX IF NOT EXISTS dvd_release_year ON dvd(release_year)",
+        "CREATE TABLE IF NOT EXISTS dvd_library_info (name VARCHAR PRIMARY KEY, info VARCHAR)"
+    };
+
+    private static final String COLUMNS =
+            "title, release_date, mpaa, directors_name, studio, user_rating, version";
+    private static final String SELECT = "SELECT " + COLUMNS + " FROM dvd";
+    private static final String SELECT_BY_TITLE = SELECT + " WHERE title = ?";
+    private static final String TITLE_ORDER_BY = " ORDER BY title_key, title";
+    private static final String MERGE = "MERGE INTO dvd ("
+            + COLUMNS + ", title_key, mpaa_key, director_key, studio_key, release_year) "
+            + "KEY (title) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE = "DELETE FROM dvd WHERE title = ?";
+
+    // JDBC URL of the database file
+    private final String url;
+    // Library text file imported the first time the database is opened
+    private final Path migrateFrom;
+    // Most connections the pool hands out at once
+    private final int maxConnections;
+    // The import of the library text file is timed in here
+    private final DvdLibraryMetrics metrics = DvdLibraryMetrics.shared();
+
+    // Pool of connections to the database; null until opened
+    private volatile JdbcConnectionPool pool;
+    // Titles for searchDvds; null until the first search
+    private volatile DvdTitleIndex titleIndex;
+
+    /**
+     * No arg constructor, uses the database "dvdLibrary.mv.db",
+     * imports "dvdTest.txt" the first time and pools 8 connections.
+     */
+    public DvdLibraryDaoDatabaseImpl() {
+        this("dvdLibrary", "dvdTest.txt", 8);
+    }
+
+    /**
+     * Constructor accepts the database file and the text file to
+     * import.
+     *
+     * @param databaseFile name of the database file, with or without
+     *                     the ".mv.db" suffix H2 gives it
+     * @param libraryTextFile name of the "::" file to import the first
+     *                        time the database is opened, or null to
+     *                        start with an empty library
+     * @param maxConnections most connections open at once
+     */
+    public DvdLibraryDaoDatabaseImpl(String databaseFile, String libraryTextFile, int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Connection pool needs at least one connection");
+        }
+        String path = Paths.get(databaseFile).toAbsolutePath().toString();
+        if (path.endsWith(".mv.db")) {
+            path = path.substring(0, path.length() - ".mv.db".length());
+        }
+        this.url = "jdbc:h2:file:" + path;
+        this.migrateFrom = libraryTextFile == null ? null : Paths.get(libraryTextFile);
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Adds a new Dvd object, or replaces the one stored under its title
+     *
+     * @param title with which DVD is to be associated
+     * @param dvd DVD to be added to the library
+     * @return Dvd object previously stored under the title, or null
+     * @throws DvdLibraryDaoException if the row could not be written
+     */
+    @Override
+    public synchronized Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
+        Dvd previousDvd = write(connection -> {
+            Dvd previous = selectByTitle(connection, title);
+            try (PreparedStatement merge = connection.prepareStatement(MERGE)) {
+                bind(merge, title, dvd);
+                merge.executeUpdate();
+            }
+            return previous;
+        });
+        indexAdded(title);
+        return previousDvd;
+    }
+
+    /**
+     * Gets all Dvd objects
+     *
+     * @return ArrayList of every row
+     * @throws DvdLibraryDaoException if the table could not be read
+     */
+    @Override
+    public List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+        return read(connection -> query(connection, SELECT));
+    }
+
+    /**
+     * Counts the Dvd objects.
+     *
+     * @return number of rows
+     * @throws DvdLibraryDaoException if the table could not be read
+     */
+    @Override
+    public int countDvds() throws DvdLibraryDaoException {
+        return read(connection -> {
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM dvd")) {
+                rows.next();
+                return rows.getInt(1);
+            }
+        });
+    }
+
+    /**
+     * Gets one page of Dvd objects in title order through the title
+     * order index.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs on the page
+     * @return Dvd objects on the page
+     * @throws DvdLibraryDaoException if the table could not be read
+     */
+    @Override
+    public List<Dvd> getDvdPage(int offset, int limit) throws DvdLibraryDaoException {
+        return read(connection -> query(connection, SELECT + TITLE_ORDER_BY + " LIMIT ? OFFSET ?", limit, offset));
+    }
+
+    /**
+     * Retrieves Dvd object associated with specified title
+     *
+     * @param title title of the DVD to retrieve
+     * @return Dvd object associated with title, or null
+     * @throws DvdLibraryDaoException if the table could not be read
+     */
+    @Override
+    public Dvd getDvd(String title) throws DvdLibraryDaoException {
+        return read(connection -> selectByTitle(connection, title));
+    }
+
+    /**
+     * Gets the Dvd objects that come straight after a title in title
+     * order by seeking in the title order index.
+     *
+     * @param title title to start after, or null to start at the first
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the table could not be read
+     */
+    @Override
+    public List<Dvd> getDvdsAfter(String title, int limit) throws DvdLibraryDaoException {
+        if (title == null) {
+            return getDvdPage(0, limit);
+        }
+        String key = DvdQuery.key(title);
+        return read(connection -> query(connection, SELECT
+                + " WHERE title_key > ? OR (title_key = ? AND title > ?)" + TITLE_ORDER_BY + " LIMIT ?",
+                key, key, title, limit));
+    }
+
+    /**
+     * Gets the Dvd objects that come straight before a title in title
+     * order by seeking backwards in the title order index.
+     *
+     * @param title title to end before, or null to end at the last
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the table could not be read
+     */
+    @Override
+    public List<Dvd> getDvdsBefore(String title, int limit) throws DvdLibraryDaoException {
+        String key = DvdQuery.key(title);
+        List<Dvd> earlier = read(connection -> title == null
+                ? query(connection, SELECT + " ORDER BY title_key DESC, title DESC LIMIT ?", limit)
+                : query(connection, SELECT + " WHERE title_key < ? OR (title_key = ? AND title < ?)"
+                        + " ORDER BY title_key DESC, title DESC LIMIT ?", key, key, title, limit));
+        Collections.reverse(earlier);
+        return earlier;
+    }
+
+    /**
+     * Gets the Dvd objects in a title range through the title order
+     * index.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the table could not be read
+     */
+    @Override
+    public List<Dvd> getDvdsBetween(String fromTitle, String toTitle, int limit) throws DvdLibraryDaoException {
+        StringBuilder sql = new StringBuilder(SELECT).append(" WHERE TRUE");
+        List<Object> parameters = new ArrayList<>();
+        if (fromTitle != null) {
+            sql.append(" AND title_key >= ?");
+            parameters.add(DvdQuery.key(fromTitle));
+        }
+        if (toTitle != null) {
+            sql.append(" AND title_key < ?");
+            parameters.add(DvdQuery.key(toTitle));
+        }
+        sql.append(TITLE_ORDER_BY).append(" LIMIT ?");
+        parameters.add(limit);
+        return read(connection -> query(connection, sql.toString(), parameters.toArray()));
+    }
+
+    /**
+     * Searches titles by prefix and with typo tolerance through the
+     * title index, then reads the matching rows.
+     *
+     * @param text all or the start of a title, possibly mistyped
+     * @param limit maximum number of DVDs to return
+     * @return matching Dvd objects, best match first
+     * @throws DvdLibraryDaoException if the table could not be read
+     */
+    @Override
+    public List<Dvd> searchDvds(String text, int limit) throws DvdLibraryDaoException {
+        List<String> titles = titleIndex().search(text, limit);
+        return read(connection -> {
+            List<Dvd> matches = new ArrayList<>();
+            for (String title : titles) {
+                Dvd match = selectByTitle(connection, title);
+                if (match != null) {
+                    matches.add(match);
+                }
+            }
+            return matches;
+        });
+    }
+
+    /**
+     * Finds the Dvd objects matching a query through the secondary
+     * indexes on director, studio, MPAA rating and release year
+     *
+     * @param query criteria to match
+     * @return matching Dvd objects
+     * @throws DvdLibraryDaoException if the table could not be read
+     */
+    @Override
+    public List<Dvd> findDvds(DvdQuery query) throws DvdLibraryDaoException {
+        StringBuilder sql = new StringBuilder(SELECT).append(" WHERE TRUE");
+        List<Object> parameters = new ArrayList<>();
+        if (query.getDirectorsName() != null) {
+            sql.append(" AND director_key = ?");
+            parameters.add(DvdQuery.key(query.getDirectorsName()));
+        }
+        if (query.getStudio() != null) {
+            sql.append(" AND studio_key = ?");
+            parameters.add(DvdQuery.key(query.getStudio()));
+        }
+        if (query.getMPAA() != null) {
+            sql.append(" AND mpaa_key = ?");
+            parameters.add(DvdQuery.key(query.getMPAA()));
+        }
+        if (query.getReleaseYear() != null) {
+            sql.append(" AND release_year = ?");
+            parameters.add(query.getReleaseYear());
+        }
+        return read(connection -> query(connection, sql.toString(), parameters.toArray()));
+    }
+
+    /**
+     * Removes Dvd object associated with specified title
+     *
+     * @param title title of DVD to be removed
+     * @return removed Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the row could not be deleted
+     */
+    @Override
+    public synchronized Dvd removeDvd(String title) throws DvdLibraryDaoException {
+        Dvd removedDvd = write(connection -> {
+            Dvd removed = selectByTitle(connection, title);
+            if (removed != null) {
+                delete(connection, List.of(title));
+            }
+            return removed;
+        });
+        if (removedDvd != null) {
+            indexRemoved(title);
+        }
+        return removedDvd;
+    }
+
+    /**
+     * Edits the release date of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newReleaseDate release date for Dvd
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the row could not be written
+     */
+    @Override
+    public synchronized Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
+        return edit(title, DvdField.RELEASE_DATE, newReleaseDate);
+    }
+
+    /**
+     * Edits the MPAA rating of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newMpaaRating rating of DVD
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the row could not be written
+     */
+    @Override
+    public synchronized Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
+        return edit(title, DvdField.MPAA, newMpaaRating);
+    }
+
+    /**
+     * Edits the director name of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newDirectorName name of film director
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the row could not be written
+     */
+    @Override
+    public synchronized Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
+        return edit(title, DvdField.DIRECTOR_NAME, newDirectorName);
+    }
+
+    /**
+     * Edits the user rating of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newUserRating user rating of DVD
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the row could not be written
+     */
+    @Override
+    public synchronized Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
+        return edit(title, DvdField.USER_RATING, newUserRating);
+    }
+
+    /**
+     * Edits the studio name of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newStudioName studio that released film
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the row could not be written
+     */
+    @Override
+    public synchronized Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
+        return edit(title, DvdField.STUDIO, newStudioName);
+    }
+
+    /**
+     * Adds every given Dvd object in one transaction
+     *
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if the rows could not be written
+     */
+    @Override
+    public synchronized void addAll(Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        write(connection -> {
+            merge(connection, newDvds);
+            return null;
+        });
+        for (Dvd dvd : newDvds) {
+            indexAdded(dvd.getTitle());
+        }
+    }
+
+    /**
+     * Removes the Dvd objects with the given titles in one transaction
+     *
+     * @param titles titles of DVDs to be removed
+     * @return removed Dvd objects
+     * @throws DvdLibraryDaoException if the rows could not be deleted
+     */
+    @Override
+    public synchronized List<Dvd> removeAll(Collection<String> titles) throws DvdLibraryDaoException {
+        List<Dvd> removedDvds = write(connection -> {
+            Map<String, Dvd> removed = new LinkedHashMap<>();
+            for (String title : titles) {
+                Dvd dvd = removed.containsKey(title) ? null : selectByTitle(connection, title);
+                if (dvd != null) {
+                    removed.put(title, dvd);
+                }
+            }
+            delete(connection, removed.keySet());
+            return new ArrayList<>(removed.values());
+        });
+        for (Dvd dvd : removedDvds) {
+            indexRemoved(dvd.getTitle());
+        }
+        return removedDvds;
+    }
+
+    /**
+     * Applies a list of field edits in one transaction. Nothing
+     * changes if any title is missing or any DVD has changed since
+     * the version an edit expects.
+     *
+     * @param edits field edits to apply
+     * @return edited Dvd objects, one per edit
+     * @throws DvdLibraryDaoException if a title is missing, a version
+     * does not match or the rows could not be written
+     */
+    @Override
+    public synchronized List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        Map<String, Dvd> stored = new HashMap<>();
+        Map<String, Dvd> current = new HashMap<>();
+        List<Dvd> editedDvds = new ArrayList<>();
+        DvdLibraryDaoException refused = write(connection -> {
+            for (DvdEdit edit : edits) {
+                String title = edit.getTitle();
+                if (!stored.containsKey(title)) {
+                    stored.put(title, selectByTitle(connection, title));
+                }
+                Dvd storedDvd = stored.get(title);
+                if (storedDvd == null) {
+                    return new DvdLibraryDaoException("No such DVD: " + title); // Nothing has been written yet
+                }
+                if (!edit.isExpected(storedDvd)) {
+                    return new DvdLibraryConflictException(title, edit.getExpectedVersion(), storedDvd.getVersion());
+                }
+                current.put(title, edit.getField().apply(current.getOrDefault(title, storedDvd), edit.getValue()));
+                editedDvds.add(current.get(title));
+            }
+            merge(connection, current.values());
+            return null;
+        });
+        if (refused != null) {
+            throw refused;
+        }
+        return editedDvds;
+    }
+
+    /**
+     * Applies field edits, removals and additions in one transaction.
+     * Nothing changes if any title to edit is missing or any DVD has
+     * changed since the version an edit expects.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if a title to edit is missing, a
+     * version does not match or the rows could not be written
+     */
+    @Override
+    public synchronized void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles,
+                                          Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        Map<String, Dvd> stored = new HashMap<>();
+        Map<String, Dvd> current = new HashMap<>();
+        Set<String> removed = new LinkedHashSet<>();
+        DvdLibraryDaoException refused = write(connection -> {
+            for (DvdEdit edit : edits) {
+                String title = edit.getTitle();
+                if (!stored.containsKey(title)) {
+                    stored.put(title, selectByTitle(connection, title));
+                }
+                Dvd storedDvd = stored.get(title);
+                if (storedDvd == null) {
+                    return new DvdLibraryDaoException("No such DVD: " + title); // Nothing has been written yet
+                }
+                if (!edit.isExpected(storedDvd)) {
+                    return new DvdLibraryConflictException(title, edit.getExpectedVersion(), storedDvd.getVersion());
+                }
+                current.put(title, edit.getField().apply(current.getOrDefault(title, storedDvd), edit.getValue()));
+            }
+            merge(connection, current.values());
+            for (String title : removedTitles) {
+                if (!removed.contains(title) && selectByTitle(connection, title) != null) {
+                    removed.add(title);
+                }
+            }
+            if (!removed.isEmpty()) {
+                delete(connection, removed);
+            }
+            merge(connection, newDvds);
+            return null;
+        });
+        if (refused != null) {
+            throw refused;
+        }
+        for (String title : removed) {
+            indexRemoved(title);
+        }
+        for (Dvd dvd : newDvds) {
+            indexAdded(dvd.getTitle());
+        }
+    }
+
+    /**
+     * Closes every pooled connection, which also closes the database.
+     * A later call opens it again.
+     */
+    @Override
+    public synchronized void close() {
+        JdbcConnectionPool openPool = pool;
+        pool = null;
+        titleIndex = null;
+        if (openPool != null) {
+            openPool.dispose();
+        }
+    }
+
+    /**
+     * Work done on a connection, which may throw SQLException.
+     */
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Runs read-only work on a pooled connection.
+     *
+     * @throws DvdLibraryDaoException if the database could not be read
+     */
+    private <T> T read(SqlWork<T> work) throws DvdLibraryDaoException {
+        try (Connection connection = pool().getConnection()) {
+            return work.run(connection);
+        } catch (SQLException e) {
+            throw new DvdLibraryDaoException("*** Could not load DVD data from the database.", e);
+        }
+    }
+
+    /**
+     * Runs work on a pooled connection in one transaction, committing
+     * it if the work completes and rolling it back otherwise.
+     *
+     * @throws DvdLibraryDaoException if the work could not be committed
+     */
+    private <T> T write(SqlWork<T> work) throws DvdLibraryDaoException {
+        try (Connection connection = pool().getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new DvdLibraryDaoException("Could not save dvd data.", e);
+        }
+    }
+
+    /**
+     * Applies one field edit as a single row write.
+     */
+    private Dvd edit(String title, DvdField field, String value) throws DvdLibraryDaoException {
+        return write(connection -> {
+            Dvd currentDvd = selectByTitle(connection, title);
+            if (currentDvd == null) {
+                return null;
+            }
+            Dvd editedDvd = field.apply(currentDvd, value);
+            merge(connection, List.of(editedDvd));
+            return editedDvd;
+        });
+    }
+
+    /**
+     * Opens the pool on first use, creating the schema and importing
+     * the text file if the database is new.
+     *
+     * @throws SQLException if the database could not be opened
+     */
+    private JdbcConnectionPool pool() throws SQLException {
+        JdbcConnectionPool openPool = pool;
+        if (openPool != null) {
+            return openPool;
+        }
+        synchronized (this) {
+            if (pool == null) {
+                JdbcConnectionPool newPool = JdbcConnectionPool.create(url, "", "");
+                newPool.setMaxConnections(maxConnections);
+                try (Connection connection = newPool.getConnection()) {
+                    createSchema(connection);
+                    migrate(connection);
+                } catch (SQLException e) {
+                    newPool.dispose();
+                    throw e;
+                }
+                pool = newPool;
+            }
+            return pool;
+        }
+    }
+
+    private static void createSchema(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String ddl : SCHEMA) {
+                statement.execute(ddl);
+            }
+        }
+    }
+
+    /**
+     * Imports the library text file, unless an import has already
+     * been recorded. The rows and the record of the import are
+     * committed together, so an interrupted import is simply run again.
+     * Reading the file is timed in the shared DvdLibraryMetrics and
+     * the rows imported are counted as records written.
+     */
+    private void migrate(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement info = connection.prepareStatement(
+                "SELECT info FROM dvd_library_info WHERE name = ?")) {
+            info.setString(1, MIGRATED_FROM);
+            try (ResultSet rows = info.executeQuery()) {
+                if (rows.next()) {
+                    connection.rollback();
+                    return;
+                }
+            }
+
+            String source = "nothing";
+            if (migrateFrom != null && Files.exists(migrateFrom)) {
+                Map<String, Dvd> dvds = new LinkedHashMap<>(); // Last line for a title wins
+                long start = System.nanoTime();
+                boolean failed = true;
+                long size = 0;
+                long parsed = 0;
+                try {
+                    size = Files.size(migrateFrom);
+                    parsed = DvdTextFormat.readLibrary(migrateFrom,
+                            currentDvd -> dvds.put(currentDvd.getTitle(), currentDvd));
+                    failed = false;
+                } catch (IOException | DvdLibraryDaoException e) {
+                    throw new SQLException("Could not import " + migrateFrom, e);
+                } finally {
+                    metrics.recordRead("importDvdFile", System.nanoTime() - start, failed, size, parsed);
+                }
+                merge(connection, dvds.values());
+                metrics.add("records written", dvds.size());
+                source = migrateFrom.toAbsolutePath() + " (" + dvds.size() + " DVDs)";
+            }
+            try (PreparedStatement record = connection.prepareStatement(
+                    "INSERT INTO dvd_library_info (name, info) VALUES (?, ?)")) {
+                record.setString(1, MIGRATED_FROM);
+                record.setString(2, source);
+                record.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Returns the title index, building it from the table on first use.
+     */
+    private DvdTitleIndex titleIndex() throws DvdLibraryDaoException {
+        DvdTitleIndex index = titleIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            if (titleIndex == null) {
+                DvdTitleIndex newIndex = new DvdTitleIndex();
+                read(connection -> {
+                    try (Statement statement = connection.createStatement();
+                         ResultSet rows = statement.executeQuery("SELECT title FROM dvd")) {
+                        while (rows.next()) {
+                            newIndex.add(rows.getString(1));
+                        }
+                    }
+                    return null;
+                });
+                titleIndex = newIndex;
+            }
+            return titleIndex;
+        }
+    }
+
+    private void indexAdded(String title) {
+        DvdTitleIndex index = titleIndex;
+        if (index != null) {
+            index.add(title);
+        }
+    }
+
+    private void indexRemoved(String title) {
+        DvdTitleIndex index = titleIndex;
+        if (index != null) {
+            index.remove(title);
+        }
+    }
+
+    private static Dvd selectByTitle(Connection connection, String title) throws SQLException {
+        List<Dvd> dvds = query(connection, SELECT_BY_TITLE, title);
+        return dvds.isEmpty() ? null : dvds.get(0);
+    }
+
+    private static List<Dvd> query(Connection connection, String sql, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            List<Dvd> dvds = new ArrayList<>();
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    dvds.add(new Dvd(rows.getString(1), rows.getString(2), rows.getString(3),
+                            rows.getString(4), rows.getString(5), rows.getString(6), rows.getLong(7)));
+                }
+            }
+            return dvds;
+        }
+    }
+
+    /**
+     * Inserts or replaces the rows of the given DVDs in JDBC batches.
+     */
+    private static void merge(Connection connection, Collection<Dvd> dvds) throws SQLException {
+        try (PreparedStatement merge = connection.prepareStatement(MERGE)) {
+            int batched = 0;
+            for (Dvd dvd : dvds) {
+                bind(merge, dvd.getTitle(), dvd);
+                merge.addBatch();
+                if (++batched == IMPORT_BATCH_SIZE) {
+                    merge.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                merge.executeBatch();
+            }
+        }
+    }
+
+    private static void delete(Connection connection, Collection<String> titles) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(DELETE)) {
+            for (String title : titles) {
+                delete.setString(1, title);
+                delete.addBatch();
+            }
+            delete.executeBatch();
+        }
+    }
+
+    /**
+     * Sets the parameters of MERGE for one DVD stored under a title.
+     */
+    private static void bind(PreparedStatement merge, String title, Dvd dvd) throws SQLException {
+        merge.setString(1, title);
+        merge.setString(2, dvd.getReleaseDate());
+        merge.setString(3, dvd.getMPAA());
+        merge.setString(4, dvd.getDirectorsName());
+        merge.setString(5, dvd.getStudio());
+        merge.setString(6, dvd.getUserRating());
+        merge.setLong(7, dvd.getVersion());
+        merge.setString(8, DvdQuery.key(title));
+        setKey(merge, 9, dvd.getMPAA());
+        setKey(merge, 10, dvd.getDirectorsName());
+        setKey(merge, 11, dvd.getStudio());
+        merge.setInt(12, DvdQuery.releaseYearOf(dvd.getReleaseDate()));
+    }
+
+    private static void setKey(PreparedStatement statement, int index, String value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, DvdQuery.key(value));
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.cbowe.dvdlibrary.dao;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The {@code DvdLibraryDaoFactory} class picks the storage backend
+ * at startup, so a deployment can switch to a faster engine without
+ * recompiling.
+ * <p>
+ * Each backend is registered under a name together with the code
+ * that builds it from its options. Configuration comes from a
+ * properties file, "dvdLibrary.properties" by default, overridden by
+ * command-line flags of the form {@code --key=value}:
+ * <pre>
+ * backend=journal
+ * file=dvdTest.txt
+ * journal.syncEvery=16
+ * cacheSize=10000
+ * metrics=false
+ * </pre>
+ * An option prefixed with the backend name applies only to that
+ * backend and wins over the same option without a prefix. If
+ * cacheSize is above zero the DAO is wrapped in a
+ * DvdLibraryDaoCachedImpl holding that many titles, evicting by
+ * cachePolicy, lru or tinylfu (the default). Unless metrics is false
+ * the result is wrapped in a DvdLibraryDaoMeteredImpl.
+ * <p>
+ * Built-in backends and their options:
+ * <pre>
+ * file        file, writeBehind, flushIntervalMillis, flushThreshold
+ * journal     file, syncEvery, syncIntervalMillis, compactThreshold
+ * binary      file
+ * concurrent  file
+ * mapped      file
+ * offheap     file
+ * memory      file (seed library; empty if not given)
+ * database    database, file (imported on first open), maxConnections
+ * </pre>
+ * Further DvdLibraryDao implementations are added with
+ * {@link #register}.
+ */
+
+public final class DvdLibraryDaoFactory {
+
+    // Properties file read when no --config flag is given
+    public static final String DEFAULT_CONFIG_FILE = "dvdLibrary.properties";
+    // Backend used when none is configured
+    public static final String DEFAULT_BACKEND = "file";
+
+    // Option keys understood by the factory itself
+    public static final String BACKEND = "backend";
+    public static final String CONFIG = "config";
+    public static final String METRICS = "metrics";
+    public static final String CACHE_SIZE = "cacheSize";
+    public static final String CACHE_POLICY = "cachePolicy";
+
+    // Builders keyed by backend name, sorted so they are listed in a
+    // stable order in error messages
+    private static final Map<String, Backend> BACKENDS = new ConcurrentSkipListMap<>();
+
+    static {
+        register("file", options -> options.bool("writeBehind", false)
+                ? new DvdLibraryDaoFileImpl(options.string("file", "dvdTest.txt"),
+                        options.number("flushIntervalMillis", 1000), options.integer("flushThreshold", 100))
+                : new DvdLibraryDaoFileImpl(options.string("file", "dvdTest.txt")));
+        register("journal", options -> new DvdLibraryDaoJournalImpl(options.string("file", "dvdTest.txt"),
+                options.integer("syncEvery", 64), options.number("syncIntervalMillis", 1000),
+                options.integer("compactThreshold", 100_000)));
+        register("binary", options -> new DvdLibraryDaoBinaryImpl(options.string("file", "dvdLibrary.dvdb")));
+        register("concurrent", options -> new DvdLibraryDaoConcurrentImpl(options.string("file", "dvdTest.txt")));
+        register("mapped", options -> new DvdLibraryDaoMappedImpl(options.string("file", "dvdTest.txt")));
+        register("offheap", options -> new DvdLibraryDaoOffHeapImpl(options.string("file", "dvdTest.txt")));
+        register("memory", options -> new DvdLibraryDaoMemoryImpl(options.string("file", null)));
+        register("database", options -> new DvdLibraryDaoDatabaseImpl(options.string("database", "dvdLibrary"),
+                options.string("file", "dvdTest.txt"), options.integer("maxConnections", 8)));
+    }
+
+    private DvdLibraryDaoFactory() {
+    }
+
+    /**
+     * Builds a DvdLibraryDao from its options.
+     */
+    @FunctionalInterface
+    public interface Backend {
+        /**
+         * Creates the DAO. Constructors that reject their options with
+         * an IllegalArgumentException are reported as configuration
+         * errors.
+         *
+         * @param options options for this backend
+         * @return the new DAO
+         * @throws DvdLibraryDaoException if an option is invalid
+         */
+        DvdLibraryDao create(Options options) throws DvdLibraryDaoException;
+    }
+
+    /**
+     * Registers a backend under a name, replacing any backend already
+     * registered under it.
+     *
+     * @param name name used for the backend option
+     * @param backend builds the DAO from its options
+     */
+    public static void register(String name, Backend backend) {
+        BACKENDS.put(name, backend);
+    }
+
+    /**
+     * Returns the names of every registered backend.
+     *
+     * @return backend names in alphabetical order
+     */
+    public static Set<String> backendNames() {
+        return BACKENDS.keySet();
+    }
+
+    /**
+     * Reads the configuration from the properties file and the
+     * command-line flags, the flags winning. The file named by a
+     * --config flag must exist; the default file is optional.
+     *
+     * @param args command-line arguments, each of the form --key=value
+     * @return the combined configuration
+     * @throws DvdLibraryDaoException if a flag is malformed or the
+     * properties file could not be read
+     */
+    public static Properties loadConfig(String[] args) throws DvdLibraryDaoException {
+        Properties flags = new Properties();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 3) {
+                throw new DvdLibraryDaoException("Options must look like --key=value: " + arg);
+            }
+            flags.setProperty(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+
+        Properties config = new Properties();
+        Path configFile = Paths.get(flags.getProperty(CONFIG, DEFAULT_CONFIG_FILE));
+        if (flags.containsKey(CONFIG) || Files.exists(configFile)) {
+            try (Reader reader = Files.newBufferedReader(configFile, StandardCharsets.UTF_8)) {
+                config.load(reader);
+            } catch (IOException e) {
+                throw new DvdLibraryDaoException("Could not read configuration file " + configFile, e);
+            }
+        }
+        config.putAll(flags);
+        return config;
+    }
+
+    /**
+     * Creates the DAO named by the backend option, wrapped in a
+     * DvdLibraryDaoCachedImpl if cacheSize is above zero and in a
+     * DvdLibraryDaoMeteredImpl unless metrics is false.
+     *
+     * @param config configuration, as returned by loadConfig
+     * @return the configured DAO
+     * @throws DvdLibraryDaoException if the backend is unknown or an
+     * option is invalid
+     */
+    public static DvdLibraryDao create(Properties config) throws DvdLibraryDaoException {
+        String name = config.getProperty(BACKEND, DEFAULT_BACKEND).trim();
+        Backend backend = BACKENDS.get(name);
+        if (backend == null) {
+            throw new DvdLibraryDaoException("Unknown storage backend \"" + name
+                    + "\"; choose one of " + String.join(", ", backendNames()));
+        }
+
+        Options options = new Options(name, config);
+        DvdLibraryDao dao;
+        try {
+            dao = backend.create(options);
+        } catch (IllegalArgumentException e) {
+            throw new DvdLibraryDaoException("Invalid options for the " + name + " backend: " + e.getMessage(), e);
+        }
+        int cacheSize = options.integer(CACHE_SIZE, 0);
+        if (cacheSize > 0) {
+            try {
+                dao = new DvdLibraryDaoCachedImpl(dao, cacheSize, options.string(CACHE_POLICY, "tinylfu"),
+                        DvdLibraryMetrics.shared());
+            } catch (IllegalArgumentException e) {
+                dao.close();
+                throw new DvdLibraryDaoException("Invalid cache options: " + e.getMessage(), e);
+            }
+        }
+        return options.bool(METRICS, true) ? new DvdLibraryDaoMeteredImpl(dao) : dao;
+    }
+
+    /**
+     * The options of one backend. Each lookup tries the key prefixed
+     * with the backend name first, then the plain key.
+     */
+    public static final class Options {
+
+        private final String backend;
+        private final Properties config;
+
+        private Options(String backend, Properties config) {
+            this.backend = backend;
+            this.config = config;
+        }
+
+        /**
+         * Returns an option as text. An option set to nothing but
+         * spaces counts as not set.
+         *
+         * @param key option name
+         * @param defaultValue value if the option is not set
+         * @return the option, trimmed, or defaultValue
+         */
+        public String string(String key, String defaultValue) {
+            String value = config.getProperty(backend + "." + key, config.getProperty(key));
+            return value == null || value.isBlank() ? defaultValue : value.trim();
+        }
+
+        /**
+         * Returns an option as a whole number.
+         *
+         * @param key option name
+         * @param defaultValue value if the option is not set
+         * @return the option, or defaultValue
+         * @throws DvdLibraryDaoException if the option is not a number
+         */
+        public long number(String key, long defaultValue) throws DvdLibraryDaoException {
+            String value = string(key, null);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value.replace("_", ""));
+            } catch (NumberFormatException e) {
+                throw new DvdLibraryDaoException("Option " + key + " must be a whole number: " + value, e);
+            }
+        }
+
+        /**
+         * Returns an option as an int.
+         *
+         * @param key option name
+         * @param defaultValue value if the option is not set
+         * @return the option, or defaultValue
+         * @throws DvdLibraryDaoException if the option is not a number
+         * or does not fit in an int
+         */
+        public int integer(String key, int defaultValue) throws DvdLibraryDaoException {
+            long value = number(key, defaultValue);
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new DvdLibraryDaoException("Option " + key + " is out of range: " + value);
+            }
+            return (int) value;
+        }
+
+        /**
+         * Returns an option as true or false.
+         *
+         * @param key option name
+         * @param defaultValue value if the option is not set
+         * @return the option, or defaultValue
+         * @throws DvdLibraryDaoException if the option is neither
+         * true nor false
+         */
+        public boolean bool(String key, boolean defaultValue) throws DvdLibraryDaoException {
+            String value = string(key, null);
+            if (value == null) {
+                return defaultValue;
+            }
+            if (value.equalsIgnoreCase("true")) {
+                return true;
+            }
+            if (value.equalsIgnoreCase("false")) {
+                return false;
+            }
+            throw new DvdLibraryDaoException("Option " + key + " must be true or false: " + value);
+        }
+    }
+}
@@ -1,14 +1,33 @@
 package com.cbowe.dvdlibrary.dao;
 
 import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The {@code DvdLibraryDaoFileImpl} class implements the
  * DvdLibraryDao interface. This class is responsible for
  * retrieving data from a .txt file and storing data in
  * a .txt file.
+ * <p>
+ * By default every change rewrites the file, and every call first
+ * brings memory up to date with it: a DvdFileTracker reports whether
+ * another process has changed the file, so an unchanged file is not
+ * read again, and lines appended to it are parsed on their own. In
+ * write-behind mode the file is loaded once, reads are served
+ * from memory, and changes are flushed to disk on a schedule, when
+ * enough changes have built up, and when the DAO is closed or the
+ * JVM shuts down.
  */
 
 public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
@@ -16,16 +35,35 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
     // Constant to store file name
     public final String DVD_FILE ;
     // Constant to store delimiter for separating String into tokens
-    public static final String DELIMITER = "::";
-    // Hash Map to store and retrieve the Dvd; Key is the Dvd title
-    private Map<String, Dvd> dvds = new HashMap<>();
+    public static final String DELIMITER = DvdTextFormat.DELIMITER;
+    // Map to store and retrieve the Dvd, with secondary indexes on
+    // director, studio, MPAA rating and release year; Key is the Dvd title
+    private final IndexedDvdMap dvds = new IndexedDvdMap();
+
+    // Whether the library is held in memory and written behind
+    private final boolean writeBehind;
+    // Number of unsaved changes that forces a flush in write-behind mode
+    private final int flushThreshold;
+    // Number of changes made since the last flush
+    private int pendingChanges = 0;
+    // Whether DVD_FILE has been loaded into memory
+    private boolean loaded = false;
+    // Reports changes to DVD_FILE; null in write-behind mode, where
+    // the file is only read once
+    private final DvdFileTracker tracker;
+    // Where file loads and writes are timed and counted
+    private final DvdLibraryMetrics metrics = DvdLibraryMetrics.shared();
+    // Runs the scheduled flushes; null unless in write-behind mode
+    private ScheduledExecutorService flusher;
+    // Flushes pending changes if the JVM exits without close()
+    private Thread shutdownHook;
 
     /**
      * No arg constructor.
      * Assigns file name to constant DVD_FILE.
      */
     public DvdLibraryDaoFileImpl() {
-        DVD_FILE = "dvdTest.txt";
+        this("dvdTest.txt");
     }
 
     /**
@@ -35,6 +73,43 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
      */
     public DvdLibraryDaoFileImpl(String libraryTextFile) {
         DVD_FILE = libraryTextFile;
+        writeBehind = false;
+        flushThreshold = 1;
+        tracker = new DvdFileTracker(Paths.get(libraryTextFile));
+    }
+
+    /**
+     * Constructor for write-behind mode. The file is loaded on first
+     * use and kept in memory; changes are written out every
+     * flushIntervalMillis, as soon as flushThreshold changes are
+     * pending, and on close or JVM shutdown.
+     *
+     * @param libraryTextFile name of file with DVD info
+     * @param flushIntervalMillis milliseconds between scheduled flushes,
+     *                            or 0 to only flush on threshold and close
+     * @param flushThreshold number of pending changes that forces a flush
+     */
+    public DvdLibraryDaoFileImpl(String libraryTextFile, long flushIntervalMillis, int flushThreshold) {
+        if (flushIntervalMillis < 0 || flushThreshold < 1) {
+            throw new IllegalArgumentException("Flush interval must be >= 0 and flush threshold >= 1");
+        }
+        DVD_FILE = libraryTextFile;
+        writeBehind = true;
+        this.flushThreshold = flushThreshold;
+        tracker = null;
+
+        if (flushIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "dvd-library-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::scheduledFlush,
+                    flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        shutdownHook = new Thread(this::scheduledFlush, "dvd-library-shutdown-flush");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
     }
 
     /**
@@ -46,14 +121,14 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
      * @throws DvdLibraryDaoException if an error occurs writing to the file
      */
     @Override
-    public Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
+    public synchronized Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
         loadDvdFile();
 
         // New Dvd object declared, parameters passed to
         // dvds.put() to add new object to HashMap
         Dvd newDvd = dvds.put(title, dvd);
 
-        writeDvdFile(); // Write all Dvd objects to DVD_FILE
+        saveChanges(); // Write all Dvd objects to DVD_FILE
 
         return newDvd; // Return new Dvd object
     }
@@ -66,11 +141,38 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
      * @throws DvdLibraryDaoException prints message
      */
     @Override
-    public List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+    public synchronized List<Dvd> getAllDvds() throws DvdLibraryDaoException {
         loadDvdFile(); // Load file into memory
         return new ArrayList<Dvd>(dvds.values());
     }
 
+    /**
+     * Counts the Dvd objects.
+     *
+     * @return number of DVDs in the library
+     * @throws DvdLibraryDaoException prints message
+     */
+    @Override
+    public synchronized int countDvds() throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        return dvds.size();
+    }
+
+    /**
+     * Gets one page of Dvd objects in title order from the sorted
+     * title index, without copying the rest of the library.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs on the page
+     * @return Dvd objects on the page
+     * @throws DvdLibraryDaoException prints message
+     */
+    @Override
+    public synchronized List<Dvd> getDvdPage(int offset, int limit) throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        return dvds.page(offset, limit);
+    }
+
     /**
      * Retrieves Dvd object associated with specified title
      *
@@ -79,7 +181,7 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
      * @throws DvdLibraryDaoException prints message
      */
     @Override
-    public Dvd getDvd(String title) throws DvdLibraryDaoException {
+    public synchronized Dvd getDvd(String title) throws DvdLibraryDaoException {
         loadDvdFile(); // Load file into memory
         return dvds.get(title);
     }
@@ -92,143 +194,462 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
      * @throws DvdLibraryDaoException prints message
      */
     @Override
-    public Dvd removeDvd(String title) throws DvdLibraryDaoException{
+    public synchronized Dvd removeDvd(String title) throws DvdLibraryDaoException{
         loadDvdFile(); // Load file into memory
         Dvd removedDvd = dvds.remove(title); // Remove Dvd from HashMap
-        writeDvdFile(); // Write to .txt file
+        saveChanges(); // Write to .txt file
         return removedDvd;
     }
 
     /**
-     * Method to unmarshall the object or read a line of
-     * string from the file and convert it into an object
+     * Gets the Dvd objects that come straight after a title in title
+     * order by seeking in the sorted title index.
      *
-     * @param dvdAsText text representation of a Dvd object
-     * @return Dvd object created from String representation
+     * @param title title to start after, or null to start at the first
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException prints message
      */
-    private Dvd unmarshallDvd(String dvdAsText) {
-        // Declare and initialize array of tokens which are
-        // created from splitting string at the :: delimiter
-        String[] dvdTokens = dvdAsText.split(DELIMITER);
+    @Override
+    public synchronized List<Dvd> getDvdsAfter(String title, int limit) throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        return dvds.after(title, limit);
+    }
 
-        // Index 0 - title of Dvd object
-        String title = dvdTokens[0];
+    /**
+     * Gets the Dvd objects that come straight before a title in title
+     * order by seeking in the sorted title index.
+     *
+     * @param title title to end before, or null to end at the last
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException prints message
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsBefore(String title, int limit) throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        return dvds.before(title, limit);
+    }
 
-        // Create a new Dvd object to satisfy the requirements
-        // of the constructor
-        Dvd dvdFromFile = new Dvd(title);
+    /**
+     * Gets the Dvd objects in a title range from the sorted title
+     * index.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException prints message
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsBetween(String fromTitle, String toTitle, int limit) throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        return dvds.between(fromTitle, toTitle, limit);
+    }
 
-        // Index 1 - releaseDate of Dvd object
-        dvdFromFile.setReleaseDate(dvdTokens[1]);
+    /**
+     * Searches titles by prefix and with typo tolerance through the
+     * title index.
+     *
+     * @param text all or the start of a title, possibly mistyped
+     * @param limit maximum number of DVDs to return
+     * @return matching Dvd objects, best match first
+     * @throws DvdLibraryDaoException prints message
+     */
+    @Override
+    public synchronized List<Dvd> searchDvds(String text, int limit) throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        return dvds.search(text, limit);
+    }
 
-        // Index 2 - mpaaRating of Dvd object
-        dvdFromFile.setMPAA(dvdTokens[2]);
+    /**
+     * Finds the Dvd objects matching a query through the secondary
+     * indexes, so only DVDs sharing the query's rarest field value
+     * are looked at.
+     *
+     * @param query criteria to match
+     * @return matching Dvd objects
+     * @throws DvdLibraryDaoException prints message
+     */
+    @Override
+    public synchronized List<Dvd> findDvds(DvdQuery query) throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        return dvds.find(query);
+    }
 
-        // Index 3 - directorName of Dvd object
-        dvdFromFile.setDirectorsName(dvdTokens[3]);
+    /**
+     * Adds every given Dvd object and writes DVD_FILE once. If the
+     * write fails the library is left as it was.
+     *
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if an error occurs writing to the file
+     */
+    @Override
+    public synchronized void addAll(Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        for (Dvd dvd : newDvds) {
+            Dvd previousDvd = dvds.put(dvd.getTitle(), dvd);
+            previous.putIfAbsent(dvd.getTitle(), previousDvd);
+        }
+        saveBatch(previous); // Write to .txt file once
+    }
 
-        // Index 4 - studioName of Dvd object
-        dvdFromFile.setStudio(dvdTokens[4]);
+    /**
+     * Removes the Dvd objects with the given titles and writes
+     * DVD_FILE once. If the write fails the library is left as it was.
+     *
+     * @param titles titles of DVDs to be removed
+     * @return removed Dvd objects
+     * @throws DvdLibraryDaoException if an error occurs writing to the file
+     */
+    @Override
+    public synchronized List<Dvd> removeAll(Collection<String> titles) throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        List<Dvd> removedDvds = new ArrayList<>();
+        for (String title : titles) {
+            Dvd removedDvd = dvds.remove(title);
+            if (removedDvd != null) {
+                previous.put(title, removedDvd);
+                removedDvds.add(removedDvd);
+            }
+        }
+        if (!removedDvds.isEmpty()) {
+            saveBatch(previous); // Write to .txt file once
+        }
+        return removedDvds;
+    }
 
-        // Index 5 - userRating of Dvd object
-        dvdFromFile.setUserRating(dvdTokens[5]);
+    /**
+     * Applies a list of field edits and writes DVD_FILE once. Every
+     * title is checked before anything changes, and edited copies
+     * replace the stored Dvd objects only once all edits have been
+     * made, so either every edit is applied or none is.
+     *
+     * @param edits field edits to apply
+     * @return edited Dvd objects, one per edit
+     * @throws DvdLibraryDaoException if a title is missing or an error
+     * occurs writing to the file
+     */
+    @Override
+    public synchronized List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+        }
+
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        List<Dvd> editedDvds = new ArrayList<>();
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            Dvd editedDvd = edit.getField().apply(currentDvd, edit.getValue());
+            previous.putIfAbsent(edit.getTitle(), currentDvd);
+            dvds.put(edit.getTitle(), editedDvd);
+            editedDvds.add(editedDvd);
+        }
+        saveBatch(previous); // Write to .txt file once
+        return editedDvds;
+    }
+
+    /**
+     * Applies field edits, removals and additions and writes DVD_FILE
+     * once for all of them. Every edit is checked before anything
+     * changes, and if the write fails the library is left as it was.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if a title to edit is missing, a
+     * version does not match or an error occurs writing to the file
+     */
+    @Override
+    public synchronized void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles,
+                                          Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        loadDvdFile(); // Load file into memory
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+        }
+
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            previous.putIfAbsent(edit.getTitle(), currentDvd);
+            dvds.put(edit.getTitle(), edit.getField().apply(currentDvd, edit.getValue()));
+        }
+        for (String title : removedTitles) {
+            Dvd removedDvd = dvds.remove(title);
+            if (removedDvd != null) {
+                previous.putIfAbsent(title, removedDvd);
+            }
+        }
+        for (Dvd dvd : newDvds) {
+            Dvd previousDvd = dvds.put(dvd.getTitle(), dvd);
+            if (!previous.containsKey(dvd.getTitle())) {
+                previous.put(dvd.getTitle(), previousDvd);
+            }
+        }
+        if (!previous.isEmpty()) {
+            saveBatch(previous); // Write to .txt file once
+        }
+    }
 
-        // Return the Dvd object that was created
-        return dvdFromFile;
+    /**
+     * Persists a batch of changes. If that fails, puts back the
+     * values the batch replaced so memory matches DVD_FILE again.
+     *
+     * @param previous value each changed title had before the batch,
+     *                 null for titles the batch added
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    private void saveBatch(Map<String, Dvd> previous) throws DvdLibraryDaoException {
+        try {
+            saveChanges();
+        } catch (DvdLibraryDaoException e) {
+            for (Map.Entry<String, Dvd> entry : previous.entrySet()) {
+                if (entry.getValue() == null) {
+                    dvds.remove(entry.getKey());
+                } else {
+                    dvds.put(entry.getKey(), entry.getValue());
+                }
+            }
+            throw e;
+        }
     }
 
     /**
-     * Method to Load file DVD_FILE into memory
+     * Method to Load file DVD_FILE into memory, unless it has not
+     * changed since it was last read or written. Each call is timed
+     * in the shared DvdLibraryMetrics.
      *
      * @throws DvdLibraryDaoException prints message
      */
     private void loadDvdFile() throws DvdLibraryDaoException {
-        Scanner scanner;
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            refreshFromFile();
+            failed = false;
+        } finally {
+            metrics.recordOperation("loadDvdFile", System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Brings memory up to date with DVD_FILE.
+     *
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    private void refreshFromFile() throws DvdLibraryDaoException {
+        // In write-behind mode memory is the source of truth once loaded
+        if (writeBehind && loaded) {
+            return;
+        }
 
         try {
-            // Scanner for reading the file
-            scanner = new Scanner(new BufferedReader(new FileReader(DVD_FILE)));
-        } catch (FileNotFoundException e) {
+            if (tracker == null) {
+                readDvdFile();
+                return;
+            }
+            switch (tracker.check()) {
+                case NONE:
+                    return; // Memory already matches DVD_FILE
+                case APPENDED:
+                    readAppendedLines();
+                    return;
+                default:
+                    readDvdFile();
+            }
+        } catch (IOException e) {
+            if (tracker != null) {
+                tracker.invalidate();
+            }
             throw new DvdLibraryDaoException("*** Could not load DVD data into memory.", e);
+        } catch (DvdLibraryDaoException e) {
+            if (tracker != null) {
+                tracker.invalidate();
+            }
+            throw e;
         }
+    }
 
-        String currentLine; // Holds most recent line read from file
-        Dvd currentDvd; // Holds the most recent Dvd object unmarshalled
-
+    /**
+     * Reads the whole of DVD_FILE into memory, dropping DVDs that are
+     * no longer in it. When tracking changes, the file's size and
+     * modification time are taken first and no more than that size is
+     * read; the checksum is computed in the same pass as the parse
+     * and recorded with them, so the file is read only once.
+     *
+     * @throws IOException if the file could not be read
+     * @throws DvdLibraryDaoException if a line is malformed
+     */
+    private void readDvdFile() throws IOException, DvdLibraryDaoException {
         // Go through DVD_FILE line by line, decoding each line into a
-        // Dvd object by calling the unmarshallDvd method.
-        // Process while there are more lines in the file.
-        while (scanner.hasNextLine()) {
-            // Get the next line in the file
-            currentLine = scanner.nextLine();
-            // Unmarshall the line into a Dvd object
-            currentDvd = unmarshallDvd(currentLine);
-
-            // The title is the map key for a Dvd object.
-            // Put currentDvd into the map using title as the key.
-            dvds.put(currentDvd.getTitle(), currentDvd);
+        // Dvd object. The title is the map key for a Dvd object; a
+        // later line with the same title replaces an earlier one.
+        Map<String, Dvd> fileDvds = new HashMap<>();
+        long parsed;
+        long size;
+        if (tracker == null) {
+            size = Files.size(Paths.get(DVD_FILE));
+            parsed = DvdTextFormat.readLibrary(Paths.get(DVD_FILE),
+                    currentDvd -> fileDvds.put(currentDvd.getTitle(), currentDvd));
+        } else {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(DVD_FILE), BasicFileAttributes.class);
+            size = attributes.size();
+            DvdFileTracker.Fingerprint contents = new DvdFileTracker.Fingerprint();
+            parsed = DvdTextFormat.readLibrary(Paths.get(DVD_FILE), 0, size, contents,
+                    currentDvd -> fileDvds.put(currentDvd.getTitle(), currentDvd));
+            tracker.record(contents, attributes.lastModifiedTime().toMillis());
         }
-
-        // close scanner
-        scanner.close();
+        metrics.add("bytes read", size);
+        metrics.add("records parsed", parsed);
+
+        // Another process may have removed DVDs since the last load
+        List<String> removedTitles = new ArrayList<>();
+        for (String title : dvds.keySet()) {
+            if (!fileDvds.containsKey(title)) {
+                removedTitles.add(title);
+            }
+        }
+        for (String title : removedTitles) {
+            dvds.remove(title);
+        }
+        // Index only the DVDs that won and changed since the last load
+        dvds.putAll(fileDvds);
+        loaded = true;
     }
 
     /**
-     * This method turns a Dvd object into a line of text to store
-     * in the DVD_FILE.
+     * Parses only the lines another process appended to DVD_FILE
+     * since it was last recorded. Falls back to reading the whole
+     * file if the new last line is not finished yet.
      *
-     * @param aDvd Dvd object to be marshalled
-     * @return Dvd object as String separated by DELIMITER
+     * @throws IOException if the file could not be read
+     * @throws DvdLibraryDaoException if a line is malformed
      */
-    private String marshallDvd(Dvd aDvd) {
-        // Declare string, initialize with title and DELIMITER
-        String dvdAsText = aDvd.getTitle() + DELIMITER;
-        // Concatenate release date and DELIMITER
-        dvdAsText += aDvd.getReleaseDate() + DELIMITER;
-        // Concatenate MPAA rating and DELIMITER
-        dvdAsText += aDvd.getMPAA() + DELIMITER;
-        // Concatenate director's name and DELIMITER
-        dvdAsText += aDvd.getDirectorsName() + DELIMITER;
-        // Concatenate studio name and DELIMITER
-        dvdAsText += aDvd.getStudio() + DELIMITER;
-        // Concatenate user rating
-        dvdAsText += aDvd.getUserRating();
-
-        // Return Dvd object as String
-        return dvdAsText;
+    private void readAppendedLines() throws IOException, DvdLibraryDaoException {
+        long appendedFrom = tracker.recordedSize();
+        tracker.record();
+        if (!tracker.recordedWholeLines()) {
+            readDvdFile();
+            return;
+        }
+        long parsed = DvdTextFormat.readLibrary(Paths.get(DVD_FILE), appendedFrom, tracker.recordedSize(),
+                currentDvd -> dvds.put(currentDvd.getTitle(), currentDvd));
+        metrics.add("bytes read", tracker.recordedSize() - appendedFrom);
+        metrics.add("records parsed", parsed);
     }
 
     /**
-     * Writes all Dvds in the library out to a DVD_FILE.
+     * Writes all Dvds in the library out to a DVD_FILE in one
+     * streaming pass over the in-memory map. The file is not read
+     * again while saving: the checksum the tracker records is
+     * computed from the bytes as they are written, and the
+     * modification time is taken before the new file is moved into
+     * place, so a write by another process right after the move is
+     * not mistaken for ours. The file is replaced atomically so a
+     * crash part way through never leaves a half-written DVD_FILE.
+     * Each write is timed in the shared DvdLibraryMetrics.
      *
      * @throws DvdLibraryDaoException prints message
      */
     private void writeDvdFile() throws DvdLibraryDaoException {
-        PrintWriter out;
-
+        long start = System.nanoTime();
+        DvdFileTracker.Fingerprint contents = new DvdFileTracker.Fingerprint();
+        FileTime modified;
         try {
-            out = new PrintWriter(new FileWriter(DVD_FILE));
+            modified = DvdTextFormat.writeLibrary(Paths.get(DVD_FILE), dvds.values(), contents);
         } catch (IOException e) {
+            metrics.recordWrite("writeDvdFile", System.nanoTime() - start, true, 0, 0);
+            if (tracker != null) {
+                tracker.invalidate(); // Memory no longer matches the file
+            }
             throw new DvdLibraryDaoException("Could not save dvd data.", e);
         }
+        metrics.recordWrite("writeDvdFile", System.nanoTime() - start, false, contents.length(), dvds.size());
+        if (tracker != null) {
+            tracker.record(contents, modified.toMillis()); // So our own write is not read back
+        }
+    }
 
-        // Write out the Dvd objects to the DVD file.
-        String dvdAsText; // Declare variable to store String representation
+    /**
+     * Persists a change. Writes the file straight away unless in
+     * write-behind mode, where the change is only counted and the
+     * file is written once flushThreshold changes are pending.
+     *
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    private void saveChanges() throws DvdLibraryDaoException {
+        if (!writeBehind) {
+            writeDvdFile();
+            return;
+        }
 
-        List<Dvd> dvdList = this.getAllDvds(); // List of all Dvd objects
+        pendingChanges++;
+        if (pendingChanges >= flushThreshold) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes any pending changes to DVD_FILE. Does nothing when there
+     * are no pending changes. If the write fails the changes stay
+     * pending and are retried by the next flush.
+     *
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    public synchronized void flush() throws DvdLibraryDaoException {
+        if (pendingChanges == 0) {
+            return;
+        }
+        writeDvdFile();
+        pendingChanges = 0;
+    }
 
-        // Iterate through objects in dvdList
-        for (Dvd currentDvd : dvdList) {
-            // Get String representation of Dvd object, store in variable
-            dvdAsText = marshallDvd(currentDvd);
-            // Write the String representation of theDvd object to the file
-            out.println(dvdAsText);
-            // Force PrintWriter to write line to the file
-            out.flush();
+    /**
+     * Flush run by the scheduler and the shutdown hook, which have no
+     * caller to report a failure to.
+     */
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (DvdLibraryDaoException e) {
+            System.err.println(e.getMessage());
         }
+    }
 
-        // Clean up
-        out.close();
+    /**
+     * Stops watching the file and the scheduled flushes, and writes
+     * any pending changes.
+     *
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public void close() throws DvdLibraryDaoException {
+        if (tracker != null) {
+            tracker.close();
+        }
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down; the hook will run anyway
+            }
+            shutdownHook = null;
+        }
+        flush();
     }
 
     /**
@@ -236,15 +657,17 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
      *
      * @param title title of DVD to be edited
      * @param newReleaseDate release date for Dvd
-     * @return current Dvd object
+     * @return current Dvd object, or null if no DVD has that title
      * @throws DvdLibraryDaoException prints message
      */
     @Override
-    public Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
+    public synchronized Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
         loadDvdFile(); // Load file into memory
-        Dvd currentDVD = dvds.get(title); // Get currentDvd info from HashMap
-        currentDVD.setReleaseDate(newReleaseDate); // Call setter to set new release date
-        writeDvdFile(); // Write to .txt file
+        // Set new release date and re-index the Dvd under it
+        Dvd currentDVD = dvds.edit(title, DvdField.RELEASE_DATE, newReleaseDate);
+        if (currentDVD != null) {
+            saveChanges(); // Write to .txt file
+        }
         return currentDVD; // Return currentDvd object
     }
 
@@ -253,15 +676,17 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
      *
      * @param title title of DVD to be edited
      * @param newMpaaRating rating of DVD
-     * @return current Dvd object
+     * @return current Dvd object, or null if no DVD has that title
      * @throws DvdLibraryDaoException prints message
      */
     @Override
-    public Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
+    public synchronized Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
         loadDvdFile(); // Load file into memory
-        Dvd currentDVD = dvds.get(title); // Get currentDvd info from HashMap
-        currentDVD.setMPAA(newMpaaRating); // Call setter to set new MPAA rating
-        writeDvdFile(); // Write to .txt file
+        // Set new MPAA rating and re-index the Dvd under it
+        Dvd currentDVD = dvds.edit(title, DvdField.MPAA, newMpaaRating);
+        if (currentDVD != null) {
+            saveChanges(); // Write to .txt file
+        }
         return currentDVD; // Return currentDvd object
     }
 
@@ -270,15 +695,17 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
      *
      * @param title title of DVD to be edited
      * @param newDirectorName name of film director
-     * @return current Dvd object
+     * @return current Dvd object, or null if no DVD has that title
      * @throws DvdLibraryDaoException prints message
      */
     @Override
-    public Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
+    public synchronized Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
         loadDvdFile(); // Load file into memory
-        Dvd currentDVD = dvds.get(title); // Call setter to set new release date
-        currentDVD.setDirectorsName(newDirectorName); // Call setter to set new director name
-        writeDvdFile(); // Write to .txt file
+        // Set new director name and re-index the Dvd under it
+        Dvd currentDVD = dvds.edit(title, DvdField.DIRECTOR_NAME, newDirectorName);
+        if (currentDVD != null) {
+            saveChanges(); // Write to .txt file
+        }
         return currentDVD; // Return currentDvd object
     }
 
@@ -287,15 +714,17 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
      *
      * @param title of DVD to be edited
      * @param newUserRating user rating of DVD
-     * @return current Dvd object
+     * @return current Dvd object, or null if no DVD has that title
      * @throws DvdLibraryDaoException prints message
      */
     @Override
-    public Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
+    public synchronized Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
         loadDvdFile(); // Load file into memory
-        Dvd currentDVD = dvds.get(title); // Call setter to set new release date
-        currentDVD.setUserRating(newUserRating); // Call setter to set new user rating
-        writeDvdFile(); // Write to .txt file
+        // Set new user rating and re-index the Dvd under it
+        Dvd currentDVD = dvds.edit(title, DvdField.USER_RATING, newUserRating);
+        if (currentDVD != null) {
+            saveChanges(); // Write to .txt file
+        }
         return currentDVD; // Return currentDvd object
     }
 
@@ -304,15 +733,17 @@ public class DvdLibraryDaoFileImpl implements DvdLibraryDao {
      *
      * @param title of DVD to be edited
      * @param newStudioName studio that released film
-     * @return current Dvd object
+     * @return current Dvd object, or null if no DVD has that title
      * @throws DvdLibraryDaoException prints message
      */
     @Override
-    public Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
+    public synchronized Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
         loadDvdFile(); // Load file into memory
-        Dvd currentDVD = dvds.get(title); // Call setter to set new release date
-        currentDVD.setStudio(newStudioName); // Call setter to set new studio name
-        writeDvdFile(); // Write to .txt file
+        // Set new studio name and re-index the Dvd under it
+        Dvd currentDVD = dvds.edit(title, DvdField.STUDIO, newStudioName);
+        if (currentDVD != null) {
+            saveChanges(); // Write to .txt file
+        }
         return currentDVD; // Return currentDvd object
     }
 
@@ -0,0 +1,890 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code DvdLibraryDaoJournalImpl} class implements the
+ * DvdLibraryDao interface on top of a snapshot file and an
+ * append-only journal.
+ * <p>
+ * The snapshot uses the same "::" format as DvdLibraryDaoFileImpl.
+ * Every change appends one short record to the journal instead of
+ * rewriting the library, so the cost of a change does not grow with
+ * the size of the library. The journal is fsynced once per group of
+ * records and on a timer, and once it holds enough records it is
+ * folded into a new snapshot and truncated.
+ * <p>
+ * Journal records are one line each:
+ * <pre>
+ * ADD::title::releaseDate::mpaa::director::studio::userRating::version
+ * REMOVE::title
+ * EDIT::title::FIELD::value
+ * </pre>
+ * where FIELD is a DvdField name. An edit is journalled as the ADD
+ * record of the edited DVD, so that replaying it restores the DVD's
+ * version stamp; EDIT records are only found in journals written
+ * before stamps were kept, and are still replayed. The records of a
+ * batch are written in one append between BEGIN and COMMIT lines and
+ * are only replayed if the COMMIT line made it to disk.
+ * Replaying a record sets state rather than changing it relatively,
+ * so replaying a journal over a snapshot that already contains some
+ * of its records gives the same library.
+ */
+
+public class DvdLibraryDaoJournalImpl implements DvdLibraryDao {
+
+    // Journal record types
+    private static final String ADD = "ADD";
+    private static final String REMOVE = "REMOVE";
+    private static final String EDIT = "EDIT";
+
+    // Markers around the records of a batch
+    private static final String BEGIN = "BEGIN";
+    private static final String COMMIT = "COMMIT";
+
+    // Snapshot file in the "::" library format
+    private final Path snapshotFile;
+    // Journal of changes made since the snapshot was written
+    private final Path journalFile;
+    // Number of appended records that forces an fsync
+    private final int syncEvery;
+    // Number of journal records that triggers compaction
+    private final int compactThreshold;
+
+    // Map to store and retrieve the Dvd, with secondary indexes on
+    // director, studio, MPAA rating and release year; Key is the Dvd title
+    private final IndexedDvdMap dvds = new IndexedDvdMap();
+    // Channel the journal is appended through; null until opened
+    private FileChannel journal;
+    // Records appended since the last fsync
+    private int unsyncedRecords = 0;
+    // Records in the journal since the last compaction
+    private int journalRecords = 0;
+    // Runs the timed fsyncs; null if no sync interval was given
+    private ScheduledExecutorService syncer;
+    // Opens, appends and compactions are timed and counted in here
+    private final DvdLibraryMetrics metrics = DvdLibraryMetrics.shared();
+
+    /**
+     * Constructor using the default library file, syncing every
+     * 64 records or every second and compacting every 100,000 records.
+     */
+    public DvdLibraryDaoJournalImpl() {
+        this("dvdTest.txt", 64, 1000, 100_000);
+    }
+
+    /**
+     * Constructor accepts the snapshot file name and tuning options.
+     * The journal is kept next to the snapshot with a ".journal" suffix.
+     *
+     * @param libraryTextFile name of the snapshot file with DVD info
+     * @param syncEvery number of records appended between fsyncs
+     * @param syncIntervalMillis milliseconds between timed fsyncs,
+     *                           or 0 to only sync by record count
+     * @param compactThreshold number of journal records that triggers
+     *                         folding the journal into a new snapshot
+     */
+    public DvdLibraryDaoJournalImpl(String libraryTextFile, int syncEvery,
+                                    long syncIntervalMillis, int compactThreshold) {
+        if (syncEvery < 1 || syncIntervalMillis < 0 || compactThreshold < 1) {
+            throw new IllegalArgumentException("Journal tuning options must be positive");
+        }
+        this.snapshotFile = Paths.get(libraryTextFile);
+        this.journalFile = Paths.get(libraryTextFile + ".journal");
+        this.syncEvery = syncEvery;
+        this.compactThreshold = compactThreshold;
+
+        if (syncIntervalMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "dvd-journal-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(this::timedSync,
+                    syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Adds a Dvd object to the library and journals it.
+     *
+     * @param title with which DVD is to be associated
+     * @param dvd DVD to be added to the library
+     * @return Dvd object previously stored under the title, or null
+     * @throws DvdLibraryDaoException if the title or a value cannot be
+     * journalled or the journal could not be written
+     */
+    @Override
+    public synchronized Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
+        open();
+        Dvd storedDvd = underTitle(title, dvd); // What replay will rebuild
+        append(Collections.singletonList(addRecord(storedDvd)));
+        Dvd previousDvd = dvds.put(title, storedDvd);
+        compactIfNeeded();
+        return previousDvd;
+    }
+
+    /**
+     * Gets all Dvd objects from memory.
+     *
+     * @return ArrayList of values from dvds HashMap
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public synchronized List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+        open();
+        return new ArrayList<>(dvds.values());
+    }
+
+    /**
+     * Counts the Dvd objects in memory.
+     *
+     * @return number of DVDs in the library
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public synchronized int countDvds() throws DvdLibraryDaoException {
+        open();
+        return dvds.size();
+    }
+
+    /**
+     * Gets one page of Dvd objects in title order from the sorted
+     * title index, without copying the rest of the library.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs on the page
+     * @return Dvd objects on the page
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public synchronized List<Dvd> getDvdPage(int offset, int limit) throws DvdLibraryDaoException {
+        open();
+        return dvds.page(offset, limit);
+    }
+
+    /**
+     * Retrieves Dvd object associated with specified title
+     *
+     * @param title title of the DVD to retrieve
+     * @return Dvd object associated with title
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public synchronized Dvd getDvd(String title) throws DvdLibraryDaoException {
+        open();
+        return dvds.get(title);
+    }
+
+    /**
+     * Gets the Dvd objects that come straight after a title in title
+     * order by seeking in the sorted title index.
+     *
+     * @param title title to start after, or null to start at the first
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsAfter(String title, int limit) throws DvdLibraryDaoException {
+        open();
+        return dvds.after(title, limit);
+    }
+
+    /**
+     * Gets the Dvd objects that come straight before a title in title
+     * order by seeking in the sorted title index.
+     *
+     * @param title title to end before, or null to end at the last
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsBefore(String title, int limit) throws DvdLibraryDaoException {
+        open();
+        return dvds.before(title, limit);
+    }
+
+    /**
+     * Gets the Dvd objects in a title range from the sorted title
+     * index.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsBetween(String fromTitle, String toTitle, int limit) throws DvdLibraryDaoException {
+        open();
+        return dvds.between(fromTitle, toTitle, limit);
+    }
+
+    /**
+     * Searches titles by prefix and with typo tolerance through the
+     * title index kept over the in-memory library.
+     *
+     * @param text all or the start of a title, possibly mistyped
+     * @param limit maximum number of DVDs to return
+     * @return matching Dvd objects, best match first
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public synchronized List<Dvd> searchDvds(String text, int limit) throws DvdLibraryDaoException {
+        open();
+        return dvds.search(text, limit);
+    }
+
+    /**
+     * Finds the Dvd objects matching a query through the secondary
+     * indexes kept over the in-memory library.
+     *
+     * @param query criteria to match
+     * @return matching Dvd objects
+     * @throws DvdLibraryDaoException if the library could not be loaded
+     */
+    @Override
+    public synchronized List<Dvd> findDvds(DvdQuery query) throws DvdLibraryDaoException {
+        open();
+        return dvds.find(query);
+    }
+
+    /**
+     * Removes Dvd object associated with specified title and journals
+     * the removal.
+     *
+     * @param title title of DVD to be removed
+     * @return removed Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the journal could not be written
+     */
+    @Override
+    public synchronized Dvd removeDvd(String title) throws DvdLibraryDaoException {
+        open();
+        if (!dvds.containsKey(title)) {
+            return null;
+        }
+        append(Collections.singletonList(REMOVE + DvdTextFormat.DELIMITER + title));
+        Dvd removedDvd = dvds.remove(title);
+        compactIfNeeded();
+        return removedDvd;
+    }
+
+    /**
+     * Edits the release date of the current Dvd object and journals the edit
+     *
+     * @param title title of DVD to be edited
+     * @param newReleaseDate new release date
+     * @return current Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the journal could not be written
+     */
+    @Override
+    public synchronized Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
+        return edit(title, DvdField.RELEASE_DATE, newReleaseDate);
+    }
+
+    /**
+     * Edits the MPAA rating of the current Dvd object and journals the edit
+     *
+     * @param title title of DVD to be edited
+     * @param newMpaaRating new MPAA rating
+     * @return current Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the journal could not be written
+     */
+    @Override
+    public synchronized Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
+        return edit(title, DvdField.MPAA, newMpaaRating);
+    }
+
+    /**
+     * Edits the director name of the current Dvd object and journals the edit
+     *
+     * @param title title of DVD to be edited
+     * @param newDirectorName new director name
+     * @return current Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the journal could not be written
+     */
+    @Override
+    public synchronized Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
+        return edit(title, DvdField.DIRECTOR_NAME, newDirectorName);
+    }
+
+    /**
+     * Edits the user rating of the current Dvd object and journals the edit
+     *
+     * @param title title of DVD to be edited
+     * @param newUserRating new user rating
+     * @return current Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the journal could not be written
+     */
+    @Override
+    public synchronized Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
+        return edit(title, DvdField.USER_RATING, newUserRating);
+    }
+
+    /**
+     * Edits the studio name of the current Dvd object and journals the edit
+     *
+     * @param title title of DVD to be edited
+     * @param newStudioName new studio name
+     * @return current Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the journal could not be written
+     */
+    @Override
+    public synchronized Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
+        return edit(title, DvdField.STUDIO, newStudioName);
+    }
+
+    /**
+     * Syncs the journal, stops the timed syncs and releases the
+     * journal file.
+     *
+     * @throws DvdLibraryDaoException if the journal could not be synced
+     */
+    @Override
+    public synchronized void close() throws DvdLibraryDaoException {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        if (journal == null) {
+            return;
+        }
+        try {
+            sync();
+            journal.close();
+        } catch (IOException e) {
+            throw new DvdLibraryDaoException("Could not close DVD journal.", e);
+        } finally {
+            journal = null;
+        }
+    }
+
+    /**
+     * Folds the journal into a new snapshot and truncates it. Each
+     * compaction is timed in the shared DvdLibraryMetrics.
+     *
+     * @throws DvdLibraryDaoException if the snapshot could not be written
+     */
+    public synchronized void compact() throws DvdLibraryDaoException {
+        open();
+        long start = System.nanoTime();
+        boolean failed = true;
+        long size = 0;
+        try {
+            DvdTextFormat.writeLibrary(snapshotFile, dvds.values());
+            size = Files.size(snapshotFile);
+            // A crash before the truncate only leaves records that
+            // replay to the state the new snapshot already holds
+            journal.truncate(0);
+            journal.force(true);
+            failed = false;
+        } catch (IOException e) {
+            throw new DvdLibraryDaoException("Could not compact DVD journal.", e);
+        } finally {
+            metrics.recordWrite("compactJournal", System.nanoTime() - start, failed, size, dvds.size());
+        }
+        journalRecords = 0;
+        unsyncedRecords = 0;
+    }
+
+    /**
+     * Adds every given Dvd object, journalling them as one batch.
+     *
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if the journal could not be written
+     */
+    @Override
+    public synchronized void addAll(Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        open();
+        List<String> records = new ArrayList<>();
+        for (Dvd dvd : newDvds) {
+            records.add(addRecord(dvd));
+        }
+        appendBatch(records);
+        for (Dvd dvd : newDvds) {
+            dvds.put(dvd.getTitle(), dvd);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes the Dvd objects with the given titles, journalling the
+     * removals as one batch.
+     *
+     * @param titles titles of DVDs to be removed
+     * @return removed Dvd objects
+     * @throws DvdLibraryDaoException if the journal could not be written
+     */
+    @Override
+    public synchronized List<Dvd> removeAll(Collection<String> titles) throws DvdLibraryDaoException {
+        open();
+        List<String> records = new ArrayList<>();
+        for (String title : titles) {
+            if (dvds.containsKey(title)) {
+                records.add(REMOVE + DvdTextFormat.DELIMITER + title);
+            }
+        }
+        List<Dvd> removedDvds = new ArrayList<>();
+        if (records.isEmpty()) {
+            return removedDvds;
+        }
+        appendBatch(records);
+        for (String title : titles) {
+            Dvd removedDvd = dvds.remove(title);
+            if (removedDvd != null) {
+                removedDvds.add(removedDvd);
+            }
+        }
+        compactIfNeeded();
+        return removedDvds;
+    }
+
+    /**
+     * Applies a list of field edits, journalling the edited DVDs as
+     * one batch. Nothing is journalled or changed if any title is
+     * missing or any DVD has changed since the version an edit expects.
+     *
+     * @param edits field edits to apply
+     * @return edited Dvd objects, one per edit
+     * @throws DvdLibraryDaoException if a title is missing, a version
+     * does not match or the journal could not be written
+     */
+    @Override
+    public synchronized List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        open();
+        Map<String, Dvd> edited = new LinkedHashMap<>(); // Latest copy of each edited title
+        List<Dvd> editedDvds = new ArrayList<>();
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+            Dvd editedDvd = edit.getField().apply(edited.getOrDefault(edit.getTitle(), currentDvd), edit.getValue());
+            edited.put(edit.getTitle(), editedDvd);
+            editedDvds.add(editedDvd);
+        }
+
+        List<String> records = new ArrayList<>();
+        for (Dvd editedDvd : edited.values()) {
+            records.add(addRecord(editedDvd));
+        }
+        appendBatch(records);
+        for (Map.Entry<String, Dvd> entry : edited.entrySet()) {
+            dvds.put(entry.getKey(), entry.getValue());
+        }
+        compactIfNeeded();
+        return editedDvds;
+    }
+
+    /**
+     * Applies field edits, removals and additions, journalling them
+     * all as one batch. Nothing is journalled or changed if any title
+     * to edit is missing or any DVD has changed since the version an
+     * edit expects.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if a title to edit is missing, a
+     * version does not match or the journal could not be written
+     */
+    @Override
+    public synchronized void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles,
+                                          Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        open();
+        Map<String, Dvd> edited = new LinkedHashMap<>(); // Latest copy of each edited title
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+            edited.put(edit.getTitle(),
+                    edit.getField().apply(edited.getOrDefault(edit.getTitle(), currentDvd), edit.getValue()));
+        }
+
+        // Replayed in this order, so the records match the changes below
+        List<String> records = new ArrayList<>();
+        for (Dvd editedDvd : edited.values()) {
+            records.add(addRecord(editedDvd));
+        }
+        for (String title : removedTitles) {
+            if (dvds.containsKey(title)) {
+                records.add(REMOVE + DvdTextFormat.DELIMITER + title);
+            }
+        }
+        for (Dvd dvd : newDvds) {
+            records.add(addRecord(dvd));
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        appendBatch(records);
+        for (Map.Entry<String, Dvd> entry : edited.entrySet()) {
+            dvds.put(entry.getKey(), entry.getValue());
+        }
+        for (String title : removedTitles) {
+            dvds.remove(title);
+        }
+        for (Dvd dvd : newDvds) {
+            dvds.put(dvd.getTitle(), dvd);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Applies a field edit to the DVD with the given title and
+     * journals it.
+     *
+     * @param title title of DVD to be edited
+     * @param field field to edit
+     * @param value new value for the field
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the journal could not be written
+     */
+    private Dvd edit(String title, DvdField field, String value) throws DvdLibraryDaoException {
+        open();
+        Dvd currentDvd = dvds.get(title);
+        if (currentDvd == null) {
+            return null;
+        }
+        Dvd editedDvd = underTitle(title, field.apply(currentDvd, value));
+        append(Collections.singletonList(addRecord(editedDvd)));
+        dvds.put(title, editedDvd);
+        compactIfNeeded();
+        return editedDvd;
+    }
+
+    /**
+     * Builds the ADD record for a DVD.
+     *
+     * @param dvd DVD to journal, stored under its own title
+     * @return journal record without its line break
+     * @throws DvdLibraryDaoException if the title or a value contains
+     * "::" or a line break, which would make the record unreadable
+     */
+    private static String addRecord(Dvd dvd) throws DvdLibraryDaoException {
+        for (String value : new String[] {dvd.getTitle(), dvd.getReleaseDate(), dvd.getMPAA(),
+                dvd.getDirectorsName(), dvd.getStudio(), dvd.getUserRating()}) {
+            if (value != null && !DvdTextFormat.isStorable(value)) {
+                throw new DvdLibraryDaoException("Could not save dvd data: values must not contain \""
+                        + DvdTextFormat.DELIMITER + "\" or a line break, nor end with ':': " + value);
+            }
+        }
+        return ADD + DvdTextFormat.DELIMITER + DvdTextFormat.marshallDvd(dvd);
+    }
+
+    /**
+     * Returns the DVD with its title set to the key it is stored
+     * under, since replay keys each DVD by the title in its record.
+     *
+     * @param title title the DVD is stored under
+     * @param dvd DVD to be stored
+     * @return dvd itself, or a copy with the given title
+     */
+    private static Dvd underTitle(String title, Dvd dvd) {
+        if (title.equals(dvd.getTitle())) {
+            return dvd;
+        }
+        return new Dvd(title, dvd.getReleaseDate(), dvd.getMPAA(), dvd.getDirectorsName(),
+                dvd.getStudio(), dvd.getUserRating(), dvd.getVersion());
+    }
+
+    /**
+     * Loads the snapshot, replays the journal over it and opens the
+     * journal for appending. Does nothing once the journal is open.
+     * Each open is timed in the shared DvdLibraryMetrics, counting the
+     * bytes and records of both files.
+     *
+     * @throws DvdLibraryDaoException if either file could not be read
+     */
+    private void open() throws DvdLibraryDaoException {
+        if (journal != null) {
+            return;
+        }
+
+        dvds.clear();
+        journalRecords = 0; // Counted again by replayJournal
+        long start = System.nanoTime();
+        boolean failed = true;
+        long size = 0;
+        long parsed = 0;
+        try {
+            if (Files.exists(snapshotFile)) {
+                size = Files.size(snapshotFile);
+                parsed = DvdTextFormat.readLibrary(snapshotFile,
+                        currentDvd -> dvds.put(currentDvd.getTitle(), currentDvd));
+            }
+
+            journal = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size += journal.size();
+            long validLength = replayJournal();
+            parsed += journalRecords;
+            // Drop a record torn by a crash part way through an append
+            if (validLength < journal.size()) {
+                journal.truncate(validLength);
+            }
+            journal.position(validLength);
+            failed = false;
+        } catch (IOException e) {
+            closeQuietly();
+            throw new DvdLibraryDaoException("*** Could not load DVD data into memory.", e);
+        } catch (DvdLibraryDaoException e) {
+            closeQuietly();
+            throw e;
+        } finally {
+            metrics.recordRead("openJournal", System.nanoTime() - start, failed, size, parsed);
+        }
+    }
+
+    /**
+     * Releases the journal after a failed open so the next call
+     * starts over.
+     */
+    private void closeQuietly() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // Nothing was written through it
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Replays every complete journal record over the loaded snapshot.
+     * The records of a batch are held back until its COMMIT line. A
+     * batch with no COMMIT line at the end of the journal, like a last
+     * line with no line break, was torn by a crash part way through an
+     * append and is ignored.
+     *
+     * @return length in bytes of the journal up to the last complete
+     * record or committed batch
+     * @throws IOException if the journal could not be read
+     * @throws DvdLibraryDaoException if a record is malformed
+     */
+    private long replayJournal() throws IOException, DvdLibraryDaoException {
+        byte[] bytes = Files.readAllBytes(journalFile);
+        long validLength = 0;
+        List<String> batch = null;
+        List<Long> batchLineNumbers = null;
+        long lineNumber = 0;
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            String record = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+            start = i + 1;
+            lineNumber++;
+            journalRecords++;
+
+            if (record.equals(BEGIN)) {
+                if (batch != null) {
+                    throw malformed(record, lineNumber, "BEGIN inside a batch");
+                }
+                batch = new ArrayList<>();
+                batchLineNumbers = new ArrayList<>();
+            } else if (record.equals(COMMIT)) {
+                if (batch == null) {
+                    throw malformed(record, lineNumber, "COMMIT without BEGIN");
+                }
+                for (int j = 0; j < batch.size(); j++) {
+                    replay(batch.get(j), batchLineNumbers.get(j));
+                }
+                batch = null;
+                batchLineNumbers = null;
+                validLength = start;
+            } else if (batch != null) {
+                batch.add(record);
+                batchLineNumbers.add(lineNumber);
+            } else {
+                replay(record, lineNumber);
+                validLength = start;
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * Applies one journal record to the in-memory library.
+     *
+     * @param record journal record without its line break
+     * @param lineNumber line of the journal the record is on
+     * @throws DvdLibraryDaoException if the record is malformed
+     */
+    private void replay(String record, long lineNumber) throws DvdLibraryDaoException {
+        int typeEnd = record.indexOf(DvdTextFormat.DELIMITER);
+        if (typeEnd < 0) {
+            throw malformed(record, lineNumber, "no record type");
+        }
+        String type = record.substring(0, typeEnd);
+        String rest = record.substring(typeEnd + DvdTextFormat.DELIMITER.length());
+
+        switch (type) {
+            case ADD:
+                Dvd added;
+                try {
+                    added = DvdTextFormat.unmarshallDvd(rest);
+                } catch (DvdLibraryDaoException e) {
+                    throw malformed(record, lineNumber, e.getMessage());
+                }
+                dvds.put(added.getTitle(), added);
+                break;
+            case REMOVE:
+                dvds.remove(rest);
+                break;
+            case EDIT:
+                String[] tokens = rest.split(DvdTextFormat.DELIMITER, 3);
+                if (tokens.length < 2) {
+                    throw malformed(record, lineNumber, "expected title, field and value");
+                }
+                DvdField field;
+                try {
+                    field = DvdField.valueOf(tokens[1]);
+                } catch (IllegalArgumentException e) {
+                    throw malformed(record, lineNumber, "unknown field " + tokens[1]);
+                }
+                dvds.edit(tokens[0], field, tokens.length > 2 ? tokens[2] : "");
+                break;
+            default:
+                throw malformed(record, lineNumber, "unknown record type " + type);
+        }
+    }
+
+    /**
+     * Builds the error for a journal record that cannot be replayed.
+     *
+     * @param record the offending record
+     * @param lineNumber line of the journal it is on
+     * @param problem what is wrong with it
+     * @return exception describing the record
+     */
+    private DvdLibraryDaoException malformed(String record, long lineNumber, String problem) {
+        return new DvdLibraryDaoException("Malformed journal record at line " + lineNumber
+                + " of " + journalFile + " (" + problem + "): " + record);
+    }
+
+    /**
+     * Appends records to the journal in one write, syncing once a
+     * group of records is pending. The bytes and records appended are
+     * counted in the shared DvdLibraryMetrics.
+     *
+     * @param records journal records without line breaks
+     * @throws DvdLibraryDaoException if a record holds a line break,
+     * which would split it in two, or the journal could not be written
+     */
+    private void append(List<String> records) throws DvdLibraryDaoException {
+        StringBuilder text = new StringBuilder();
+        for (String record : records) {
+            if (record.indexOf('\n') >= 0 || record.indexOf('\r') >= 0) {
+                throw new DvdLibraryDaoException("Could not save dvd data: values must not contain line breaks");
+            }
+            text.append(record).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        long start = -1;
+        try {
+            start = journal.position();
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            unsyncedRecords += records.size();
+            journalRecords += records.size();
+            metrics.add("bytes written", buffer.limit());
+            metrics.add("records written", records.size());
+            if (unsyncedRecords >= syncEvery) {
+                sync();
+            }
+        } catch (IOException e) {
+            // Cut off a partial write so later records don't follow a
+            // torn record or an unfinished batch
+            if (start >= 0) {
+                try {
+                    journal.truncate(start);
+                } catch (IOException ignored) {
+                    // The write error below is the one worth reporting
+                }
+            }
+            throw new DvdLibraryDaoException("Could not save dvd data.", e);
+        }
+    }
+
+    /**
+     * Appends the records of a batch between BEGIN and COMMIT lines
+     * and syncs them straight away.
+     *
+     * @param records journal records without line breaks
+     * @throws DvdLibraryDaoException if the journal could not be written
+     */
+    private void appendBatch(List<String> records) throws DvdLibraryDaoException {
+        List<String> framed = new ArrayList<>(records.size() + 2);
+        framed.add(BEGIN);
+        framed.addAll(records);
+        framed.add(COMMIT);
+        append(framed);
+        try {
+            sync();
+        } catch (IOException e) {
+            throw new DvdLibraryDaoException("Could not save dvd data.", e);
+        }
+    }
+
+    /**
+     * Folds the journal into a new snapshot once it holds
+     * compactThreshold records. Called after a change has been
+     * applied in memory so the snapshot includes it.
+     *
+     * @throws DvdLibraryDaoException if the snapshot could not be written
+     */
+    private void compactIfNeeded() throws DvdLibraryDaoException {
+        if (journalRecords >= compactThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Forces appended records to disk.
+     *
+     * @throws IOException if the sync fails
+     */
+    private void sync() throws IOException {
+        if (unsyncedRecords > 0) {
+            journal.force(false);
+            unsyncedRecords = 0;
+        }
+    }
+
+    /**
+     * Sync run by the timer, which has no caller to report a failure to.
+     */
+    private synchronized void timedSync() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            sync();
+        } catch (IOException e) {
+            System.err.println("Could not sync DVD journal: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,833 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdPatch;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code DvdLibraryDaoMappedImpl} class implements the
+ * DvdLibraryDao interface by memory-mapping a "::" library file
+ * instead of reading it into Dvd objects.
+ * <p>
+ * Opening the library makes one pass over the mapped bytes to record
+ * where each line starts and to hash each title into an open
+ * addressing table. Each line's fields are counted and its version
+ * checked on the way, so a malformed file is reported when it is
+ * opened. Nothing is decoded while indexing: getDvd decodes
+ * only the line it finds and getAllDvds returns a list that decodes
+ * each record when it is asked for. The heap holds a few primitive
+ * arrays per library rather than a Dvd object per title.
+ * <p>
+ * Changes rewrite the file by copying the unchanged lines across
+ * with FileChannel.transferTo and appending the changed record, then
+ * map the new file. When a title appears more than once the last
+ * line wins, as it does when DvdLibraryDaoFileImpl loads the file.
+ */
+
+public class DvdLibraryDaoMappedImpl implements DvdLibraryDao {
+
+    // Largest region mapped by one MappedByteBuffer
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    // Library file being mapped
+    private final Path libraryFile;
+    // Index of the currently mapped file; null until first use
+    private MappedLibrary library;
+    // Mappings and rewrites of the library file are timed in here
+    private final DvdLibraryMetrics metrics = DvdLibraryMetrics.shared();
+
+    /**
+     * No arg constructor, maps the default "dvdTest.txt" file.
+     */
+    public DvdLibraryDaoMappedImpl() {
+        this("dvdTest.txt");
+    }
+
+    /**
+     * Constructor accepts String parameter
+     *
+     * @param libraryTextFile name of file with DVD info
+     */
+    public DvdLibraryDaoMappedImpl(String libraryTextFile) {
+        this.libraryFile = Paths.get(libraryTextFile);
+    }
+
+    /**
+     * Adds a Dvd object by appending it to a rewritten library file.
+     *
+     * @param title with which DVD is to be associated
+     * @param dvd DVD to be added to the library
+     * @return Dvd object previously stored under the title, or null
+     * @throws DvdLibraryDaoException if the file could not be rewritten
+     */
+    @Override
+    public synchronized Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
+        Dvd previousDvd = getDvd(title);
+        rewrite(title, dvd);
+        return previousDvd;
+    }
+
+    /**
+     * Returns a list view of the library that decodes each Dvd
+     * object when it is read. The view keeps showing the library as
+     * it was when this method was called.
+     *
+     * @return lazily decoded list of all DVDs
+     * @throws DvdLibraryDaoException if the file could not be mapped
+     */
+    @Override
+    public synchronized List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+        final MappedLibrary snapshot = open();
+        final int[] live = snapshot.liveLines();
+        return new AbstractList<Dvd>() {
+            @Override
+            public Dvd get(int index) {
+                try {
+                    return snapshot.decode(live[index]);
+                } catch (DvdLibraryDaoException e) {
+                    // Every line was checked when the file was indexed
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public int size() {
+                return live.length;
+            }
+        };
+    }
+
+    /**
+     * Looks the title up in the hash index and decodes only that line.
+     *
+     * @param title title of the DVD to retrieve
+     * @return Dvd object associated with title, or null
+     * @throws DvdLibraryDaoException if the file could not be mapped
+     */
+    @Override
+    public synchronized Dvd getDvd(String title) throws DvdLibraryDaoException {
+        MappedLibrary snapshot = open();
+        int line = snapshot.find(title.getBytes(StandardCharsets.UTF_8));
+        return line < 0 ? null : snapshot.decode(line);
+    }
+
+    /**
+     * Removes Dvd object associated with specified title
+     *
+     * @param title title of DVD to be removed
+     * @return removed Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be rewritten
+     */
+    @Override
+    public synchronized Dvd removeDvd(String title) throws DvdLibraryDaoException {
+        Dvd removedDvd = getDvd(title);
+        if (removedDvd != null) {
+            rewrite(title, null);
+        }
+        return removedDvd;
+    }
+
+    /**
+     * Edits the release date of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newReleaseDate release date for Dvd
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be rewritten
+     */
+    @Override
+    public synchronized Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
+        Dvd currentDvd = getDvd(title);
+        if (currentDvd == null) {
+            return null;
+        }
+        Dvd editedDvd = currentDvd.withReleaseDate(newReleaseDate);
+        rewrite(title, editedDvd);
+        return editedDvd;
+    }
+
+    /**
+     * Edits the MPAA rating of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newMpaaRating rating of DVD
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be rewritten
+     */
+    @Override
+    public synchronized Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
+        Dvd currentDvd = getDvd(title);
+        if (currentDvd == null) {
+            return null;
+        }
+        Dvd editedDvd = currentDvd.withMPAA(newMpaaRating);
+        rewrite(title, editedDvd);
+        return editedDvd;
+    }
+
+    /**
+     * Edits the director name of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newDirectorName name of film director
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be rewritten
+     */
+    @Override
+    public synchronized Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
+        Dvd currentDvd = getDvd(title);
+        if (currentDvd == null) {
+            return null;
+        }
+        Dvd editedDvd = currentDvd.withDirectorsName(newDirectorName);
+        rewrite(title, editedDvd);
+        return editedDvd;
+    }
+
+    /**
+     * Edits the user rating of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newUserRating user rating of DVD
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be rewritten
+     */
+    @Override
+    public synchronized Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
+        Dvd currentDvd = getDvd(title);
+        if (currentDvd == null) {
+            return null;
+        }
+        Dvd editedDvd = currentDvd.withUserRating(newUserRating);
+        rewrite(title, editedDvd);
+        return editedDvd;
+    }
+
+    /**
+     * Edits the studio name of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newStudioName studio that released film
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be rewritten
+     */
+    @Override
+    public synchronized Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
+        Dvd currentDvd = getDvd(title);
+        if (currentDvd == null) {
+            return null;
+        }
+        Dvd editedDvd = currentDvd.withStudio(newStudioName);
+        rewrite(title, editedDvd);
+        return editedDvd;
+    }
+
+    /**
+     * Applies every change in the patch to the current Dvd object as
+     * one batch, so the file is rewritten once for all of them and
+     * either every field is saved or none is.
+     *
+     * @param title of DVD to be edited
+     * @param patch new values of the fields to change
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryConflictException if the DVD does not have
+     * the version the patch expects
+     * @throws DvdLibraryDaoException if the file could not be rewritten
+     */
+    @Override
+    public synchronized Dvd updateDvd(String title, DvdPatch patch) throws DvdLibraryDaoException {
+        Dvd currentDvd = getDvd(title);
+        if (currentDvd == null || patch.isEmpty()) {
+            return currentDvd;
+        }
+        List<Dvd> editedDvds = applyBatch(patch.toEdits(title));
+        return editedDvds.get(editedDvds.size() - 1);
+    }
+
+    /**
+     * Applies a list of field edits and rewrites the file once for all
+     * of them. The versions are checked under the same lock as the
+     * edits are applied, and nothing is changed if any title is
+     * missing or any DVD has changed since the version an edit expects.
+     *
+     * @param edits field edits to apply
+     * @return edited Dvd objects, one per edit
+     * @throws DvdLibraryConflictException if a DVD does not have the
+     * version an edit expects
+     * @throws DvdLibraryDaoException if a title is missing or the file
+     * could not be rewritten
+     */
+    @Override
+    public synchronized List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        Map<String, Dvd> edited = new LinkedHashMap<>(); // Latest copy of each edited title
+        List<Dvd> editedDvds = new ArrayList<>();
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = getDvd(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+            Dvd editedDvd = edit.getField().apply(edited.getOrDefault(edit.getTitle(), currentDvd), edit.getValue());
+            edited.put(edit.getTitle(), editedDvd);
+            editedDvds.add(editedDvd);
+        }
+        if (!edited.isEmpty()) {
+            rewrite(edited);
+        }
+        return editedDvds;
+    }
+
+    /**
+     * Applies field edits, removals and additions and rewrites the
+     * file once for all of them. Nothing changes if any title to edit
+     * is missing or any DVD has changed since the version an edit
+     * expects.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if a title to edit is missing, a
+     * version does not match or the file could not be rewritten
+     */
+    @Override
+    public synchronized void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles,
+                                          Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        Map<String, Dvd> replacements = new LinkedHashMap<>(); // New record per title, null to remove
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = getDvd(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+            replacements.put(edit.getTitle(), edit.getField().apply(
+                    replacements.getOrDefault(edit.getTitle(), currentDvd), edit.getValue()));
+        }
+        for (String title : removedTitles) {
+            if (getDvd(title) != null) {
+                replacements.put(title, null);
+            }
+        }
+        for (Dvd dvd : newDvds) {
+            replacements.put(dvd.getTitle(), dvd);
+        }
+        if (!replacements.isEmpty()) {
+            rewrite(replacements);
+        }
+    }
+
+    /**
+     * Drops the current mapping. Lists already returned by
+     * getAllDvds keep their own reference to it.
+     */
+    @Override
+    public synchronized void close() {
+        library = null;
+    }
+
+    /**
+     * Maps and indexes the library file if that has not been done yet.
+     * Each mapping is timed in the shared DvdLibraryMetrics, with the
+     * lines indexed counted as the records parsed.
+     *
+     * @return index of the mapped file
+     * @throws DvdLibraryDaoException if the file could not be mapped
+     */
+    private MappedLibrary open() throws DvdLibraryDaoException {
+        if (library == null) {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                library = MappedLibrary.map(libraryFile);
+                failed = false;
+            } catch (IOException e) {
+                throw new DvdLibraryDaoException("*** Could not load DVD data into memory.", e);
+            } finally {
+                metrics.recordRead("mapDvdFile", System.nanoTime() - start, failed,
+                        failed ? 0 : library.size, failed ? 0 : library.lineCount);
+            }
+        }
+        return library;
+    }
+
+    /**
+     * Rewrites the library without the line for the given title,
+     * appending the replacement record if there is one, and maps the
+     * new file. Unchanged lines are copied as raw bytes.
+     *
+     * @param title title whose line is dropped
+     * @param replacement record to append, or null to remove the title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    private void rewrite(String title, Dvd replacement) throws DvdLibraryDaoException {
+        rewrite(Collections.singletonMap(title, replacement));
+    }
+
+    /**
+     * Rewrites the library in one pass without the lines for the given
+     * titles, appending the replacement records, and maps the new file.
+     * Each rewrite is timed in the shared DvdLibraryMetrics.
+     *
+     * @param replacements record to append for each title, or null to
+     * remove the title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    private void rewrite(Map<String, Dvd> replacements) throws DvdLibraryDaoException {
+        MappedLibrary snapshot = open();
+        BitSet skipped = new BitSet();
+        StringBuilder records = new StringBuilder();
+        int appended = 0;
+        for (Map.Entry<String, Dvd> replacement : replacements.entrySet()) {
+            int line = snapshot.find(replacement.getKey().getBytes(StandardCharsets.UTF_8));
+            if (line >= 0) {
+                skipped.set(line);
+            }
+            if (replacement.getValue() != null) {
+                DvdTextFormat.appendDvd(records, replacement.getValue()).append('\n');
+                appended++;
+            }
+        }
+        Path temp = DvdTextFormat.tempFileFor(libraryFile);
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        long size = 0;
+        long written = appended;
+        try {
+            try (FileChannel source = FileChannel.open(libraryFile, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                written += snapshot.copyLiveLines(source, out, skipped);
+                ByteBuffer record = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+                out.force(true);
+                size = out.size();
+            }
+            DvdTextFormat.replace(temp, libraryFile);
+            failed = false;
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // The save error below is the one worth reporting
+            }
+            throw new DvdLibraryDaoException("Could not save dvd data.", e);
+        } finally {
+            metrics.recordWrite("rewriteDvdFile", System.nanoTime() - start, failed, size, written);
+        }
+        library = null;
+    }
+
+    /**
+     * Immutable index over one mapping of the library file.
+     */
+    private static final class MappedLibrary {
+        private static final int FNV_OFFSET = 0x811c9dc5;
+        private static final int FNV_PRIME = 0x01000193;
+        // Bytes copied out of the mapping per scan while indexing
+        private static final int SCAN_SLICE_SIZE = 64 * 1024;
+        // Largest hash table; a power of two that fits in an int array
+        private static final int MAX_TABLE_SIZE = 1 << 30;
+
+        // Mapped regions of the file, each up to 1 GiB
+        private final MappedByteBuffer[] segments;
+        private final long size;
+        // Start offset of each non-blank line
+        private long[] lineStarts = new long[1024];
+        private int lineCount = 0;
+        // Title hash of each line
+        private int[] lineHashes = new int[1024];
+        // Lines shadowed by a later line with the same title
+        private final BitSet shadowed = new BitSet();
+        // Open addressing table of line index + 1, keyed by title hash
+        private int[] table;
+        // Lines still visible, built on first use
+        private int[] live;
+
+        private MappedLibrary(MappedByteBuffer[] segments, long size) {
+            this.segments = segments;
+            this.size = size;
+        }
+
+        /**
+         * Maps a library file and indexes its lines.
+         *
+         * @throws IOException if the file could not be mapped
+         * @throws DvdLibraryDaoException if a line is malformed
+         */
+        static MappedLibrary map(Path file) throws IOException, DvdLibraryDaoException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                int count = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+                MappedByteBuffer[] segments = new MappedByteBuffer[count];
+                for (int i = 0; i < count; i++) {
+                    long start = (long) i << SEGMENT_SHIFT;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(SEGMENT_MASK + 1, size - start));
+                }
+                MappedLibrary library = new MappedLibrary(segments, size);
+                library.index();
+                return library;
+            }
+        }
+
+        private byte byteAt(long position) {
+            return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+        }
+
+        /**
+         * Records every non-blank line and hashes its title, checking
+         * that each line holds six or seven fields and a whole-number
+         * version, so that decoding a line later cannot fail. The
+         * mapping is copied out in bulk, a slice at a time, and each
+         * slice is scanned for line breaks as a plain byte array; a
+         * line cut off at the end of a slice is moved to the front of
+         * the next one.
+         *
+         * @throws DvdLibraryDaoException if a line is malformed or the
+         * file has too many lines to index
+         */
+        private void index() throws DvdLibraryDaoException {
+            byte[] slice = new byte[SCAN_SLICE_SIZE];
+            long sliceStart = 0; // File offset of slice[0]
+            int filled = 0;
+            long lineNumber = 1;
+            while (true) {
+                // Grow only for a line longer than the whole slice
+                if (filled == slice.length) {
+                    slice = Arrays.copyOf(slice, slice.length * 2);
+                }
+                int length = (int) Math.min(slice.length - filled, size - sliceStart - filled);
+                copy(sliceStart + filled, slice, filled, length);
+                filled += length;
+                boolean endOfFile = sliceStart + filled == size;
+
+                int lineStart = 0;
+                for (int i = 0; i < filled; i++) {
+                    if (slice[i] == '\n') {
+                        indexLine(slice, lineStart, i, sliceStart, lineNumber++);
+                        lineStart = i + 1;
+                    }
+                }
+                if (endOfFile) {
+                    // Last line without a line break
+                    indexLine(slice, lineStart, filled, sliceStart, lineNumber);
+                    break;
+                }
+                System.arraycopy(slice, lineStart, slice, 0, filled - lineStart);
+                sliceStart += lineStart;
+                filled -= lineStart;
+            }
+
+            if (lineCount >= MAX_TABLE_SIZE) {
+                throw new DvdLibraryDaoException("*** Too many lines to index: " + lineCount);
+            }
+            int tableSize = (int) Math.min(MAX_TABLE_SIZE,
+                    Math.max(16L, Long.highestOneBit(Math.max(1, lineCount)) << 2));
+            table = new int[tableSize];
+            for (int line = 0; line < lineCount; line++) {
+                insert(line);
+            }
+        }
+
+        /**
+         * Checks one line held in slice[start, newline) and records it,
+         * skipping it if it is blank.
+         *
+         * @param slice bytes copied out of the mapping
+         * @param start index of the line's first byte
+         * @param newline index of its line break, or the end of the data
+         * @param sliceStart file offset of slice[0]
+         * @param lineNumber line number used in errors
+         * @throws DvdLibraryDaoException if the line is malformed
+         */
+        private void indexLine(byte[] slice, int start, int newline, long sliceStart, long lineNumber)
+                throws DvdLibraryDaoException {
+            int end = newline > start && slice[newline - 1] == '\r' ? newline - 1 : newline;
+            if (end == start) {
+                return;
+            }
+            int hash = FNV_OFFSET;
+            int p = start;
+            for (; p < end - 1 && !(slice[p] == ':' && slice[p + 1] == ':'); p++) {
+                hash = (hash ^ (slice[p] & 0xff)) * FNV_PRIME;
+            }
+            int delimiters = 0;
+            int versionStart = -1;
+            for (int q = p; q < end - 1; q++) {
+                if (slice[q] == ':' && slice[q + 1] == ':') {
+                    q++;
+                    if (++delimiters == 6) {
+                        versionStart = q + 1;
+                    }
+                }
+            }
+            if (delimiters < 5 || delimiters > 6) {
+                throw malformedLine(slice, start, end, lineNumber, "expected six or seven fields");
+            }
+            if (delimiters == 6 && !isVersion(slice, versionStart, end)) {
+                throw malformedLine(slice, start, end, lineNumber, "version must be a whole number");
+            }
+            addLine(sliceStart + start, hash);
+        }
+
+        /**
+         * Copies length bytes of the mapping, starting at position, into
+         * dst at offset, a segment at a time.
+         */
+        private void copy(long position, byte[] dst, int offset, int length) {
+            int copied = 0;
+            while (copied < length) {
+                long at = position + copied;
+                MappedByteBuffer segment = segments[(int) (at >>> SEGMENT_SHIFT)];
+                int index = (int) (at & SEGMENT_MASK);
+                int count = Math.min(length - copied, segment.limit() - index);
+                segment.get(index, dst, offset + copied, count);
+                copied += count;
+            }
+        }
+
+        /**
+         * Checks that the version field in slice[start, end) is a whole
+         * number that fits in a long, as DvdTextFormat requires.
+         */
+        private static boolean isVersion(byte[] slice, int start, int end) {
+            if (end <= start || end - start > 19) {
+                return false;
+            }
+            long version = 0;
+            for (int p = start; p < end; p++) {
+                int digit = slice[p] - '0';
+                if (digit < 0 || digit > 9 || version > (Long.MAX_VALUE - digit) / 10) {
+                    return false;
+                }
+                version = version * 10 + digit;
+            }
+            return true;
+        }
+
+        /**
+         * Builds the error for a line that cannot be decoded.
+         */
+        private static DvdLibraryDaoException malformedLine(byte[] slice, int start, int end, long lineNumber,
+                                                            String problem) {
+            return new DvdLibraryDaoException("Malformed DVD record at line " + lineNumber + " (" + problem + "): "
+                    + new String(slice, start, Math.min(end - start, 1024), StandardCharsets.UTF_8));
+        }
+
+        private void addLine(long start, int hash) {
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                lineHashes = Arrays.copyOf(lineHashes, lineCount * 2);
+            }
+            lineStarts[lineCount] = start;
+            lineHashes[lineCount] = hash;
+            lineCount++;
+        }
+
+        /**
+         * Adds a line to the hash table; a later line with the same
+         * title replaces the earlier one.
+         */
+        private void insert(int line) {
+            int mask = table.length - 1;
+            for (int slot = lineHashes[line] & mask; ; slot = (slot + 1) & mask) {
+                int existing = table[slot] - 1;
+                if (existing < 0) {
+                    table[slot] = line + 1;
+                    return;
+                }
+                if (lineHashes[existing] == lineHashes[line] && sameTitle(existing, line)) {
+                    shadowed.set(existing);
+                    table[slot] = line + 1;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Finds the line holding the given title.
+         *
+         * @param title UTF-8 bytes of the title
+         * @return line index, or -1 if the title is not in the library
+         */
+        int find(byte[] title) {
+            int hash = FNV_OFFSET;
+            for (byte b : title) {
+                hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+            }
+            int mask = table.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int line = table[slot] - 1;
+                if (line < 0) {
+                    return -1;
+                }
+                if (lineHashes[line] == hash && titleEquals(line, title)) {
+                    return line;
+                }
+            }
+        }
+
+        private int hash(long start, long end) {
+            int hash = FNV_OFFSET;
+            for (long p = start; p < end; p++) {
+                hash = (hash ^ (byteAt(p) & 0xff)) * FNV_PRIME;
+            }
+            return hash;
+        }
+
+        /**
+         * Returns the end of the title of a line, just before its first
+         * delimiter or at the end of the line.
+         */
+        private long titleEnd(int line) {
+            long start = lineStarts[line];
+            for (long p = start; p < size; p++) {
+                byte b = byteAt(p);
+                if (b == '\n' || (b == ':' && p + 1 < size && byteAt(p + 1) == ':')) {
+                    return b == '\n' ? lineEnd(start, p) : p;
+                }
+            }
+            return lineEnd(start, size);
+        }
+
+        private boolean sameTitle(int a, int b) {
+            long aStart = lineStarts[a];
+            long bStart = lineStarts[b];
+            long length = titleEnd(a) - aStart;
+            if (titleEnd(b) - bStart != length) {
+                return false;
+            }
+            for (long i = 0; i < length; i++) {
+                if (byteAt(aStart + i) != byteAt(bStart + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean titleEquals(int line, byte[] title) {
+            long start = lineStarts[line];
+            if (titleEnd(line) - start != title.length) {
+                return false;
+            }
+            for (int i = 0; i < title.length; i++) {
+                if (byteAt(start + i) != title[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Drops a trailing carriage return from a line.
+         */
+        private long lineEnd(long start, long newline) {
+            return newline > start && byteAt(newline - 1) == '\r' ? newline - 1 : newline;
+        }
+
+        /**
+         * Decodes one line into a Dvd object.
+         *
+         * @param line line index
+         * @return Dvd object held on that line
+         * @throws DvdLibraryDaoException if the line is malformed
+         */
+        Dvd decode(int line) throws DvdLibraryDaoException {
+            long start = lineStarts[line];
+            long newline = start;
+            while (newline < size && byteAt(newline) != '\n') {
+                newline++;
+            }
+            byte[] bytes = new byte[(int) (lineEnd(start, newline) - start)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = byteAt(start + i);
+            }
+            return DvdTextFormat.unmarshallDvd(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Returns the lines that are not shadowed by a later duplicate,
+         * in file order.
+         */
+        synchronized int[] liveLines() {
+            if (live == null) {
+                live = new int[lineCount - shadowed.cardinality()];
+                for (int line = 0, i = 0; line < lineCount; line++) {
+                    if (!shadowed.get(line)) {
+                        live[i++] = line;
+                    }
+                }
+            }
+            return live;
+        }
+
+        /**
+         * Copies the raw bytes of every live line except the skipped
+         * ones to a new file, merging runs of neighbouring lines into
+         * one transfer.
+         *
+         * @param source channel on the mapped file
+         * @param out channel on the file being written
+         * @param skipped lines to leave out
+         * @return number of lines copied
+         * @throws IOException if copying fails
+         */
+        int copyLiveLines(FileChannel source, FileChannel out, BitSet skipped) throws IOException {
+            long runStart = -1;
+            long runEnd = -1;
+            int copied = 0;
+            for (int line = 0; line < lineCount; line++) {
+                if (skipped.get(line) || shadowed.get(line)) {
+                    continue;
+                }
+                copied++;
+                long start = lineStarts[line];
+                long end = line + 1 < lineCount ? lineStarts[line + 1] : size;
+                if (start != runEnd) {
+                    transfer(source, out, runStart, runEnd);
+                    runStart = start;
+                }
+                runEnd = end;
+            }
+            transfer(source, out, runStart, runEnd);
+
+            // The appended record must start on a line of its own
+            if (out.size() > 0 && byteAt(runEnd - 1) != '\n') {
+                ByteBuffer newline = ByteBuffer.wrap(new byte[]{'\n'});
+                while (newline.hasRemaining()) {
+                    out.write(newline);
+                }
+            }
+            return copied;
+        }
+
+        private static void transfer(FileChannel source, FileChannel out, long start, long end)
+                throws IOException {
+            long position = start;
+            while (position < end) {
+                position += source.transferTo(position, end - position, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * The {@code DvdLibraryDaoMemoryImpl} class implements the
+ * DvdLibraryDao interface entirely in memory. Nothing is ever
+ * written to disk, so changes are lost when the application exits.
+ * <p>
+ * The library starts empty, or is seeded once from a library text
+ * file on first use. This makes it the baseline the storage backends
+ * are benchmarked against, and a scratch library for demos and for
+ * trying out changes without touching the real file.
+ */
+
+public class DvdLibraryDaoMemoryImpl implements DvdLibraryDao {
+
+    // Library text file to seed from; null to start empty
+    private final Path seedFile;
+    // Map to store and retrieve the Dvd, with secondary indexes on
+    // director, studio, MPAA rating and release year; null until loaded
+    private IndexedDvdMap dvds;
+
+    /**
+     * No arg constructor, starts with an empty library.
+     */
+    public DvdLibraryDaoMemoryImpl() {
+        this(null);
+    }
+
+    /**
+     * Constructor accepts the library text file to seed from. A
+     * missing file is treated as an empty library.
+     *
+     * @param seedTextFile name of file with DVD info, or null to
+     *                     start with an empty library
+     */
+    public DvdLibraryDaoMemoryImpl(String seedTextFile) {
+        this.seedFile = seedTextFile == null ? null : Paths.get(seedTextFile);
+    }
+
+    /**
+     * Adds a new Dvd object
+     *
+     * @param title with which DVD is to be associated
+     * @param dvd DVD to be added to the library
+     * @return Dvd object previously stored under the title, or null
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
+        return load().put(title, dvd);
+    }
+
+    /**
+     * Gets all Dvd objects
+     *
+     * @return ArrayList of values from dvds HashMap
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+        return new ArrayList<>(load().values());
+    }
+
+    /**
+     * Counts the Dvd objects.
+     *
+     * @return number of DVDs in the library
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized int countDvds() throws DvdLibraryDaoException {
+        return load().size();
+    }
+
+    /**
+     * Gets one page of Dvd objects in title order from the sorted
+     * title index.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs on the page
+     * @return Dvd objects on the page
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdPage(int offset, int limit) throws DvdLibraryDaoException {
+        return load().page(offset, limit);
+    }
+
+    /**
+     * Retrieves Dvd object associated with specified title
+     *
+     * @param title title of the DVD to retrieve
+     * @return Dvd object associated with title, or null
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized Dvd getDvd(String title) throws DvdLibraryDaoException {
+        return load().get(title);
+    }
+
+    /**
+     * Gets the Dvd objects that come straight after a title in title
+     * order by seeking in the sorted title index.
+     *
+     * @param title title to start after, or null to start at the first
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsAfter(String title, int limit) throws DvdLibraryDaoException {
+        return load().after(title, limit);
+    }
+
+    /**
+     * Gets the Dvd objects that come straight before a title in title
+     * order by seeking in the sorted title index.
+     *
+     * @param title title to end before, or null to end at the last
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsBefore(String title, int limit) throws DvdLibraryDaoException {
+        return load().before(title, limit);
+    }
+
+    /**
+     * Gets the Dvd objects in a title range from the sorted title
+     * index.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsBetween(String fromTitle, String toTitle, int limit) throws DvdLibraryDaoException {
+        return load().between(fromTitle, toTitle, limit);
+    }
+
+    /**
+     * Searches titles by prefix and with typo tolerance through the
+     * title index.
+     *
+     * @param text all or the start of a title, possibly mistyped
+     * @param limit maximum number of DVDs to return
+     * @return matching Dvd objects, best match first
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> searchDvds(String text, int limit) throws DvdLibraryDaoException {
+        return load().search(text, limit);
+    }
+
+    /**
+     * Finds the Dvd objects matching a query through the secondary
+     * indexes
+     *
+     * @param query criteria to match
+     * @return matching Dvd objects
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> findDvds(DvdQuery query) throws DvdLibraryDaoException {
+        return load().find(query);
+    }
+
+    /**
+     * Removes Dvd object associated with specified title
+     *
+     * @param title title of DVD to be removed
+     * @return removed Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized Dvd removeDvd(String title) throws DvdLibraryDaoException {
+        return load().remove(title);
+    }
+
+    /**
+     * Edits the release date of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newReleaseDate release date for Dvd
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
+        return load().edit(title, DvdField.RELEASE_DATE, newReleaseDate);
+    }
+
+    /**
+     * Edits the MPAA rating of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newMpaaRating rating of DVD
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
+        return load().edit(title, DvdField.MPAA, newMpaaRating);
+    }
+
+    /**
+     * Edits the director name of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newDirectorName name of film director
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
+        return load().edit(title, DvdField.DIRECTOR_NAME, newDirectorName);
+    }
+
+    /**
+     * Edits the user rating of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newUserRating user rating of DVD
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
+        return load().edit(title, DvdField.USER_RATING, newUserRating);
+    }
+
+    /**
+     * Edits the studio name of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newStudioName studio that released film
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
+        return load().edit(title, DvdField.STUDIO, newStudioName);
+    }
+
+    /**
+     * Adds every given Dvd object
+     *
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized void addAll(Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        load();
+        for (Dvd dvd : newDvds) {
+            dvds.put(dvd.getTitle(), dvd);
+        }
+    }
+
+    /**
+     * Removes the Dvd objects with the given titles
+     *
+     * @param titles titles of DVDs to be removed
+     * @return removed Dvd objects
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> removeAll(Collection<String> titles) throws DvdLibraryDaoException {
+        load();
+        List<Dvd> removedDvds = new ArrayList<>();
+        for (String title : titles) {
+            Dvd removedDvd = dvds.remove(title);
+            if (removedDvd != null) {
+                removedDvds.add(removedDvd);
+            }
+        }
+        return removedDvds;
+    }
+
+    /**
+     * Applies a list of field edits. Nothing changes if any title is
+     * missing.
+     *
+     * @param edits field edits to apply
+     * @return edited Dvd objects, one per edit
+     * @throws DvdLibraryDaoException if a title is missing
+     */
+    @Override
+    public synchronized List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        load();
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+        }
+
+        List<Dvd> editedDvds = new ArrayList<>();
+        for (DvdEdit edit : edits) {
+            editedDvds.add(dvds.edit(edit.getTitle(), edit.getField(), edit.getValue()));
+        }
+        return editedDvds;
+    }
+
+    /**
+     * Applies field edits, removals and additions while holding the
+     * lock, so no other change is seen between them. Nothing changes
+     * if any title to edit is missing.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if a title to edit is missing or
+     * a version does not match
+     */
+    @Override
+    public synchronized void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles,
+                                          Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        applyBatch(edits);
+        removeAll(removedTitles);
+        addAll(newDvds);
+    }
+
+    /**
+     * Drops the library, so the memory it held can be reclaimed.
+     */
+    @Override
+    public synchronized void close() {
+        dvds = null;
+    }
+
+    /**
+     * Seeds the library from the seed file if it is not loaded yet.
+     *
+     * @return the in-memory library
+     * @throws DvdLibraryDaoException if the seed file could not be read
+     */
+    private IndexedDvdMap load() throws DvdLibraryDaoException {
+        if (dvds == null) {
+            IndexedDvdMap loaded = new IndexedDvdMap();
+            if (seedFile != null && Files.exists(seedFile)) {
+                Map<String, Dvd> seeded = new HashMap<>();
+                try {
+                    DvdTextFormat.readLibrary(seedFile, currentDvd -> seeded.put(currentDvd.getTitle(), currentDvd));
+                } catch (IOException e) {
+                    throw new DvdLibraryDaoException("*** Could not load DVD data into memory.", e);
+                }
+                loaded.putAll(seeded);
+            }
+            dvds = loaded;
+        }
+        return dvds;
+    }
+}
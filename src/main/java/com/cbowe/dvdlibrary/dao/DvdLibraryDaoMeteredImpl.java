@@ -0,0 +1,406 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdPatch;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The {@code DvdLibraryDaoMeteredImpl} class implements the
+ * DvdLibraryDao interface by passing every call on to another DAO and
+ * recording how long it took, and whether it failed, in a
+ * DvdLibraryMetrics. Each operation is recorded under its method
+ * name. Methods the wrapped DAO implements natively, such as
+ * findDvds or getDvdPage, are passed on as they are, so the metrics
+ * show what the wrapped DAO really costs.
+ */
+
+public class DvdLibraryDaoMeteredImpl implements DvdLibraryDao {
+
+    // DAO that does the work
+    private final DvdLibraryDao dao;
+    // Where each call is recorded
+    private final DvdLibraryMetrics metrics;
+
+    /**
+     * Constructor that records into the shared DvdLibraryMetrics.
+     *
+     * @param dao DAO to pass every call on to
+     */
+    public DvdLibraryDaoMeteredImpl(DvdLibraryDao dao) {
+        this(dao, DvdLibraryMetrics.shared());
+    }
+
+    /**
+     * Constructor accepts the DAO to wrap and the metrics to record into
+     *
+     * @param dao DAO to pass every call on to
+     * @param metrics metrics each call is recorded in
+     */
+    public DvdLibraryDaoMeteredImpl(DvdLibraryDao dao, DvdLibraryMetrics metrics) {
+        this.dao = dao;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Passes addDvd on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @param dvd DVD to be added to the library
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
+        return time("addDvd", () -> dao.addDvd(title, dvd));
+    }
+
+    /**
+     * Passes getAllDvds on to the wrapped DAO and records how long it took.
+     *
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+        return time("getAllDvds", dao::getAllDvds);
+    }
+
+    /**
+     * Passes countDvds on to the wrapped DAO and records how long it took.
+     *
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public int countDvds() throws DvdLibraryDaoException {
+        return time("countDvds", dao::countDvds);
+    }
+
+    /**
+     * Passes getDvdPage on to the wrapped DAO and records how long it took.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs to return
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdPage(int offset, int limit) throws DvdLibraryDaoException {
+        return time("getDvdPage", () -> dao.getDvdPage(offset, limit));
+    }
+
+    /**
+     * Passes getDvdsAfter on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @param limit maximum number of DVDs to return
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsAfter(String title, int limit) throws DvdLibraryDaoException {
+        return time("getDvdsAfter", () -> dao.getDvdsAfter(title, limit));
+    }
+
+    /**
+     * Passes getDvdsBefore on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @param limit maximum number of DVDs to return
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsBefore(String title, int limit) throws DvdLibraryDaoException {
+        return time("getDvdsBefore", () -> dao.getDvdsBefore(title, limit));
+    }
+
+    /**
+     * Passes getDvdsBetween on to the wrapped DAO and records how long it took.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsBetween(String fromTitle, String toTitle, int limit) throws DvdLibraryDaoException {
+        return time("getDvdsBetween", () -> dao.getDvdsBetween(fromTitle, toTitle, limit));
+    }
+
+    /**
+     * Passes getDvd on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd getDvd(String title) throws DvdLibraryDaoException {
+        return time("getDvd", () -> dao.getDvd(title));
+    }
+
+    /**
+     * Passes removeDvd on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd removeDvd(String title) throws DvdLibraryDaoException {
+        return time("removeDvd", () -> dao.removeDvd(title));
+    }
+
+    /**
+     * Passes editReleaseDate on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @param newReleaseDate release date for Dvd
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
+        return time("editReleaseDate", () -> dao.editReleaseDate(title, newReleaseDate));
+    }
+
+    /**
+     * Passes editMPAA on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @param newMpaaRating rating of DVD
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
+        return time("editMPAA", () -> dao.editMPAA(title, newMpaaRating));
+    }
+
+    /**
+     * Passes editDirectorName on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @param newDirectorName name of film director
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
+        return time("editDirectorName", () -> dao.editDirectorName(title, newDirectorName));
+    }
+
+    /**
+     * Passes editUserRating on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @param newUserRating user rating of DVD
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
+        return time("editUserRating", () -> dao.editUserRating(title, newUserRating));
+    }
+
+    /**
+     * Passes editStudio on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @param newStudioName studio that released film
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
+        return time("editStudio", () -> dao.editStudio(title, newStudioName));
+    }
+
+    /**
+     * Passes addAll on to the wrapped DAO and records how long it took.
+     *
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public void addAll(Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        time("addAll", () -> {
+            dao.addAll(newDvds);
+            return null;
+        });
+    }
+
+    /**
+     * Passes removeAll on to the wrapped DAO and records how long it took.
+     *
+     * @param titles titles of DVDs to be removed
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> removeAll(Collection<String> titles) throws DvdLibraryDaoException {
+        return time("removeAll", () -> dao.removeAll(titles));
+    }
+
+    /**
+     * Passes applyBatch on to the wrapped DAO and records how long it took.
+     *
+     * @param edits field edits to apply
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        return time("applyBatch", () -> dao.applyBatch(edits));
+    }
+
+    /**
+     * Passes updateDvd on to the wrapped DAO and records how long it took.
+     *
+     * @param title title of the DVD
+     * @param patch new values of the fields to change
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public Dvd updateDvd(String title, DvdPatch patch) throws DvdLibraryDaoException {
+        return time("updateDvd", () -> dao.updateDvd(title, patch));
+    }
+
+    /**
+     * Passes applyChanges on to the wrapped DAO and records how long it took.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles, Collection<Dvd> newDvds)
+            throws DvdLibraryDaoException {
+        time("applyChanges", () -> {
+            dao.applyChanges(edits, removedTitles, newDvds);
+            return null;
+        });
+    }
+
+    /**
+     * Passes findDvds on to the wrapped DAO and records how long it took.
+     *
+     * @param query criteria to match
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> findDvds(DvdQuery query) throws DvdLibraryDaoException {
+        return time("findDvds", () -> dao.findDvds(query));
+    }
+
+    /**
+     * Passes getDvdsByDirector on to the wrapped DAO and records how long it took.
+     *
+     * @param directorsName name of film director
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsByDirector(String directorsName) throws DvdLibraryDaoException {
+        return time("getDvdsByDirector", () -> dao.getDvdsByDirector(directorsName));
+    }
+
+    /**
+     * Passes getDvdsByStudio on to the wrapped DAO and records how long it took.
+     *
+     * @param studio studio that released film
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsByStudio(String studio) throws DvdLibraryDaoException {
+        return time("getDvdsByStudio", () -> dao.getDvdsByStudio(studio));
+    }
+
+    /**
+     * Passes getDvdsByMPAA on to the wrapped DAO and records how long it took.
+     *
+     * @param mpaa MPAA rating
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsByMPAA(String mpaa) throws DvdLibraryDaoException {
+        return time("getDvdsByMPAA", () -> dao.getDvdsByMPAA(mpaa));
+    }
+
+    /**
+     * Passes getDvdsByReleaseYear on to the wrapped DAO and records how long it took.
+     *
+     * @param releaseYear four digit release year
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> getDvdsByReleaseYear(int releaseYear) throws DvdLibraryDaoException {
+        return time("getDvdsByReleaseYear", () -> dao.getDvdsByReleaseYear(releaseYear));
+    }
+
+    /**
+     * Passes searchDvds on to the wrapped DAO and records how long it took.
+     *
+     * @param text all or the start of a title, possibly mistyped
+     * @param limit maximum number of DVDs to return
+     * @return what the wrapped DAO returned
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public List<Dvd> searchDvds(String text, int limit) throws DvdLibraryDaoException {
+        return time("searchDvds", () -> dao.searchDvds(text, limit));
+    }
+
+    /**
+     * Passes close on to the wrapped DAO and records how long it took.
+     *
+     * @throws DvdLibraryDaoException if the wrapped DAO throws it
+     */
+    @Override
+    public void close() throws DvdLibraryDaoException {
+        time("close", () -> {
+            dao.close();
+            return null;
+        });
+    }
+
+    /**
+     * Runs one call on the wrapped DAO and records its latency, as a
+     * failure if it throws.
+     *
+     * @param operation name the call is recorded under
+     * @param call call to run
+     * @return what the call returned
+     * @throws DvdLibraryDaoException if the call threw it
+     */
+    private <T> T time(String operation, DaoCall<T> call) throws DvdLibraryDaoException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            failed = false;
+            return result;
+        } finally {
+            metrics.recordOperation(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * A call on the wrapped DAO.
+     */
+    @FunctionalInterface
+    private interface DaoCall<T> {
+        T call() throws DvdLibraryDaoException;
+    }
+}
@@ -0,0 +1,465 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * The {@code DvdLibraryDaoOffHeapImpl} class implements the
+ * DvdLibraryDao interface for catalogs too large to keep comfortably
+ * on the Java heap.
+ * <p>
+ * The "::" library file is loaded once into a DvdColumnStore, which
+ * keeps every record column by column in direct buffers. The heap
+ * holds no Dvd object per title, so garbage collection pauses do not
+ * grow with the catalog; Dvd objects are decoded only for the rows a
+ * call returns. Queries scan the id columns, and listing in title
+ * order reads a sorted column of row numbers. Every change rewrites
+ * the file, as DvdLibraryDaoBinaryImpl does. A missing file is
+ * treated as an empty library.
+ */
+
+public class DvdLibraryDaoOffHeapImpl implements DvdLibraryDao {
+
+    // Text library file
+    private final Path libraryFile;
+    // Off-heap columns holding the library; null until loaded
+    private DvdColumnStore dvds;
+    // Loads and writes of the library file are timed in here
+    private final DvdLibraryMetrics metrics = DvdLibraryMetrics.shared();
+
+    /**
+     * No arg constructor, uses "dvdTest.txt".
+     */
+    public DvdLibraryDaoOffHeapImpl() {
+        this("dvdTest.txt");
+    }
+
+    /**
+     * Constructor accepts String parameter
+     *
+     * @param libraryTextFile name of file with DVD info
+     */
+    public DvdLibraryDaoOffHeapImpl(String libraryTextFile) {
+        this.libraryFile = Paths.get(libraryTextFile);
+    }
+
+    /**
+     * Adds a new Dvd object and writes the library
+     *
+     * @param title with which DVD is to be associated
+     * @param dvd DVD to be added to the library
+     * @return Dvd object previously stored under the title, or null
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd addDvd(String title, Dvd dvd) throws DvdLibraryDaoException {
+        Dvd previousDvd = load().put(title, dvd);
+        writeLibrary();
+        return previousDvd;
+    }
+
+    /**
+     * Decodes every row into a Dvd object, loading the library if needed
+     *
+     * @return ArrayList of every Dvd object
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getAllDvds() throws DvdLibraryDaoException {
+        return new ArrayList<>(load().values());
+    }
+
+    /**
+     * Counts the Dvd objects, loading the library if needed.
+     *
+     * @return number of DVDs in the library
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized int countDvds() throws DvdLibraryDaoException {
+        return load().size();
+    }
+
+    /**
+     * Gets one page of Dvd objects in title order from the sorted
+     * row column, loading the library if needed.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs on the page
+     * @return Dvd objects on the page
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdPage(int offset, int limit) throws DvdLibraryDaoException {
+        return load().page(offset, limit);
+    }
+
+    /**
+     * Gets the Dvd objects that come straight after a title in title
+     * order by binary searching the sorted row column.
+     *
+     * @param title title to start after, or null to start at the first
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsAfter(String title, int limit) throws DvdLibraryDaoException {
+        return load().after(title, limit);
+    }
+
+    /**
+     * Gets the Dvd objects that come straight before a title in title
+     * order by binary searching the sorted row column.
+     *
+     * @param title title to end before, or null to end at the last
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsBefore(String title, int limit) throws DvdLibraryDaoException {
+        return load().before(title, limit);
+    }
+
+    /**
+     * Gets the Dvd objects in a title range from the sorted row
+     * column, loading the library if needed.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> getDvdsBetween(String fromTitle, String toTitle, int limit) throws DvdLibraryDaoException {
+        return load().between(fromTitle, toTitle, limit);
+    }
+
+    /**
+     * Retrieves Dvd object associated with specified title through
+     * the off-heap title hash table
+     *
+     * @param title title of the DVD to retrieve
+     * @return Dvd object associated with title, or null
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized Dvd getDvd(String title) throws DvdLibraryDaoException {
+        return load().get(title);
+    }
+
+    /**
+     * Finds the Dvd objects matching a query by scanning the id
+     * columns, loading the library if needed
+     *
+     * @param query criteria to match
+     * @return matching Dvd objects
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    @Override
+    public synchronized List<Dvd> findDvds(DvdQuery query) throws DvdLibraryDaoException {
+        return load().find(query);
+    }
+
+    /**
+     * Removes Dvd object associated with specified title
+     *
+     * @param title title of DVD to be removed
+     * @return removed Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd removeDvd(String title) throws DvdLibraryDaoException {
+        Dvd removedDvd = load().remove(title);
+        if (removedDvd != null) {
+            writeLibrary();
+        }
+        return removedDvd;
+    }
+
+    /**
+     * Edits the release date of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newReleaseDate release date for Dvd
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd editReleaseDate(String title, String newReleaseDate) throws DvdLibraryDaoException {
+        return edit(title, DvdField.RELEASE_DATE, newReleaseDate);
+    }
+
+    /**
+     * Edits the MPAA rating of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newMpaaRating rating of DVD
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd editMPAA(String title, String newMpaaRating) throws DvdLibraryDaoException {
+        return edit(title, DvdField.MPAA, newMpaaRating);
+    }
+
+    /**
+     * Edits the director name of the current Dvd object
+     *
+     * @param title title of DVD to be edited
+     * @param newDirectorName name of film director
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd editDirectorName(String title, String newDirectorName) throws DvdLibraryDaoException {
+        return edit(title, DvdField.DIRECTOR_NAME, newDirectorName);
+    }
+
+    /**
+     * Edits the user rating of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newUserRating user rating of DVD
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd editUserRating(String title, String newUserRating) throws DvdLibraryDaoException {
+        return edit(title, DvdField.USER_RATING, newUserRating);
+    }
+
+    /**
+     * Edits the studio name of the current Dvd object
+     *
+     * @param title of DVD to be edited
+     * @param newStudioName studio that released film
+     * @return edited Dvd object, or null if no DVD has that title
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized Dvd editStudio(String title, String newStudioName) throws DvdLibraryDaoException {
+        return edit(title, DvdField.STUDIO, newStudioName);
+    }
+
+    /**
+     * Adds every given Dvd object and writes the library once
+     *
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized void addAll(Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        load();
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        for (Dvd dvd : newDvds) {
+            previous.putIfAbsent(dvd.getTitle(), dvds.put(dvd.getTitle(), dvd));
+        }
+        writeBatch(previous);
+    }
+
+    /**
+     * Removes the Dvd objects with the given titles and writes the
+     * library once
+     *
+     * @param titles titles of DVDs to be removed
+     * @return removed Dvd objects
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    @Override
+    public synchronized List<Dvd> removeAll(Collection<String> titles) throws DvdLibraryDaoException {
+        load();
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        List<Dvd> removedDvds = new ArrayList<>();
+        for (String title : titles) {
+            Dvd removedDvd = dvds.remove(title);
+            if (removedDvd != null) {
+                previous.put(title, removedDvd);
+                removedDvds.add(removedDvd);
+            }
+        }
+        if (!removedDvds.isEmpty()) {
+            writeBatch(previous);
+        }
+        return removedDvds;
+    }
+
+    /**
+     * Applies a list of field edits and writes the library once.
+     * Nothing changes if any title is missing.
+     *
+     * @param edits field edits to apply
+     * @return edited Dvd objects, one per edit
+     * @throws DvdLibraryDaoException if a title is missing or the file
+     * could not be written
+     */
+    @Override
+    public synchronized List<Dvd> applyBatch(List<DvdEdit> edits) throws DvdLibraryDaoException {
+        load();
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+        }
+
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        List<Dvd> editedDvds = new ArrayList<>();
+        for (DvdEdit edit : edits) {
+            Dvd editedDvd = edit.getField().apply(dvds.get(edit.getTitle()), edit.getValue());
+            previous.putIfAbsent(edit.getTitle(), dvds.put(edit.getTitle(), editedDvd));
+            editedDvds.add(editedDvd);
+        }
+        writeBatch(previous);
+        return editedDvds;
+    }
+
+    /**
+     * Drops the columns so their direct buffers can be freed. The
+     * library is loaded again if the DAO is used after closing.
+     */
+    @Override
+    public synchronized void close() {
+        dvds = null;
+    }
+
+    private Dvd edit(String title, DvdField field, String value) throws DvdLibraryDaoException {
+        Dvd editedDvd = load().edit(title, field, value);
+        if (editedDvd != null) {
+            writeLibrary();
+        }
+        return editedDvd;
+    }
+
+    /**
+     * Applies field edits, removals and additions and writes the
+     * library once for all of them. Nothing changes if any title to
+     * edit is missing or any DVD has changed since the version an edit
+     * expects, and if the write fails the library is left as it was.
+     *
+     * @param edits field edits to apply
+     * @param removedTitles titles of DVDs to be removed
+     * @param newDvds DVDs to be added to the library
+     * @throws DvdLibraryDaoException if a title to edit is missing, a
+     * version does not match or the file could not be written
+     */
+    @Override
+    public synchronized void applyChanges(List<DvdEdit> edits, Collection<String> removedTitles,
+                                          Collection<Dvd> newDvds) throws DvdLibraryDaoException {
+        load();
+        for (DvdEdit edit : edits) {
+            Dvd currentDvd = dvds.get(edit.getTitle());
+            if (currentDvd == null) {
+                throw new DvdLibraryDaoException("No such DVD: " + edit.getTitle());
+            }
+            DvdLibraryConflictException.check(edit, currentDvd);
+        }
+
+        Map<String, Dvd> previous = new HashMap<>(); // Values to restore on failure
+        for (DvdEdit edit : edits) {
+            Dvd editedDvd = edit.getField().apply(dvds.get(edit.getTitle()), edit.getValue());
+            previous.putIfAbsent(edit.getTitle(), dvds.put(edit.getTitle(), editedDvd));
+        }
+        for (String title : removedTitles) {
+            Dvd removedDvd = dvds.remove(title);
+            if (removedDvd != null) {
+                previous.putIfAbsent(title, removedDvd);
+            }
+        }
+        for (Dvd dvd : newDvds) {
+            Dvd previousDvd = dvds.put(dvd.getTitle(), dvd);
+            if (!previous.containsKey(dvd.getTitle())) {
+                previous.put(dvd.getTitle(), previousDvd);
+            }
+        }
+        if (!previous.isEmpty()) {
+            writeBatch(previous);
+        }
+    }
+
+    /**
+     * Writes the library after a batch. If that fails, puts back the
+     * values the batch replaced so memory matches the file again.
+     *
+     * @param previous value each changed title had before the batch,
+     *                 null for titles the batch added
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    private void writeBatch(Map<String, Dvd> previous) throws DvdLibraryDaoException {
+        try {
+            writeLibrary();
+        } catch (DvdLibraryDaoException e) {
+            for (Map.Entry<String, Dvd> entry : previous.entrySet()) {
+                if (entry.getValue() == null) {
+                    dvds.remove(entry.getKey());
+                } else {
+                    dvds.put(entry.getKey(), entry.getValue());
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the whole library into the off-heap columns if it is not
+     * loaded yet. Each load is timed in the shared DvdLibraryMetrics.
+     *
+     * @return the loaded library
+     * @throws DvdLibraryDaoException if the file could not be read
+     */
+    private DvdColumnStore load() throws DvdLibraryDaoException {
+        if (dvds == null) {
+            DvdColumnStore loaded = new DvdColumnStore();
+            if (Files.exists(libraryFile)) {
+                long start = System.nanoTime();
+                boolean failed = true;
+                long size = 0;
+                long parsed = 0;
+                try {
+                    size = Files.size(libraryFile);
+                    parsed = DvdTextFormat.readLibrary(libraryFile,
+                            currentDvd -> loaded.put(currentDvd.getTitle(), currentDvd));
+                    failed = false;
+                } catch (IOException e) {
+                    throw new DvdLibraryDaoException("*** Could not load DVD data into memory.", e);
+                } finally {
+                    metrics.recordRead("loadDvdFile", System.nanoTime() - start, failed, size, parsed);
+                }
+            }
+            dvds = loaded;
+        }
+        return dvds;
+    }
+
+    /**
+     * Writes the library to the text file, decoding one row at a time
+     * so the whole catalog is never on the heap at once. Each write is
+     * timed in the shared DvdLibraryMetrics.
+     *
+     * @throws DvdLibraryDaoException if the file could not be written
+     */
+    private void writeLibrary() throws DvdLibraryDaoException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        long size = 0;
+        try {
+            DvdTextFormat.writeLibrary(libraryFile, dvds.values());
+            size = Files.size(libraryFile);
+            failed = false;
+        } catch (IOException e) {
+            throw new DvdLibraryDaoException("Could not save dvd data.", e);
+        } finally {
+            metrics.recordWrite("writeDvdFile", System.nanoTime() - start, failed, size, dvds.size());
+        }
+    }
+}
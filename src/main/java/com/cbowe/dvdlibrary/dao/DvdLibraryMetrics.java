@@ -0,0 +1,168 @@
+package com.cbowe.dvdlibrary.dao;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code DvdLibraryMetrics} class collects how often each DAO
+ * operation runs, how often it fails and how long it takes, along
+ * with running totals such as bytes read and written and records
+ * parsed. Latencies go into a LatencyHistogram per operation, so the
+ * report can show p50, p99 and p999 as well as the mean and maximum.
+ * <p>
+ * DvdLibraryDaoMeteredImpl records every call made through it, and
+ * DvdLibraryDaoCachedImpl counts its hits, misses and evictions, all
+ * into the shared instance by default. Each file-backed DAO times its
+ * loads and writes of its library file there too and adds the bytes
+ * and records they moved; the journal also counts what it appends.
+ * DvdLibraryDaoDatabaseImpl leaves storage to H2, so it only reports
+ * its one-off import of the text file, and DvdLibraryDaoMemoryImpl
+ * has no file to report. Recording is lock free and safe from any
+ * thread.
+ */
+
+public final class DvdLibraryMetrics {
+
+    // Instance used unless a DAO is given its own
+    private static final DvdLibraryMetrics SHARED = new DvdLibraryMetrics();
+
+    // Latencies and failure counts keyed by operation name, sorted so
+    // the report lists operations in a stable order
+    private final Map<String, Operation> operations = new ConcurrentSkipListMap<>();
+    // Running totals keyed by counter name
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns the instance the DAOs record into by default.
+     *
+     * @return the shared metrics
+     */
+    public static DvdLibraryMetrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Records one run of an operation.
+     *
+     * @param operation name of the operation, such as "getDvd"
+     * @param nanos how long it took
+     * @param failed whether it ended with an exception
+     */
+    void recordOperation(String operation, long nanos, boolean failed) {
+        Operation stats = operations.computeIfAbsent(operation, name -> new Operation());
+        stats.latency.record(nanos);
+        if (failed) {
+            stats.failures.increment();
+        }
+    }
+
+    /**
+     * Records one load of a library file: how long it took and, if it
+     * succeeded, the bytes read and records parsed.
+     *
+     * @param operation name of the load, such as "loadDvdFile"
+     * @param nanos how long it took
+     * @param failed whether it ended with an exception
+     * @param bytes bytes read
+     * @param records records parsed
+     */
+    void recordRead(String operation, long nanos, boolean failed, long bytes, long records) {
+        recordOperation(operation, nanos, failed);
+        if (!failed) {
+            add("bytes read", bytes);
+            add("records parsed", records);
+        }
+    }
+
+    /**
+     * Records one write of a library file: how long it took and, if it
+     * succeeded, the bytes and records written.
+     *
+     * @param operation name of the write, such as "writeDvdFile"
+     * @param nanos how long it took
+     * @param failed whether it ended with an exception
+     * @param bytes bytes written
+     * @param records records written
+     */
+    void recordWrite(String operation, long nanos, boolean failed, long bytes, long records) {
+        recordOperation(operation, nanos, failed);
+        if (!failed) {
+            add("bytes written", bytes);
+            add("records written", records);
+        }
+    }
+
+    /**
+     * Adds to a running total.
+     *
+     * @param counter name of the counter, such as "bytes read"
+     * @param amount amount to add
+     */
+    void add(String counter, long amount) {
+        counter(counter).add(amount);
+    }
+
+    /**
+     * Returns a running total, creating it at zero if needed, for
+     * callers that update it too often to look it up by name each time.
+     *
+     * @param counter name of the counter, such as "cache hits"
+     * @return the counter, shown in the report under its name
+     */
+    LongAdder counter(String counter) {
+        return counters.computeIfAbsent(counter, name -> new LongAdder());
+    }
+
+    /**
+     * Formats every operation and counter recorded so far as a text
+     * table. Latencies are in microseconds.
+     *
+     * @return the report, one line per operation or counter
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-20s %10s %8s %10s %10s %10s %10s %10s%n",
+                "Operation", "Count", "Failed", "Mean us", "p50 us", "p99 us", "p999 us", "Max us"));
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            report.append(String.format("%-20s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    entry.getKey(), latency.count(), entry.getValue().failures.sum(),
+                    latency.mean() / 1000, latency.percentile(0.50) / 1000.0,
+                    latency.percentile(0.99) / 1000.0, latency.percentile(0.999) / 1000.0,
+                    latency.max() / 1000.0));
+        }
+        if (operations.isEmpty()) {
+            report.append("No operations recorded yet").append(System.lineSeparator());
+        }
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            report.append(String.format("%-20s %10d%n", entry.getKey(), entry.getValue().sum()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes the report to a local file, replacing its contents, with
+     * the time it was taken on the first line.
+     *
+     * @param file file to write
+     * @throws IOException if the file could not be written
+     */
+    public void exportTo(Path file) throws IOException {
+        Files.write(file, ("Taken at " + Instant.now() + System.lineSeparator() + report())
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Latency histogram and failure count of one operation.
+     */
+    private static final class Operation {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder failures = new LongAdder();
+    }
+}
@@ -0,0 +1,714 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.zip.Checksum;
+
+/**
+ * The {@code DvdTextFormat} class holds the "::" delimited text format
+ * used by the library files. One line holds one DVD: title, release
+ * date, MPAA rating, director's name, studio and user rating, then
+ * the DVD's version stamp. Lines written before stamps were kept have
+ * no seventh field and are read as Dvd.UNVERSIONED, and such DVDs are
+ * written back the same way until they are next changed.
+ */
+
+public final class DvdTextFormat {
+
+    // Constant to store delimiter for separating String into tokens
+    public static final String DELIMITER = "::";
+    // Size of the buffer encoded lines are collected in before each
+    // write to the file channel
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    // Size of the char buffer library files are decoded into
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // Files smaller than this are parsed on the calling thread
+    private static final long PARALLEL_THRESHOLD = 4L * 1024 * 1024;
+    // Number of byte ranges per fork-join worker, so a slow range
+    // does not leave the other workers idle
+    private static final int CHUNKS_PER_WORKER = 4;
+    // Largest byte range one parsing task reads into memory
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private DvdTextFormat() {
+    }
+
+    /**
+     * Method to unmarshall the object or read a line of
+     * string from the file and convert it into an object
+     *
+     * @param dvdAsText text representation of a Dvd object
+     * @return Dvd object created from String representation
+     * @throws DvdLibraryDaoException if the line does not hold six
+     * or seven fields
+     */
+    public static Dvd unmarshallDvd(String dvdAsText) throws DvdLibraryDaoException {
+        // Find the five or six delimiters in one pass without a regex
+        int releaseDate = fieldStart(dvdAsText, 0);
+        int mpaa = fieldStart(dvdAsText, releaseDate);
+        int director = fieldStart(dvdAsText, mpaa);
+        int studio = fieldStart(dvdAsText, director);
+        int userRating = fieldStart(dvdAsText, studio);
+        int version = fieldStart(dvdAsText, userRating);
+        if (userRating < 0 || fieldStart(dvdAsText, version) >= 0) {
+            throw malformed(dvdAsText, 0);
+        }
+
+        int d = DELIMITER.length();
+        int end = dvdAsText.length();
+        return new Dvd(
+                dvdAsText.substring(0, releaseDate - d),
+                dvdAsText.substring(releaseDate, mpaa - d),
+                dvdAsText.substring(mpaa, director - d),
+                dvdAsText.substring(director, studio - d),
+                dvdAsText.substring(studio, userRating - d),
+                dvdAsText.substring(userRating, version < 0 ? end : version - d),
+                version < 0 ? Dvd.UNVERSIONED : parseVersion(dvdAsText, version, end, 0));
+    }
+
+    /**
+     * Unmarshalls the line held in chars[start, end). Each field is
+     * copied straight out of the buffer, so the line itself is never
+     * turned into a String.
+     *
+     * @param chars buffer holding the line
+     * @param start index of the first character of the line
+     * @param end index just past the last character of the line
+     * @param lineNumber line number used in error messages
+     * @return Dvd object created from the line
+     * @throws DvdLibraryDaoException if the line does not hold six
+     * or seven fields
+     */
+    static Dvd unmarshallDvd(char[] chars, int start, int end, long lineNumber)
+            throws DvdLibraryDaoException {
+        int releaseDate = fieldStart(chars, start, end);
+        int mpaa = fieldStart(chars, releaseDate, end);
+        int director = fieldStart(chars, mpaa, end);
+        int studio = fieldStart(chars, director, end);
+        int userRating = fieldStart(chars, studio, end);
+        int version = fieldStart(chars, userRating, end);
+        if (userRating < 0 || fieldStart(chars, version, end) >= 0) {
+            throw malformed(new String(chars, start, end - start), lineNumber);
+        }
+
+        int d = DELIMITER.length();
+        int userRatingEnd = version < 0 ? end : version - d;
+        return new Dvd(
+                new String(chars, start, releaseDate - d - start),
+                new String(chars, releaseDate, mpaa - d - releaseDate),
+                new String(chars, mpaa, director - d - mpaa),
+                new String(chars, director, studio - d - director),
+                new String(chars, studio, userRating - d - studio),
+                new String(chars, userRating, userRatingEnd - userRating),
+                version < 0 ? Dvd.UNVERSIONED : parseVersion(
+                        CharBuffer.wrap(chars, start, end - start), version - start, end - start, lineNumber));
+    }
+
+    /**
+     * Parses the version stamp field of a line.
+     *
+     * @param line the line, or a view of it
+     * @param from index of the first digit
+     * @param to index just past the last digit
+     * @param lineNumber line number used in error messages, or 0
+     * @return the version stamp
+     * @throws DvdLibraryDaoException if the field is not a whole number
+     */
+    private static long parseVersion(CharSequence line, int from, int to, long lineNumber)
+            throws DvdLibraryDaoException {
+        try {
+            long version = Long.parseLong(line, from, to, 10);
+            if (version >= 0) {
+                return version;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        String where = lineNumber > 0 ? " at line " + lineNumber : "";
+        throw new DvdLibraryDaoException("Malformed DVD record" + where
+                + ": version must be a whole number: " + line);
+    }
+
+    /**
+     * Finds the start of the field after the one starting at from.
+     *
+     * @param text line being parsed
+     * @param from start of the current field, or -1 if it was missing
+     * @return index just past the next delimiter, or -1 if there is none
+     */
+    private static int fieldStart(String text, int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int delimiter = text.indexOf(DELIMITER, from);
+        return delimiter < 0 ? -1 : delimiter + DELIMITER.length();
+    }
+
+    /**
+     * Finds the start of the field after the one starting at from,
+     * looking no further than end.
+     *
+     * @param chars buffer holding the line
+     * @param from start of the current field, or -1 if it was missing
+     * @param end index just past the last character of the line
+     * @return index just past the next delimiter, or -1 if there is none
+     */
+    private static int fieldStart(char[] chars, int from, int end) {
+        if (from < 0) {
+            return -1;
+        }
+        for (int i = from, last = end - 1; i < last; i++) {
+            if (chars[i] == ':' && chars[i + 1] == ':') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds the error for a line that does not hold six or seven fields.
+     *
+     * @param line the offending line
+     * @param lineNumber its line number, or 0 if unknown
+     * @return exception describing the line
+     */
+    private static DvdLibraryDaoException malformed(String line, long lineNumber) {
+        int fields = 1;
+        for (int i = 0; i < line.length() - 1; i++) {
+            if (line.charAt(i) == ':' && line.charAt(i + 1) == ':') {
+                fields++;
+                i++;
+            }
+        }
+        String where = lineNumber > 0 ? " at line " + lineNumber : "";
+        return new DvdLibraryDaoException("Malformed DVD record" + where
+                + ": expected 6 or 7 fields separated by \"" + DELIMITER + "\" but found "
+                + fields + ": " + line);
+    }
+
+    /**
+     * Reads a library file, handing each DVD to the consumer in file
+     * order on the calling thread. Blank lines are skipped. Files of
+     * PARALLEL_THRESHOLD bytes or more are split into newline-aligned
+     * byte ranges that are parsed at the same time on the common
+     * fork-join pool; smaller files are parsed on the calling thread.
+     * Either way the consumer sees the same DVDs in the same order, so
+     * when a title appears more than once the last line still wins.
+     *
+     * @param file library file to read
+     * @param consumer receives each DVD
+     * @return number of DVDs read
+     * @throws IOException if the file could not be read
+     * @throws DvdLibraryDaoException if a line is malformed
+     */
+    public static long readLibrary(Path file, Consumer<Dvd> consumer)
+            throws IOException, DvdLibraryDaoException {
+        long size = Files.size(file);
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (parallelism > 1 && size >= PARALLEL_THRESHOLD) {
+            return readRange(file, 0, size, parallelism * CHUNKS_PER_WORKER, null, consumer);
+        }
+        return readSequentially(file, consumer);
+    }
+
+    /**
+     * Reads the lines in one byte range of a library file, such as the
+     * lines appended since the file was last read, handing each DVD to
+     * the consumer in file order on the calling thread. The range must
+     * start at the beginning of a line. Bytes past end are not read,
+     * even if the file has grown since. Line numbers in errors count
+     * from the start of the range.
+     *
+     * @param file library file to read
+     * @param start offset of the first byte to read
+     * @param end offset just past the last byte to read
+     * @param consumer receives each DVD
+     * @return number of DVDs read
+     * @throws IOException if the file could not be read
+     * @throws DvdLibraryDaoException if a line is malformed
+     */
+    public static long readLibrary(Path file, long start, long end, Consumer<Dvd> consumer)
+            throws IOException, DvdLibraryDaoException {
+        return readLibrary(file, start, end, null, consumer);
+    }
+
+    /**
+     * Reads the lines in one byte range of a library file as
+     * {@link #readLibrary(Path, long, long, Consumer)} does, also
+     * feeding every byte of the range, in order, to a checksum, so a
+     * caller that tracks the file's contents need not read it again.
+     *
+     * @param file library file to read
+     * @param start offset of the first byte to read
+     * @param end offset just past the last byte to read
+     * @param checksum updated with the bytes read; may be null
+     * @param consumer receives each DVD
+     * @return number of DVDs read
+     * @throws IOException if the file could not be read
+     * @throws DvdLibraryDaoException if a line is malformed
+     */
+    static long readLibrary(Path file, long start, long end, Checksum checksum, Consumer<Dvd> consumer)
+            throws IOException, DvdLibraryDaoException {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int chunks = parallelism > 1 && end - start >= PARALLEL_THRESHOLD
+                ? parallelism * CHUNKS_PER_WORKER : 1;
+        return readRange(file, start, end, chunks, checksum, consumer);
+    }
+
+    /**
+     * Reads a library file on the calling thread, handing each DVD to
+     * the consumer in file order. The file is decoded into one reused
+     * char buffer and each line is parsed where it sits in that
+     * buffer. Blank lines are skipped.
+     *
+     * @param file library file to read
+     * @param consumer receives each DVD
+     * @return number of DVDs read
+     * @throws IOException if the file could not be read
+     * @throws DvdLibraryDaoException if a line is malformed
+     */
+    private static long readSequentially(Path file, Consumer<Dvd> consumer)
+            throws IOException, DvdLibraryDaoException {
+        char[] chars = new char[READ_BUFFER_SIZE];
+        int filled = 0;
+        long lineNumber = 0;
+        long count = 0;
+
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            while (true) {
+                // Make room for more input, growing only for a line
+                // longer than the whole buffer
+                if (filled == chars.length) {
+                    chars = Arrays.copyOf(chars, chars.length * 2);
+                }
+                int read = in.read(chars, filled, chars.length - filled);
+                boolean endOfFile = read < 0;
+                if (!endOfFile) {
+                    filled += read;
+                }
+
+                int lineStart = 0;
+                for (int i = 0; i < filled; i++) {
+                    if (chars[i] != '\n') {
+                        continue;
+                    }
+                    lineNumber++;
+                    count += parseLine(chars, lineStart, i, lineNumber, consumer);
+                    lineStart = i + 1;
+                }
+
+                if (endOfFile) {
+                    // Last line without a trailing line break
+                    if (lineStart < filled) {
+                        count += parseLine(chars, lineStart, filled, lineNumber + 1, consumer);
+                    }
+                    return count;
+                }
+
+                // Move the partial line to the front of the buffer
+                System.arraycopy(chars, lineStart, chars, 0, filled - lineStart);
+                filled -= lineStart;
+            }
+        }
+    }
+
+    /**
+     * Parses one line out of the read buffer, ignoring a trailing
+     * carriage return and skipping blank lines.
+     *
+     * @return 1 if a DVD was read, 0 for a blank line
+     */
+    private static int parseLine(char[] chars, int start, int end, long lineNumber,
+                                 Consumer<Dvd> consumer) throws DvdLibraryDaoException {
+        if (end > start && chars[end - 1] == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return 0;
+        }
+        consumer.accept(unmarshallDvd(chars, start, end, lineNumber));
+        return 1;
+    }
+
+    /**
+     * Parses a byte range of a library file on the common fork-join
+     * pool. Every chunk is forked up front and the results are joined
+     * in file order, so the consumer can take the first chunk's DVDs
+     * while later chunks are still being parsed. If a checksum is
+     * given, each chunk's bytes are kept until it is joined and then
+     * added to the checksum, so the checksum sees the range in order.
+     */
+    private static long readRange(Path file, long start, long end, int chunks, Checksum checksum,
+                                  Consumer<Dvd> consumer) throws IOException, DvdLibraryDaoException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel, start, end, chunks);
+            List<ChunkParser> parsers = new ArrayList<>(bounds.length - 1);
+            try {
+                for (int i = 0; i + 1 < bounds.length; i++) {
+                    ChunkParser parser = new ChunkParser(channel, bounds[i], bounds[i + 1], checksum != null);
+                    parser.fork();
+                    parsers.add(parser);
+                }
+
+                long lineNumber = 0;
+                long count = 0;
+                for (ChunkParser parser : parsers) {
+                    ParsedChunk chunk = parser.join();
+                    if (chunk.badLine != null) {
+                        throw malformed(chunk.badLine, lineNumber + chunk.badLineNumber);
+                    }
+                    if (checksum != null) {
+                        checksum.update(chunk.bytes);
+                        chunk.bytes = null;
+                    }
+                    for (Dvd dvd : chunk.dvds) {
+                        consumer.accept(dvd);
+                    }
+                    lineNumber += chunk.lines;
+                    count += chunk.dvds.size();
+                }
+                return count;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                // Stop ranges nobody will join once reading has failed
+                for (ChunkParser parser : parsers) {
+                    parser.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits a byte range into about the given number of chunks, each
+     * moved forward to start just after a line break so that no line
+     * is split between two chunks.
+     *
+     * @return chunk count + 1 offsets, from start to end
+     */
+    private static long[] chunkBounds(FileChannel channel, long start, long end, int chunks)
+            throws IOException {
+        long length = end - start;
+        chunks = (int) Math.max(chunks, (length + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        long[] bounds = new long[chunks + 1];
+        bounds[0] = start;
+        ByteBuffer probe = ByteBuffer.allocate(8 * 1024);
+        for (int i = 1; i < chunks; i++) {
+            long position = Math.max(bounds[i - 1], start + length / chunks * i);
+            bounds[i] = position == start ? start
+                    : Math.min(end, nextLineStart(channel, position - 1, probe));
+        }
+        bounds[chunks] = end;
+        return bounds;
+    }
+
+    /**
+     * Finds the offset just after the first line break at or after
+     * position, or the file size if there is none.
+     */
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer probe)
+            throws IOException {
+        while (true) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read < 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Lines parsed from one byte range of a library file.
+     */
+    private static final class ParsedChunk {
+        // DVDs in the order their lines appear
+        private final List<Dvd> dvds = new ArrayList<>();
+        // Number of line breaks in the range
+        private int lines;
+        // First malformed line and its line number within the range;
+        // null if every line parsed
+        private String badLine;
+        private int badLineNumber;
+        // Bytes of the range, kept only for a checksum
+        private ByteBuffer bytes;
+    }
+
+    /**
+     * Fork-join task that reads one newline-aligned byte range and
+     * parses its lines. A range never splits a line, and a line break
+     * is never part of a multi-byte UTF-8 sequence, so each range can
+     * be decoded on its own.
+     */
+    private static final class ChunkParser extends RecursiveTask<ParsedChunk> {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        // Whether to keep the range's bytes for a checksum
+        private final boolean keepBytes;
+
+        ChunkParser(FileChannel channel, long start, long end, boolean keepBytes) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.keepBytes = keepBytes;
+        }
+
+        @Override
+        protected ParsedChunk compute() {
+            ParsedChunk chunk = new ParsedChunk();
+            CharBuffer text;
+            try {
+                ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+                while (bytes.hasRemaining()) {
+                    if (channel.read(bytes, start + bytes.position()) < 0) {
+                        throw new EOFException("Library file shrank while it was being read");
+                    }
+                }
+                bytes.flip();
+                text = StandardCharsets.UTF_8.newDecoder().decode(bytes);
+                if (keepBytes) {
+                    chunk.bytes = bytes.rewind();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            char[] chars = text.array();
+            int length = text.limit();
+            int lineStart = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i < length && chars[i] != '\n') {
+                    continue;
+                }
+                if (i == length && lineStart == length) {
+                    break; // No last line without a line break
+                }
+                int lineEnd = i > lineStart && chars[i - 1] == '\r' ? i - 1 : i;
+                if (lineEnd > lineStart) {
+                    try {
+                        chunk.dvds.add(unmarshallDvd(chars, lineStart, lineEnd, 0));
+                    } catch (DvdLibraryDaoException e) {
+                        chunk.badLine = new String(chars, lineStart, lineEnd - lineStart);
+                        chunk.badLineNumber = chunk.lines + 1;
+                        return chunk;
+                    }
+                }
+                if (i < length) {
+                    chunk.lines++;
+                }
+                lineStart = i + 1;
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * Checks that a title or field value can be written as one field
+     * of a library line and read back unchanged. It must not contain
+     * the delimiter or a line break, nor end with ':', which would run
+     * into the delimiter written after it.
+     *
+     * @param value title or field value
+     * @return true if the value can be stored, false if it is null or
+     * would break the line it is written in
+     */
+    public static boolean isStorable(String value) {
+        return value != null
+                && !value.contains(DELIMITER)
+                && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0
+                && !value.endsWith(":");
+    }
+
+    /**
+     * This method turns a Dvd object into a line of text to store
+     * in a library file.
+     *
+     * @param aDvd Dvd object to be marshalled
+     * @return Dvd object as String separated by DELIMITER
+     */
+    public static String marshallDvd(Dvd aDvd) {
+        return appendDvd(new StringBuilder(128), aDvd).toString();
+    }
+
+    /**
+     * Appends the text form of a Dvd object to a StringBuilder, so a
+     * whole file can be written through one reused builder.
+     *
+     * @param line builder to append to
+     * @param aDvd Dvd object to be marshalled
+     * @return the builder passed in
+     */
+    static StringBuilder appendDvd(StringBuilder line, Dvd aDvd) {
+        // Title and DELIMITER
+        line.append(aDvd.getTitle()).append(DELIMITER);
+        // Release date and DELIMITER
+        line.append(aDvd.getReleaseDate()).append(DELIMITER);
+        // MPAA rating and DELIMITER
+        line.append(aDvd.getMPAA()).append(DELIMITER);
+        // Director's name and DELIMITER
+        line.append(aDvd.getDirectorsName()).append(DELIMITER);
+        // Studio name and DELIMITER
+        line.append(aDvd.getStudio()).append(DELIMITER);
+        // User rating
+        line.append(aDvd.getUserRating());
+        // DELIMITER and version stamp, unless the DVD has none yet
+        if (aDvd.getVersion() != Dvd.UNVERSIONED) {
+            line.append(DELIMITER).append(aDvd.getVersion());
+        }
+        return line;
+    }
+
+    /**
+     * Writes the given DVDs to a library file in a single pass.
+     * Each line is encoded straight into one direct buffer that is
+     * handed to a file channel whenever it fills, so no copy of the
+     * library is built and the existing file is never read.
+     * <p>
+     * The lines go to a temporary file next to the target, which is
+     * synced and then renamed over it, so readers and crashes see
+     * either the old or the new library, never a half-written one.
+     *
+     * @param file library file to write
+     * @param dvds DVDs to write
+     * @throws IOException if the file could not be written
+     */
+    public static void writeLibrary(Path file, Collection<Dvd> dvds) throws IOException {
+        writeLibrary(file, dvds, null);
+    }
+
+    /**
+     * Writes the given DVDs to a library file as
+     * {@link #writeLibrary(Path, Collection)} does, also feeding every
+     * byte written, in order, to a checksum, so a caller that tracks
+     * the file's contents need not read it back.
+     *
+     * @param file library file to write
+     * @param dvds DVDs to write
+     * @param checksum updated with the bytes written; may be null
+     * @return modification time of the new file, taken before it
+     * replaced the old one
+     * @throws IOException if the file could not be written
+     */
+    static FileTime writeLibrary(Path file, Collection<Dvd> dvds, Checksum checksum) throws IOException {
+        Path temp = tempFileFor(file);
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        StringBuilder line = new StringBuilder(256);
+
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Dvd currentDvd : dvds) {
+                line.setLength(0);
+                appendDvd(line, currentDvd).append('\n');
+                encode(encoder, CharBuffer.wrap(line), buffer, out, checksum);
+            }
+            drain(buffer, out, checksum);
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        FileTime modified = Files.getLastModifiedTime(temp);
+        replace(temp, file);
+        return modified;
+    }
+
+    /**
+     * Encodes characters into the buffer, writing the buffer to the
+     * channel each time it fills up.
+     *
+     * @param encoder UTF-8 encoder
+     * @param chars characters to encode
+     * @param buffer buffer collecting encoded bytes
+     * @param out channel to write full buffers to
+     * @param checksum updated with the bytes written; may be null
+     * @throws IOException if the characters cannot be encoded or written
+     */
+    private static void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer buffer,
+                               FileChannel out, Checksum checksum) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, false);
+            if (result.isOverflow()) {
+                drain(buffer, out, checksum);
+            } else if (result.isError()) {
+                result.throwException();
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes everything in the buffer to the channel and clears it.
+     *
+     * @param buffer buffer in write mode
+     * @param out channel to write to
+     * @param checksum updated with the bytes written; may be null
+     * @throws IOException if the write fails
+     */
+    private static void drain(ByteBuffer buffer, FileChannel out, Checksum checksum) throws IOException {
+        buffer.flip();
+        if (checksum != null) {
+            checksum.update(buffer.duplicate());
+        }
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the temporary file used while rewriting the given file.
+     *
+     * @param file file being rewritten
+     * @return sibling temporary file
+     */
+    static Path tempFileFor(Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    /**
+     * Renames source over target, atomically where the file system
+     * supports it.
+     *
+     * @param source file to move
+     * @param target file to replace
+     * @throws IOException if the rename fails
+     */
+    static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
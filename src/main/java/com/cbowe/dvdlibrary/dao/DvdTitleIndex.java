@@ -0,0 +1,457 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The {@code DvdTitleIndex} class answers title searches that do not
+ * need the exact title: prefix completion and typo-tolerant matching.
+ * Titles are compared by their DvdQuery.key, so case and surrounding
+ * spaces are ignored.
+ * <p>
+ * Titles are kept in a concurrent skip list sorted by key, which
+ * gives ordered listing, keyset paging and range queries at the cost
+ * of a seek plus the titles returned. Prefix matches come from the
+ * same list: the matches for a prefix are the run of keys starting
+ * at its ceiling entry.
+ * Typo-tolerant matches come from a trigram index. Cut the query
+ * into non-overlapping trigrams: one edit can break at most one of
+ * them, so a title whose start is within k edits of the query still
+ * contains at least one of any k + 1 of them. Only the postings of
+ * the k + 1 rarest are read, and each candidate is then checked with
+ * a bounded edit distance. Queries of fewer than four characters are
+ * matched by prefix only.
+ * <p>
+ * Titles get an int id that the trigram postings hold. A removed
+ * title leaves its id in the postings until enough ids are dead, at
+ * which point the postings are rebuilt from the live titles. Adds,
+ * removes and searches are synchronized; the listing methods only
+ * read the skip list and take no lock, so they may miss a title added
+ * or removed while they run.
+ */
+
+final class DvdTitleIndex {
+
+    // Separates a title key from its title in the sorted map, and
+    // sorts before every other character so shorter keys come first
+    private static final char KEY_END = '\0';
+    // Dead ids tolerated before the postings are rebuilt
+    private static final int MIN_DEAD_IDS = 1024;
+
+    // Title key + KEY_END + title, in key order; value is the title
+    private final ConcurrentSkipListMap<String, String> sortedTitles = new ConcurrentSkipListMap<>();
+    // Id of each title in the trigram postings
+    private final Map<String, Integer> ids = new HashMap<>();
+    // Title key and title for each id; null once the title is removed
+    private String[] keysById = new String[1024];
+    private String[] titlesById = new String[1024];
+    // Next id to hand out, and number of ids that have been removed
+    private int nextId = 0;
+    private int deadIds = 0;
+    // Ids of the titles containing each trigram
+    private final Map<Long, IntList> postings = new HashMap<>();
+
+    /**
+     * Adds a title to the index. Adding a title that is already
+     * indexed does nothing.
+     *
+     * @param title title to add
+     */
+    synchronized void add(String title) {
+        if (ids.containsKey(title)) {
+            return;
+        }
+        sortedTitles.put(sortKey(title), title);
+        post(title, DvdQuery.key(title));
+    }
+
+    /**
+     * Removes a title from the index. Removing a title that is not
+     * indexed does nothing.
+     *
+     * @param title title to remove
+     */
+    synchronized void remove(String title) {
+        Integer id = ids.remove(title);
+        if (id == null) {
+            return;
+        }
+        sortedTitles.remove(sortKey(title));
+        keysById[id] = null;
+        titlesById[id] = null;
+        deadIds++;
+        if (deadIds >= MIN_DEAD_IDS && deadIds > ids.size()) {
+            rebuildPostings();
+        }
+    }
+
+    /**
+     * Empties the index.
+     */
+    synchronized void clear() {
+        sortedTitles.clear();
+        ids.clear();
+        postings.clear();
+        Arrays.fill(keysById, 0, nextId, null);
+        Arrays.fill(titlesById, 0, nextId, null);
+        nextId = 0;
+        deadIds = 0;
+    }
+
+    /**
+     * Returns a run of titles in key order, the order of
+     * DvdLibraryDao.TITLE_ORDER. The titles before the run are
+     * stepped over rather than copied, so the cost grows with offset
+     * but memory does not.
+     *
+     * @param offset number of titles before the run
+     * @param limit maximum number of titles to return
+     * @return titles in key order
+     */
+    List<String> page(int offset, int limit) {
+        Iterator<String> sorted = sortedTitles.values().iterator();
+        for (int i = 0; i < offset && sorted.hasNext(); i++) {
+            sorted.next();
+        }
+        return take(sorted, limit);
+    }
+
+    /**
+     * Returns the titles that come straight after a title in key
+     * order, found by seeking to the title rather than counting from
+     * the start.
+     *
+     * @param title title to start after, or null to start at the
+     *              first title; it need not be in the index
+     * @param limit maximum number of titles to return
+     * @return titles in key order
+     */
+    List<String> after(String title, int limit) {
+        Map<String, String> tail = title == null
+                ? sortedTitles : sortedTitles.tailMap(sortKey(title), false);
+        return take(tail.values().iterator(), limit);
+    }
+
+    /**
+     * Returns the titles that come straight before a title in key
+     * order.
+     *
+     * @param title title to end before, or null to end at the last
+     *              title; it need not be in the index
+     * @param limit maximum number of titles to return
+     * @return titles in key order
+     */
+    List<String> before(String title, int limit) {
+        NavigableMap<String, String> head = title == null
+                ? sortedTitles : sortedTitles.headMap(sortKey(title), false);
+        List<String> titles = take(head.descendingMap().values().iterator(), limit);
+        Collections.reverse(titles);
+        return titles;
+    }
+
+    /**
+     * Returns the titles from one title key up to, but not including,
+     * another, ignoring case. Bounds need not be whole titles:
+     * between "a" and "c" holds every title starting with a or b.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of titles to return
+     * @return titles in key order
+     */
+    List<String> between(String fromTitle, String toTitle, int limit) {
+        NavigableMap<String, String> range = sortedTitles;
+        String fromKey = fromTitle == null ? null : DvdQuery.key(fromTitle);
+        String toKey = toTitle == null ? null : DvdQuery.key(toTitle);
+        if (fromKey != null && toKey != null && fromKey.compareTo(toKey) >= 0) {
+            return new ArrayList<>();
+        }
+        if (fromKey != null) {
+            range = range.tailMap(fromKey, true);
+        }
+        if (toKey != null) {
+            range = range.headMap(toKey, false);
+        }
+        return take(range.values().iterator(), limit);
+    }
+
+    private static List<String> take(Iterator<String> titles, int limit) {
+        List<String> taken = new ArrayList<>();
+        while (taken.size() < limit && titles.hasNext()) {
+            taken.add(titles.next());
+        }
+        return taken;
+    }
+
+    /**
+     * Key a title is stored under in the sorted map.
+     */
+    private static String sortKey(String title) {
+        return DvdQuery.key(title) + KEY_END + title;
+    }
+
+    /**
+     * Searches the titles. Titles starting with the query come first,
+     * in title order; then titles whose start is within one edit
+     * (queries of four to six characters) or two edits (longer
+     * queries) of the query, closest first.
+     *
+     * @param text what the user typed
+     * @param limit maximum number of titles to return
+     * @return matching titles, best match first
+     */
+    synchronized List<String> search(String text, int limit) {
+        List<String> matches = new ArrayList<>();
+        if (limit <= 0) {
+            return matches;
+        }
+        String query = DvdQuery.key(text);
+        if (query == null) {
+            query = "";
+        }
+
+        // Exact prefix matches, straight from the sorted map
+        for (Map.Entry<String, String> entry : sortedTitles.tailMap(query, true).entrySet()) {
+            if (!entry.getKey().startsWith(query) || matches.size() == limit) {
+                break;
+            }
+            matches.add(entry.getValue());
+        }
+
+        int maxEdits = maxEdits(query);
+        if (maxEdits == 0 || matches.size() == limit) {
+            return matches;
+        }
+
+        // Postings to read: the rarest maxEdits + 1 of the query's
+        // non-overlapping trigrams, from whichever of the three ways of
+        // cutting the query into trigrams reads the fewest ids
+        String padded = "  " + query;
+        int probes = maxEdits + 1;
+        IntList[] lists = null;
+        long fewestIds = Long.MAX_VALUE;
+        for (int offset = 0; offset < 3; offset++) {
+            int count = (padded.length() - offset) / 3;
+            if (count < probes) {
+                continue;
+            }
+            IntList[] cut = new IntList[count];
+            for (int i = 0; i < count; i++) {
+                cut[i] = postings.getOrDefault(trigram(padded, offset + 3 * i), IntList.EMPTY);
+            }
+            Arrays.sort(cut, (a, b) -> Integer.compare(a.size, b.size));
+            long ids = 0;
+            for (int p = 0; p < probes; p++) {
+                ids += cut[p].size;
+            }
+            if (ids < fewestIds) {
+                fewestIds = ids;
+                lists = cut;
+            }
+        }
+        if (lists == null) {
+            return matches;
+        }
+
+        // Gather the candidate ids, sorted so duplicates are adjacent
+        int candidateCount = 0;
+        for (int p = 0; p < probes; p++) {
+            candidateCount += lists[p].size;
+        }
+        int[] candidates = new int[candidateCount];
+        candidateCount = 0;
+        for (int p = 0; p < probes; p++) {
+            System.arraycopy(lists[p].values, 0, candidates, candidateCount, lists[p].size);
+            candidateCount += lists[p].size;
+        }
+        Arrays.sort(candidates);
+
+        // Check each candidate once against the query
+        List<Match> fuzzy = new ArrayList<>();
+        for (int i = 0; i < candidates.length; i++) {
+            int id = candidates[i];
+            if (i > 0 && id == candidates[i - 1]) {
+                continue;
+            }
+            String key = keysById[id];
+            if (key == null || key.startsWith(query)) {
+                continue; // Removed, or already an exact prefix match
+            }
+            int distance = prefixDistance(query, key, maxEdits);
+            if (distance <= maxEdits) {
+                fuzzy.add(new Match(distance, key, titlesById[id]));
+            }
+        }
+        fuzzy.sort(null);
+        for (Match match : fuzzy) {
+            if (matches.size() == limit) {
+                break;
+            }
+            matches.add(match.title);
+        }
+        return matches;
+    }
+
+    /**
+     * Number of edits a query of this length may be away from a title.
+     */
+    private static int maxEdits(String query) {
+        if (query.length() < 4) {
+            return 0;
+        }
+        return query.length() < 7 ? 1 : 2;
+    }
+
+    /**
+     * Smallest edit distance between the query and any prefix of the
+     * key, or maxEdits + 1 if every prefix is further away than that.
+     * Only the cells within maxEdits of the diagonal are computed, as
+     * the others are already further away than that.
+     */
+    static int prefixDistance(String query, String key, int maxEdits) {
+        int n = key.length();
+        int tooFar = maxEdits + 1;
+        int[] previous = new int[n + 1];
+        int[] current = new int[n + 1];
+        Arrays.fill(previous, tooFar);
+        Arrays.fill(current, tooFar);
+        for (int j = 0; j <= Math.min(n, maxEdits); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= query.length(); i++) {
+            int from = Math.max(1, i - maxEdits);
+            int to = Math.min(n, i + maxEdits);
+            if (from > to) {
+                return tooFar; // Key is too short to be within reach
+            }
+            current[from - 1] = from == 1 ? Math.min(i, tooFar) : tooFar;
+            int rowMin = current[from - 1];
+            char q = query.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int cost = q == key.charAt(j - 1) ? 0 : 1;
+                int cell = Math.min(Math.min(current[j - 1], previous[j]) + 1, previous[j - 1] + cost);
+                current[j] = Math.min(cell, tooFar);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin >= tooFar) {
+                return tooFar;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        int best = tooFar;
+        for (int j = Math.max(0, query.length() - maxEdits); j <= Math.min(n, query.length() + maxEdits); j++) {
+            best = Math.min(best, previous[j]);
+        }
+        return best;
+    }
+
+    /**
+     * Trigrams of a title key padded with two leading spaces and one
+     * trailing space.
+     */
+    private static long[] trigrams(String key) {
+        String padded = "  " + key + " ";
+        long[] trigrams = new long[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = trigram(padded, i);
+        }
+        return trigrams;
+    }
+
+    /**
+     * The three characters starting at index i, packed into a long.
+     * The shifts keep ASCII trigrams distinct in the low 32 bits of
+     * the long's hash code, so the postings map does not collide.
+     */
+    private static long trigram(String text, int i) {
+        return ((long) text.charAt(i) << 40)
+                | ((long) text.charAt(i + 1) << 20)
+                | text.charAt(i + 2);
+    }
+
+    private void post(String title, String key) {
+        if (nextId == keysById.length) {
+            keysById = Arrays.copyOf(keysById, nextId * 2);
+            titlesById = Arrays.copyOf(titlesById, nextId * 2);
+        }
+        int id = nextId++;
+        keysById[id] = key;
+        titlesById[id] = title;
+        ids.put(title, id);
+        long previous = -1;
+        long[] trigrams = trigrams(key);
+        Arrays.sort(trigrams);
+        for (long trigram : trigrams) {
+            if (trigram != previous) {
+                postings.computeIfAbsent(trigram, t -> new IntList()).add(id);
+                previous = trigram;
+            }
+        }
+    }
+
+    private void rebuildPostings() {
+        String[] keys = keysById;
+        String[] titles = titlesById;
+        int count = nextId;
+        int live = ids.size();
+        ids.clear();
+        postings.clear();
+        keysById = new String[Math.max(1024, live * 2)];
+        titlesById = new String[keysById.length];
+        nextId = 0;
+        deadIds = 0;
+        for (int id = 0; id < count; id++) {
+            if (titles[id] != null) {
+                post(titles[id], keys[id]);
+            }
+        }
+    }
+
+    /**
+     * Growable list of ids in one trigram's postings.
+     */
+    private static final class IntList {
+        static final IntList EMPTY = new IntList();
+
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * A typo-tolerant match, ordered by distance and then by key.
+     */
+    private static final class Match implements Comparable<Match> {
+        final int distance;
+        final String key;
+        final String title;
+
+        Match(int distance, String key, String title) {
+            this.distance = distance;
+            this.key = key;
+            this.title = title;
+        }
+
+        @Override
+        public int compareTo(Match other) {
+            int byDistance = Integer.compare(distance, other.distance);
+            return byDistance != 0 ? byDistance : key.compareTo(other.key);
+        }
+    }
+}
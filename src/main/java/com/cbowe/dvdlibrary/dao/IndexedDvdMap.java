@@ -0,0 +1,204 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@code IndexedDvdMap} class is the title-keyed map the DAOs keep
+ * their library in, with a DvdIndex and a DvdTitleIndex kept up to
+ * date by every put and remove. A field edit replaces the stored Dvd
+ * with an edited copy through {@link #edit}. The entry set is
+ * read-only, so the map cannot be changed behind the indexes' back.
+ * <p>
+ * Like HashMap, this class is not thread safe; the DAOs that use it
+ * synchronize their public methods.
+ */
+
+final class IndexedDvdMap extends AbstractMap<String, Dvd> {
+
+    // Hash Map to store and retrieve the Dvd; Key is the Dvd title
+    private final Map<String, Dvd> dvds = new HashMap<>();
+    // Secondary indexes over the values of dvds
+    private final DvdIndex index = new DvdIndex();
+    // Prefix and typo-tolerant search over the keys of dvds
+    private final DvdTitleIndex titleIndex = new DvdTitleIndex();
+
+    @Override
+    public Dvd get(Object title) {
+        return dvds.get(title);
+    }
+
+    @Override
+    public boolean containsKey(Object title) {
+        return dvds.containsKey(title);
+    }
+
+    @Override
+    public int size() {
+        return dvds.size();
+    }
+
+    @Override
+    public Dvd put(String title, Dvd dvd) {
+        Dvd previousDvd = dvds.put(title, dvd);
+        if (previousDvd == null) {
+            titleIndex.add(title);
+        } else if (previousDvd.equals(dvd)) {
+            return previousDvd; // Same postings as before
+        }
+        index.remove(title, previousDvd);
+        index.add(title, dvd);
+        return previousDvd;
+    }
+
+    /**
+     * Puts every entry of a map, for loading a library. Only entries
+     * whose DVD actually changed are re-indexed, and the secondary
+     * indexes, which are safe for concurrent updates to different
+     * titles, are updated in parallel on the common fork-join pool.
+     *
+     * @param newDvds Dvd objects keyed by title
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends Dvd> newDvds) {
+        List<Entry<String, Dvd>> changed = new ArrayList<>();
+        for (Entry<? extends String, ? extends Dvd> entry : newDvds.entrySet()) {
+            String title = entry.getKey();
+            Dvd previousDvd = dvds.put(title, entry.getValue());
+            if (previousDvd == null) {
+                titleIndex.add(title);
+            } else if (previousDvd.equals(entry.getValue())) {
+                continue;
+            }
+            changed.add(new SimpleImmutableEntry<>(title, previousDvd));
+        }
+        changed.parallelStream().forEach(entry -> {
+            index.remove(entry.getKey(), entry.getValue());
+            index.add(entry.getKey(), dvds.get(entry.getKey()));
+        });
+    }
+
+    @Override
+    public Dvd remove(Object title) {
+        Dvd removedDvd = dvds.remove(title);
+        if (removedDvd != null) {
+            index.remove((String) title, removedDvd);
+            titleIndex.remove((String) title);
+        }
+        return removedDvd;
+    }
+
+    @Override
+    public void clear() {
+        dvds.clear();
+        index.clear();
+        titleIndex.clear();
+    }
+
+    @Override
+    public Set<Entry<String, Dvd>> entrySet() {
+        return Collections.unmodifiableMap(dvds).entrySet();
+    }
+
+    /**
+     * Replaces the DVD stored under a title with a copy that has one
+     * field changed, moving it to the postings for the new value.
+     *
+     * @param title title of DVD to be edited
+     * @param field field to edit
+     * @param value new value for the field
+     * @return edited Dvd object, or null if no DVD has that title
+     */
+    Dvd edit(String title, DvdField field, String value) {
+        Dvd currentDvd = dvds.get(title);
+        if (currentDvd == null) {
+            return null;
+        }
+        Dvd editedDvd = field.apply(currentDvd, value);
+        put(title, editedDvd);
+        return editedDvd;
+    }
+
+    /**
+     * Finds the DVDs matching a query through the secondary indexes.
+     *
+     * @param query criteria to match
+     * @return matching Dvd objects, in no particular order
+     */
+    List<Dvd> find(DvdQuery query) {
+        return index.find(query, dvds);
+    }
+
+    /**
+     * Returns one page of the map in title order.
+     *
+     * @param offset number of DVDs before the page
+     * @param limit maximum number of DVDs on the page
+     * @return the Dvd objects on the page
+     */
+    List<Dvd> page(int offset, int limit) {
+        return lookup(titleIndex.page(offset, limit));
+    }
+
+    /**
+     * Returns the DVDs that come straight after a title in title order.
+     *
+     * @param title title to start after, or null to start at the first
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     */
+    List<Dvd> after(String title, int limit) {
+        return lookup(titleIndex.after(title, limit));
+    }
+
+    /**
+     * Returns the DVDs that come straight before a title in title order.
+     *
+     * @param title title to end before, or null to end at the last
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     */
+    List<Dvd> before(String title, int limit) {
+        return lookup(titleIndex.before(title, limit));
+    }
+
+    /**
+     * Returns the DVDs with titles from one bound up to, but not
+     * including, another, ignoring case.
+     *
+     * @param fromTitle lowest title to include, or null for no bound
+     * @param toTitle title to stop before, or null for no bound
+     * @param limit maximum number of DVDs to return
+     * @return Dvd objects in title order
+     */
+    List<Dvd> between(String fromTitle, String toTitle, int limit) {
+        return lookup(titleIndex.between(fromTitle, toTitle, limit));
+    }
+
+    /**
+     * Searches the titles by prefix and with typo tolerance.
+     *
+     * @param text what the user typed
+     * @param limit maximum number of DVDs to return
+     * @return matching Dvd objects, best match first
+     */
+    List<Dvd> search(String text, int limit) {
+        return lookup(titleIndex.search(text, limit));
+    }
+
+    private List<Dvd> lookup(List<String> titles) {
+        List<Dvd> found = new ArrayList<>(titles.size());
+        for (String title : titles) {
+            found.add(dvds.get(title));
+        }
+        return found;
+    }
+}
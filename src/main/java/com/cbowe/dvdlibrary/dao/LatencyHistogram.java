@@ -0,0 +1,122 @@
+package com.cbowe.dvdlibrary.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code LatencyHistogram} class counts durations in log-linear
+ * buckets, in the style of an HDR histogram: every power of two is
+ * split into 32 equal buckets, so any percentile it reports is within
+ * about 3% of the true value, from nanoseconds up to centuries, in a
+ * fixed 15 KiB of counters.
+ * <p>
+ * Recording is lock free and may be done from any number of threads.
+ * Percentiles read while values are being recorded reflect some, but
+ * not necessarily all, of the values recorded during the read.
+ */
+
+final class LatencyHistogram {
+
+    // Bits of precision kept below each value's highest set bit
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values below SUB_BUCKETS get a bucket each; then SUB_BUCKETS
+    // buckets per power of two up to 2^63
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos duration in nanoseconds; negative values count as 0
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        total.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     *
+     * @return count of recorded values
+     */
+    long count() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean of the durations recorded.
+     *
+     * @return mean in nanoseconds, or 0 if nothing was recorded
+     */
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * Returns the longest duration recorded.
+     *
+     * @return maximum in nanoseconds
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns the duration that the given fraction of recorded values
+     * are at or below, as the upper end of its bucket.
+     *
+     * @param quantile fraction between 0 and 1, such as 0.99 for p99
+     * @return duration in nanoseconds, or 0 if nothing was recorded
+     */
+    long percentile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long recorded = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = counts.get(bucket);
+            recorded += snapshot[bucket];
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * recorded));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
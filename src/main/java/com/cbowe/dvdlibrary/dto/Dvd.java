@@ -1,44 +1,109 @@
 package com.cbowe.dvdlibrary.dto;
 
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * The {@code Dvd} class is part of the DTO (data transfer object)
  * package. It is used to move data between tiers in the application.
- * It contains private variables, the constructor to create a new
- * Dvd object, and the getter and setter methods for the private
- * variables.
+ * It contains private variables, the constructors to create a new
+ * Dvd object, and the getter methods for the private variables.
+ * <p>
+ * Dvd objects are immutable: an edit is made with one of the
+ * withXxx methods, which return a new Dvd object, so a Dvd can be
+ * shared between threads and caches without copying. The MPAA
+ * rating, director and studio repeat heavily across a catalog, so
+ * each distinct value is stored once in a DvdValuePool and every Dvd
+ * holding it points at that one String. The title, release date and
+ * user rating are kept per DVD, since a pool entry would cost more
+ * than the few characters they could share.
+ * <p>
+ * Every Dvd object carries a version stamp, which lets the DAO tell
+ * whether a record changed since it was read. A new Dvd object, and
+ * so every withXxx copy, gets a new stamp; stamps follow the clock
+ * in microseconds, so they keep increasing across restarts and a
+ * record never returns to a stamp it had before. Records written
+ * before stamps were kept have version UNVERSIONED.
  */
 
-public class Dvd {
+public final class Dvd {
+    // One instance of every MPAA rating, director and studio in use
+    private static final DvdValuePool POOL = new DvdValuePool();
+    // Last version stamp handed out
+    private static final AtomicLong LAST_VERSION = new AtomicLong();
+
+    // Version of a record stored before version stamps were kept
+    public static final long UNVERSIONED = 0;
+
     // Declare private variables
-    private String dvdTitle;
-    private String releaseDate;
-    private String mpaa;
-    private String directorsName;
-    private String studio;
-    private String userRating;
+    private final String dvdTitle;
+    private final String releaseDate;
+    private final String mpaa;
+    private final String directorsName;
+    private final String studio;
+    private final String userRating;
+    private final long version;
 
     /**
-     * Constructor for new Dvd object.
+     * Constructor for new Dvd object with only a title.
      * @param title Dvd title
      */
     public Dvd(String title) {
+        this(title, null, null, null, null, null);
+    }
+
+    /**
+     * Constructor for a Dvd object with every field set.
+     * @param title Dvd title
+     * @param releaseDate release date
+     * @param mpaa MPAA rating
+     * @param directorsName Director name
+     * @param studio studio name
+     * @param userRating user rating
+     */
+    public Dvd(String title, String releaseDate, String mpaa,
+               String directorsName, String studio, String userRating) {
+        this(title, releaseDate, mpaa, directorsName, studio, userRating, nextVersion());
+    }
+
+    /**
+     * Constructor for a Dvd object read back from storage, keeping
+     * the version stamp it was stored with.
+     * @param title Dvd title
+     * @param releaseDate release date
+     * @param mpaa MPAA rating
+     * @param directorsName Director name
+     * @param studio studio name
+     * @param userRating user rating
+     * @param version version stamp
+     */
+    public Dvd(String title, String releaseDate, String mpaa,
+               String directorsName, String studio, String userRating, long version) {
         this.dvdTitle = title;
+        this.releaseDate = releaseDate;
+        this.mpaa = POOL.pooled(mpaa);
+        this.directorsName = POOL.pooled(directorsName);
+        this.studio = POOL.pooled(studio);
+        this.userRating = userRating;
+        this.version = version;
     }
 
     /**
-     * Method to get title from Dvd object
-     * @return dvdTitle
+     * Method to get a new version stamp, later than every stamp
+     * handed out before it.
+     * @return version stamp
      */
-    public String getTitle() {
-        return dvdTitle;
+    private static long nextVersion() {
+        long clock = System.currentTimeMillis() * 1000;
+        return LAST_VERSION.accumulateAndGet(clock, (last, now) -> Math.max(last + 1, now));
     }
 
     /**
-     * Method to set release date of Dvd object.
-     * @param newReleaseDate release date
+     * Method to get title from Dvd object
+     * @return dvdTitle
      */
-    public void setReleaseDate(String newReleaseDate) {
-        this.releaseDate = newReleaseDate;
+    public String getTitle() {
+        return dvdTitle;
     }
 
     /**
@@ -50,11 +115,12 @@ public class Dvd {
     }
 
     /**
-     * Method to set MPAA rating of Dvd object.
-     * @param newMpaaRating MPAA rating
+     * Method to get a copy of the Dvd object with a new release date.
+     * @param newReleaseDate release date
+     * @return new Dvd object
      */
-    public void setMPAA(String newMpaaRating) {
-        this.mpaa = newMpaaRating;
+    public Dvd withReleaseDate(String newReleaseDate) {
+        return new Dvd(dvdTitle, newReleaseDate, mpaa, directorsName, studio, userRating);
     }
 
     /**
@@ -66,11 +132,12 @@ public class Dvd {
     }
 
     /**
-     * Method to set director name of Dvd object.
-     * @param newDirectorName Director name
+     * Method to get a copy of the Dvd object with a new MPAA rating.
+     * @param newMpaaRating MPAA rating
+     * @return new Dvd object
      */
-    public void setDirectorsName(String newDirectorName) {
-        this.directorsName = newDirectorName;
+    public Dvd withMPAA(String newMpaaRating) {
+        return new Dvd(dvdTitle, releaseDate, newMpaaRating, directorsName, studio, userRating);
     }
 
     /**
@@ -82,11 +149,12 @@ public class Dvd {
     }
 
     /**
-     * Method to set studio name of Dvd object.
-     * @param newStudioName studio name
+     * Method to get a copy of the Dvd object with a new director name.
+     * @param newDirectorName Director name
+     * @return new Dvd object
      */
-    public void setStudio(String newStudioName) {
-        this.studio = newStudioName;
+    public Dvd withDirectorsName(String newDirectorName) {
+        return new Dvd(dvdTitle, releaseDate, mpaa, newDirectorName, studio, userRating);
     }
 
     /**
@@ -98,11 +166,12 @@ public class Dvd {
     }
 
     /**
-     * Method to set user rating of Dvd object.
-     * @param newUserRating user rating
+     * Method to get a copy of the Dvd object with a new studio name.
+     * @param newStudioName studio name
+     * @return new Dvd object
      */
-    public void setUserRating(String newUserRating) {
-        this.userRating = newUserRating;
+    public Dvd withStudio(String newStudioName) {
+        return new Dvd(dvdTitle, releaseDate, mpaa, directorsName, newStudioName, userRating);
     }
 
     /**
@@ -112,4 +181,54 @@ public class Dvd {
     public String getUserRating() {
         return userRating;
     }
+
+    /**
+     * Method to get a copy of the Dvd object with a new user rating.
+     * @param newUserRating user rating
+     * @return new Dvd object
+     */
+    public Dvd withUserRating(String newUserRating) {
+        return new Dvd(dvdTitle, releaseDate, mpaa, directorsName, studio, newUserRating);
+    }
+
+    /**
+     * Method to get version stamp from Dvd object
+     * @return version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Two Dvd objects are equal when every field is equal. The
+     * version stamp is not compared, so a copy with the same values
+     * is equal to the original.
+     * @param other object to compare with
+     * @return true if other is an equal Dvd
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Dvd)) {
+            return false;
+        }
+        Dvd dvd = (Dvd) other;
+        return Objects.equals(dvdTitle, dvd.dvdTitle)
+                && Objects.equals(releaseDate, dvd.releaseDate)
+                && Objects.equals(mpaa, dvd.mpaa)
+                && Objects.equals(directorsName, dvd.directorsName)
+                && Objects.equals(studio, dvd.studio)
+                && Objects.equals(userRating, dvd.userRating);
+    }
+
+    /**
+     * Hash code consistent with equals.
+     * @return hash code of every field
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(dvdTitle, releaseDate, mpaa, directorsName, studio, userRating);
+    }
 }
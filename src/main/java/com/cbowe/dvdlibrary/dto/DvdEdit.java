@@ -0,0 +1,88 @@
+package com.cbowe.dvdlibrary.dto;
+
+/**
+ * The {@code DvdEdit} class describes one field edit to one DVD, so
+ * that many edits can be handed to the DAO as a single batch.
+ * <p>
+ * An edit may name the version the DVD is expected to have. The DAO
+ * then refuses the whole batch if the DVD has changed since that
+ * version was read, instead of overwriting the other change.
+ */
+
+public class DvdEdit {
+    // Expected version of an edit that applies whatever the version is
+    public static final long ANY_VERSION = -1;
+
+    // Declare private variables
+    private final String title;
+    private final DvdField field;
+    private final String value;
+    private final long expectedVersion;
+
+    /**
+     * Constructor for new DvdEdit object that applies whatever the
+     * version of the DVD is.
+     * @param title title of the DVD to edit
+     * @param field field to edit
+     * @param value new value for the field
+     */
+    public DvdEdit(String title, DvdField field, String value) {
+        this(title, field, value, ANY_VERSION);
+    }
+
+    /**
+     * Constructor for new DvdEdit object that applies only if the DVD
+     * still has the given version.
+     * @param title title of the DVD to edit
+     * @param field field to edit
+     * @param value new value for the field
+     * @param expectedVersion version the DVD must have, or ANY_VERSION
+     */
+    public DvdEdit(String title, DvdField field, String value, long expectedVersion) {
+        this.title = title;
+        this.field = field;
+        this.value = value;
+        this.expectedVersion = expectedVersion;
+    }
+
+    /**
+     * Method to get title of the DVD to edit
+     * @return title
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Method to get field to edit
+     * @return field
+     */
+    public DvdField getField() {
+        return field;
+    }
+
+    /**
+     * Method to get new value for the field
+     * @return value
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Method to get version the DVD must have for the edit to apply
+     * @return expectedVersion, or ANY_VERSION
+     */
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    /**
+     * Method to check whether the edit may be applied to a DVD
+     * @param dvd current Dvd object
+     * @return true if no version is expected or dvd has that version
+     */
+    public boolean isExpected(Dvd dvd) {
+        return expectedVersion == ANY_VERSION || expectedVersion == dvd.getVersion();
+    }
+}
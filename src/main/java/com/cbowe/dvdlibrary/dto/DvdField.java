@@ -0,0 +1,60 @@
+package com.cbowe.dvdlibrary.dto;
+
+/**
+ * The {@code DvdField} enum lists the fields of a Dvd object that can
+ * be edited after it is created. The title is the library key and
+ * cannot be edited.
+ */
+
+public enum DvdField {
+    RELEASE_DATE,
+    MPAA,
+    DIRECTOR_NAME,
+    STUDIO,
+    USER_RATING;
+
+    /**
+     * Gets the value of this field from a Dvd object.
+     * @param dvd Dvd object to read
+     * @return the field's value, which may be null
+     */
+    public String get(Dvd dvd) {
+        switch (this) {
+            case RELEASE_DATE:
+                return dvd.getReleaseDate();
+            case MPAA:
+                return dvd.getMPAA();
+            case DIRECTOR_NAME:
+                return dvd.getDirectorsName();
+            case STUDIO:
+                return dvd.getStudio();
+            case USER_RATING:
+                return dvd.getUserRating();
+            default:
+                throw new AssertionError(this);
+        }
+    }
+
+    /**
+     * Gets a copy of a Dvd object with this field changed.
+     * @param dvd Dvd object to copy
+     * @param value new value for the field
+     * @return new Dvd object
+     */
+    public Dvd apply(Dvd dvd, String value) {
+        switch (this) {
+            case RELEASE_DATE:
+                return dvd.withReleaseDate(value);
+            case MPAA:
+                return dvd.withMPAA(value);
+            case DIRECTOR_NAME:
+                return dvd.withDirectorsName(value);
+            case STUDIO:
+                return dvd.withStudio(value);
+            case USER_RATING:
+                return dvd.withUserRating(value);
+            default:
+                throw new AssertionError(this);
+        }
+    }
+}
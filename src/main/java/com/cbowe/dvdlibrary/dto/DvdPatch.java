@@ -0,0 +1,142 @@
+package com.cbowe.dvdlibrary.dto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code DvdPatch} class collects new values for any subset of
+ * the editable fields of one DVD, so that they can be handed to the
+ * DAO and saved together. Fields that are not set keep their current
+ * value. Setting a field twice keeps the later value.
+ * <p>
+ * A patch may also name the version the DVD is expected to have, so
+ * that it is refused rather than applied over someone else's change.
+ */
+
+public class DvdPatch {
+    // New value of each field that is being changed
+    private final Map<DvdField, String> changes = new EnumMap<>(DvdField.class);
+    // Version the DVD must have, or DvdEdit.ANY_VERSION
+    private long expectedVersion = DvdEdit.ANY_VERSION;
+
+    /**
+     * Method to set the new value of a field
+     * @param field field to change
+     * @param value new value for the field
+     * @return this patch
+     */
+    public DvdPatch set(DvdField field, String value) {
+        changes.put(field, value);
+        return this;
+    }
+
+    /**
+     * Method to set new release date
+     * @param releaseDate release date
+     * @return this patch
+     */
+    public DvdPatch setReleaseDate(String releaseDate) {
+        return set(DvdField.RELEASE_DATE, releaseDate);
+    }
+
+    /**
+     * Method to set new MPAA rating
+     * @param mpaa MPAA rating
+     * @return this patch
+     */
+    public DvdPatch setMPAA(String mpaa) {
+        return set(DvdField.MPAA, mpaa);
+    }
+
+    /**
+     * Method to set new director's name
+     * @param directorsName Director name
+     * @return this patch
+     */
+    public DvdPatch setDirectorsName(String directorsName) {
+        return set(DvdField.DIRECTOR_NAME, directorsName);
+    }
+
+    /**
+     * Method to set new studio
+     * @param studio studio name
+     * @return this patch
+     */
+    public DvdPatch setStudio(String studio) {
+        return set(DvdField.STUDIO, studio);
+    }
+
+    /**
+     * Method to set new user rating
+     * @param userRating user rating
+     * @return this patch
+     */
+    public DvdPatch setUserRating(String userRating) {
+        return set(DvdField.USER_RATING, userRating);
+    }
+
+    /**
+     * Method to apply the patch only if the DVD still has the given
+     * version, usually the version of the copy the changes were made to
+     * @param version version stamp the DVD must have
+     * @return this patch
+     */
+    public DvdPatch expectVersion(long version) {
+        this.expectedVersion = version;
+        return this;
+    }
+
+    /**
+     * Method to get version the DVD must have for the patch to apply
+     * @return expectedVersion, or DvdEdit.ANY_VERSION
+     */
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    /**
+     * Method to get the fields being changed and their new values
+     * @return unmodifiable view of the changes, in DvdField order
+     */
+    public Map<DvdField, String> getChanges() {
+        return Collections.unmodifiableMap(changes);
+    }
+
+    /**
+     * Method to check whether any field is being changed
+     * @return true if no field has been set
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Method to get a copy of a Dvd object with every change applied
+     * @param dvd Dvd object to copy
+     * @return new Dvd object, or dvd itself if the patch is empty
+     */
+    public Dvd applyTo(Dvd dvd) {
+        Dvd patched = dvd;
+        for (Map.Entry<DvdField, String> change : changes.entrySet()) {
+            patched = change.getKey().apply(patched, change.getValue());
+        }
+        return patched;
+    }
+
+    /**
+     * Method to get the changes as a batch of field edits to one DVD,
+     * each expecting the version this patch expects
+     * @param title title of the DVD to edit
+     * @return one DvdEdit per changed field
+     */
+    public List<DvdEdit> toEdits(String title) {
+        List<DvdEdit> edits = new ArrayList<>(changes.size());
+        for (Map.Entry<DvdField, String> change : changes.entrySet()) {
+            edits.add(new DvdEdit(title, change.getKey(), change.getValue(), expectedVersion));
+        }
+        return edits;
+    }
+}
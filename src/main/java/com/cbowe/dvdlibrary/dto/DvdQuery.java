@@ -0,0 +1,147 @@
+package com.cbowe.dvdlibrary.dto;
+
+import java.util.Locale;
+
+/**
+ * The {@code DvdQuery} class describes a filtered lookup of DVDs by
+ * director, studio, MPAA rating and release year. Fields that are
+ * left null match every DVD. Text fields are compared ignoring case
+ * and surrounding spaces, so "universal " matches "Universal".
+ */
+
+public class DvdQuery {
+    // Declare private variables; null means "any"
+    private String directorsName;
+    private String studio;
+    private String mpaa;
+    private Integer releaseYear;
+
+    /**
+     * Method to get director name to match
+     * @return directorsName, or null for any
+     */
+    public String getDirectorsName() {
+        return directorsName;
+    }
+
+    /**
+     * Method to set director name to match
+     * @param directorsName director name, or null for any
+     */
+    public void setDirectorsName(String directorsName) {
+        this.directorsName = directorsName;
+    }
+
+    /**
+     * Method to get studio to match
+     * @return studio, or null for any
+     */
+    public String getStudio() {
+        return studio;
+    }
+
+    /**
+     * Method to set studio to match
+     * @param studio studio name, or null for any
+     */
+    public void setStudio(String studio) {
+        this.studio = studio;
+    }
+
+    /**
+     * Method to get MPAA rating to match
+     * @return mpaa, or null for any
+     */
+    public String getMPAA() {
+        return mpaa;
+    }
+
+    /**
+     * Method to set MPAA rating to match
+     * @param mpaa MPAA rating, or null for any
+     */
+    public void setMPAA(String mpaa) {
+        this.mpaa = mpaa;
+    }
+
+    /**
+     * Method to get release year to match
+     * @return releaseYear, or null for any
+     */
+    public Integer getReleaseYear() {
+        return releaseYear;
+    }
+
+    /**
+     * Method to set release year to match
+     * @param releaseYear four digit year, or null for any
+     */
+    public void setReleaseYear(Integer releaseYear) {
+        this.releaseYear = releaseYear;
+    }
+
+    /**
+     * Method to check whether the query sets no criteria at all, in
+     * which case it matches every DVD.
+     * @return true if every field is null
+     */
+    public boolean isEmpty() {
+        return directorsName == null && studio == null && mpaa == null && releaseYear == null;
+    }
+
+    /**
+     * Method to check a Dvd object against every criterion set on
+     * this query.
+     * @param dvd Dvd object to check
+     * @return true if the DVD matches
+     */
+    public boolean matches(Dvd dvd) {
+        return matches(directorsName, dvd.getDirectorsName())
+                && matches(studio, dvd.getStudio())
+                && matches(mpaa, dvd.getMPAA())
+                && (releaseYear == null || releaseYear == releaseYearOf(dvd.getReleaseDate()));
+    }
+
+    private static boolean matches(String criterion, String value) {
+        return criterion == null || key(criterion).equals(key(value));
+    }
+
+    /**
+     * Method to get the form of a text field that queries compare:
+     * trimmed and lower case.
+     * @param value field value
+     * @return comparison key, or null if value is null
+     */
+    public static String key(String value) {
+        return value == null ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Method to get the year out of a free-form release date such as
+     * "October 29, 1993", "12/25/1993" or "1993-10-29". The year is
+     * the first run of exactly four digits.
+     * @param releaseDate release date as entered
+     * @return release year, or -1 if the date holds no year
+     */
+    public static int releaseYearOf(String releaseDate) {
+        if (releaseDate == null) {
+            return -1;
+        }
+        int length = releaseDate.length();
+        int i = 0;
+        while (i < length) {
+            if (!Character.isDigit(releaseDate.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && Character.isDigit(releaseDate.charAt(i))) {
+                i++;
+            }
+            if (i - start == 4) {
+                return Integer.parseInt(releaseDate.substring(start, i));
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,132 @@
+package com.cbowe.dvdlibrary.dto;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code DvdValuePool} class hands out one shared instance of
+ * each distinct field value, so DVDs that repeat a value point at one
+ * String instead of holding copies.
+ * <p>
+ * Values are held weakly: once no Dvd uses a value any more it is
+ * collected and its entry is dropped the next time the pool is used.
+ * Lookups go straight to a ConcurrentHashMap without locking, so
+ * threads parsing a library in parallel do not wait on each other.
+ * Each entry costs a map node and a weak reference, so the pool only
+ * pays off for fields with few distinct values.
+ */
+
+final class DvdValuePool {
+
+    // Shared instances keyed by themselves; both sides are the same
+    // Entry, so a lookup needs no second object
+    private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+    // Entries whose value has been collected, waiting to be removed
+    private final ReferenceQueue<String> collected = new ReferenceQueue<>();
+
+    /**
+     * Method to get the shared instance of a value, making value the
+     * shared instance if there is none yet.
+     * @param value field value
+     * @return the pooled String equal to value, or null
+     */
+    String pooled(String value) {
+        if (value == null) {
+            return null;
+        }
+        removeCollected();
+        while (true) {
+            Entry existing = entries.get(new Probe(value));
+            String shared = existing == null ? null : existing.get();
+            if (shared != null) {
+                return shared;
+            }
+            if (existing != null) {
+                entries.remove(existing, existing); // Collected but not yet queued
+            }
+            Entry entry = new Entry(value, collected);
+            Entry raced = entries.putIfAbsent(entry, entry);
+            if (raced == null) {
+                return value;
+            }
+            shared = raced.get();
+            if (shared != null) {
+                return shared;
+            }
+            entries.remove(raced, raced);
+        }
+    }
+
+    /**
+     * Method to get the number of entries, including any whose value
+     * has been collected but not yet removed.
+     * @return number of entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Method to drop the entries of collected values.
+     */
+    private void removeCollected() {
+        Reference<? extends String> reference;
+        while ((reference = collected.poll()) != null) {
+            entries.remove(reference, reference);
+        }
+    }
+
+    /**
+     * Weak reference to a pooled value that compares by the value, so
+     * it can be a map key. Once cleared it only equals itself.
+     */
+    private static final class Entry extends WeakReference<String> {
+        private final int hash;
+
+        Entry(String value, ReferenceQueue<String> queue) {
+            super(value, queue);
+            this.hash = value.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof Entry)) {
+                return false;
+            }
+            String value = get();
+            return value != null && value.equals(((Entry) other).get());
+        }
+    }
+
+    /**
+     * Short-lived key used to look a value up without creating a weak
+     * reference for it.
+     */
+    private static final class Probe {
+        private final String value;
+
+        Probe(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry && value.equals(((Entry) other).get());
+        }
+    }
+}
@@ -35,9 +35,12 @@ public class DvdLibraryView {
         io.print("3. View a DVD");
         io.print("4. Edit a DVD");
         io.print("5. Remove a DVD");
-        io.print("6. Exit");
+        io.print("6. Search DVDs by Title");
+        io.print("7. Import DVDs from File");
+        io.print("8. View Performance Metrics");
+        io.print("9. Exit");
 
-        return io.readInt("Please select from the above choices.", 1, 6);
+        return io.readInt("Please select from the above choices.", 1, 9);
     }
 
     /**
@@ -53,16 +56,17 @@ public class DvdLibraryView {
         io.print("3. Edit Director's Name");
         io.print("4. Edit Studio Name");
         io.print("5. Edit User Rating");
-        io.print("6. Exit Edit Menu");
+        io.print("6. Save Changes and Exit Edit Menu");
+        io.print("7. Discard Changes and Exit Edit Menu");
 
-        return io.readInt("Please select from the above choices.", 1, 6);
+        return io.readInt("Please select from the above choices.", 1, 7);
     }
 
     /**
      * Method prompts the user for DVD title, release date, MPAA rating,
      * director name, studio name, and user rating. A new Dvd object is
-     * then created, setter methods are used to provide the collected
-     * information the Dvd object, and the Dvd object is returned to the caller.
+     * then created from the collected information and returned to the
+     * caller.
      *
      * @return new Dvd object
      */
@@ -74,14 +78,7 @@ public class DvdLibraryView {
         String studioName = io.readString("Please enter Studio Name");
         String userRating = io.readString("Please enter User Rating");
 
-        Dvd currentDvd = new Dvd(dvdTitle);
-        currentDvd.setReleaseDate(releaseDate);
-        currentDvd.setMPAA(mpaaRating);
-        currentDvd.setDirectorsName(directorName);
-        currentDvd.setStudio(studioName);
-        currentDvd.setUserRating(userRating);
-
-        return currentDvd;
+        return new Dvd(dvdTitle, releaseDate, mpaaRating, directorName, studioName, userRating);
     }
 
     /**
@@ -118,6 +115,29 @@ public class DvdLibraryView {
         io.readString("Please hit enter to continue.");
     }
 
+    /**
+     * Method displays one page of Dvd objects and the page navigation
+     * menu, prompts the user to make a selection, and returns it.
+     *
+     * @param dvdPage Dvd objects on the page
+     * @param pageNumber number of the page, starting at 1
+     * @param pageCount number of pages in the library
+     * @return navigation selection
+     */
+    public int displayDvdPageAndGetChoice(List<Dvd> dvdPage, int pageNumber, int pageCount) {
+        // Iterate over dvdPage
+        for (Dvd currentDvd : dvdPage) {
+            // Same one-line summary as displayDvdList
+            io.print(String.format("%s : %s", currentDvd.getTitle(), currentDvd.getMPAA()));
+        }
+        io.print(String.format("Page %d of %d", pageNumber, pageCount));
+        io.print("1. Next Page");
+        io.print("2. Previous Page");
+        io.print("3. Return to Main Menu");
+
+        return io.readInt("Please select from the above choices.", 1, 3);
+    }
+
     /**
      * Method displays a banner to the UI indicating that the next
      * interactions on the screen will be for displaying all Dvds.
@@ -190,6 +210,119 @@ public class DvdLibraryView {
         io.readString("Please hit enter to continue.");
     }
 
+    /**
+     * Method displays a banner to the UI indicating that the next
+     * interactions on the screen will be for searching DVDs by title.
+     */
+    public void displaySearchBanner() {
+        io.print("=== Search DVDs ===");
+    }
+
+    /**
+     * Method prompts the user, gets all or part of a DVD title to
+     * search for, and returns it.
+     *
+     * @return search text
+     */
+    public String getSearchText() {
+        return io.readString("Please enter all or the start of the DVD title.");
+    }
+
+    /**
+     * Method displays a numbered list of the DVDs a search found and
+     * lets the user pick one to view.
+     *
+     * @param dvdList search results, best match first
+     * @return number of the chosen DVD, or 0 if none was chosen
+     */
+    public int displaySearchResultsAndGetChoice(List<Dvd> dvdList) {
+        if (dvdList.isEmpty()) {
+            io.readString("No matching DVDs. Please hit enter to continue.");
+            return 0;
+        }
+        // Number each Dvd so the user does not have to type its title
+        for (int i = 0; i < dvdList.size(); i++) {
+            Dvd currentDvd = dvdList.get(i);
+            io.print(String.format("%d. %s : %s", i + 1, currentDvd.getTitle(), currentDvd.getMPAA()));
+        }
+        return io.readInt("Please select a DVD to view, or 0 to return to the main menu.",
+                0, dvdList.size());
+    }
+
+    /**
+     * Method displays a banner to the UI indicating that the next
+     * interactions on the screen will be for importing DVDs from a file.
+     */
+    public void displayImportBanner() {
+        io.print("=== Import DVDs ===");
+    }
+
+    /**
+     * Method prompts the user, gets the name of the file to import,
+     * and returns the file name.
+     *
+     * @return import file name
+     */
+    public String getImportFileName() {
+        return io.readString("Please enter the file to import (one DVD per line, fields separated by ::).");
+    }
+
+    /**
+     * Method displays how many DVDs were imported and waits for the
+     * user to hit Enter to continue.
+     *
+     * @param count number of DVDs imported
+     */
+    public void displayImportResult(int count) {
+        io.readString(count + " DVD(s) successfully imported. Please hit enter to continue.");
+    }
+
+    /**
+     * Method displays a banner to the UI indicating that the next
+     * interactions on the screen will be for viewing performance metrics.
+     */
+    public void displayMetricsBanner() {
+        io.print("=== Performance Metrics ===");
+    }
+
+    /**
+     * Method displays the metrics report, one line per DAO operation
+     * or counter.
+     *
+     * @param report formatted metrics report
+     */
+    public void displayMetrics(String report) {
+        io.print(report);
+    }
+
+    /**
+     * Method displays the file the metrics were exported to and waits
+     * for the user to hit Enter to continue.
+     *
+     * @param fileName file the report was written to
+     */
+    public void displayMetricsExported(String fileName) {
+        io.readString("Metrics also written to " + fileName + ". Please hit enter to continue.");
+    }
+
+    /**
+     * Method displays where the HTTP service is listening and how to
+     * stop it.
+     *
+     * @param url address of the DVD resources
+     */
+    public void displayServiceStarted(String url) {
+        io.print("DVD Library service listening on " + url);
+        io.print("Press Ctrl+C to stop.");
+    }
+
+    /**
+     * Method displays a message that the HTTP service has stopped.
+     */
+    public void displayServiceStopped() {
+        io.print("DVD Library service stopped.");
+    }
+
     /**
      * Method displays a banner to the UI indicating that the
      * program is exiting.
@@ -230,6 +363,32 @@ public class DvdLibraryView {
         io.readString("DVD successfully Edited.  Please hit enter to continue");
     }
 
+    /**
+     * Method displays a message that a change was recorded and will
+     * be saved when the user chooses to save from the edit menu.
+     */
+    public void displayEditPending() {
+        io.print("Change recorded. Choose Save Changes to keep it.");
+    }
+
+    /**
+     * Method displays a message that the edit menu was left without
+     * saving any changes and waits for the user to hit Enter to continue.
+     */
+    public void displayEditDiscarded() {
+        io.readString("No changes were saved.  Please hit enter to continue");
+    }
+
+    /**
+     * Method displays a message that the changes were not saved
+     * because someone else edited the DVD while the edit menu was open,
+     * and waits for the user to hit Enter to continue.
+     */
+    public void displayEditConflict() {
+        io.print("The DVD was changed by someone else while you were editing it.");
+        io.readString("No changes were saved.  Please hit enter to continue");
+    }
+
     /**
      * Method displays a banner to the UI indicating that the next
      * interactions on the screen will be for editing the release
@@ -0,0 +1,143 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks that DvdCache never keeps a DVD loaded before the title was
+ * invalidated, for either eviction policy.
+ */
+
+class DvdCacheTest {
+
+    private static final int TITLES = 32;
+    private static final int THREADS = 4;
+    private static final int OPERATIONS_PER_THREAD = 100_000;
+
+    @ParameterizedTest
+    @EnumSource(DvdCache.Policy.class)
+    void putAfterInvalidateIsDropped(DvdCache.Policy policy) {
+        DvdCache cache = newCache(policy);
+        long generation = cache.generation("Alien");
+        Dvd stale = dvd("Alien", "old");
+
+        cache.invalidate("Alien"); // A change lands while the loader reads
+        cache.put("Alien", stale, generation);
+
+        assertNull(cache.get("Alien"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(DvdCache.Policy.class)
+    void putWithCurrentGenerationIsKept(DvdCache.Policy policy) {
+        DvdCache cache = newCache(policy);
+        cache.invalidate("Alien");
+        long generation = cache.generation("Alien");
+
+        cache.put("Alien", dvd("Alien", "new"), generation);
+        cache.put("Missing", null, cache.generation("Missing"));
+
+        assertEquals("new", cache.get("Alien").dvd.getStudio());
+        DvdCache.Entry missing = cache.get("Missing");
+        assertNotNull(missing);
+        assertNull(missing.dvd);
+    }
+
+    @ParameterizedTest
+    @EnumSource(DvdCache.Policy.class)
+    void clearDropsLoadsInFlight(DvdCache.Policy policy) {
+        DvdCache cache = newCache(policy);
+        long generation = cache.generation("Alien");
+
+        cache.clear();
+        cache.put("Alien", dvd("Alien", "old"), generation);
+
+        assertNull(cache.get("Alien"));
+    }
+
+    /**
+     * Runs loaders that fill the cache after a miss alongside writers
+     * that change the library and invalidate the title, as
+     * DvdLibraryDaoCachedImpl does, then checks that every cached
+     * title matches the library.
+     */
+    @ParameterizedTest
+    @EnumSource(DvdCache.Policy.class)
+    void racingLoadsNeverCacheStaleDvds(DvdCache.Policy policy) throws Exception {
+        DvdCache cache = newCache(policy);
+        Map<String, Dvd> library = new ConcurrentHashMap<>();
+        for (int i = 0; i < TITLES; i++) {
+            library.put(title(i), dvd(title(i), "0"));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            boolean writer = t % 2 == 0;
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        String title = title(random.nextInt(TITLES));
+                        if (writer) {
+                            library.put(title, dvd(title, Integer.toString(i)));
+                            cache.invalidate(title);
+                        } else if (cache.get(title) == null) {
+                            long generation = cache.generation(title);
+                            Dvd loaded = library.get(title);
+                            if (random.nextInt(8) == 0) {
+                                Thread.yield(); // Widen the window for a racing writer
+                            }
+                            cache.put(title, loaded, generation);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        for (int i = 0; i < TITLES; i++) {
+            DvdCache.Entry entry = cache.get(title(i));
+            if (entry != null) {
+                assertEquals(library.get(title(i)).getStudio(), entry.dvd.getStudio(), title(i));
+            }
+        }
+    }
+
+    private static DvdCache newCache(DvdCache.Policy policy) {
+        return new DvdCache(1000, policy, new LongAdder(), new LongAdder(), new LongAdder());
+    }
+
+    private static String title(int i) {
+        return "Title " + i;
+    }
+
+    private static Dvd dvd(String title, String studio) {
+        return new Dvd(title, "2000", "PG", "Director", studio, "4");
+    }
+}
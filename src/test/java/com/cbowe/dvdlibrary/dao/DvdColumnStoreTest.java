@@ -0,0 +1,128 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import com.cbowe.dvdlibrary.dto.DvdQuery;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that DvdColumnStore keeps every live DVD, its version and
+ * its place in title order when removals rebuild the columns.
+ */
+
+class DvdColumnStoreTest {
+
+    // Enough rows that removing two in three passes the threshold of
+    // 1024 dead rows outnumbering the live ones
+    private static final int ROWS = 3000;
+
+    private DvdColumnStore store;
+    // What the store should hold, keyed by title
+    private final Map<String, Dvd> expected = new TreeMap<>();
+
+    @BeforeEach
+    void fill() {
+        store = new DvdColumnStore();
+        for (int i = 0; i < ROWS; i++) {
+            put(new Dvd("Title " + i, "19" + (i % 100), i % 2 == 0 ? "PG" : "R",
+                    "Director " + (i % 40), "Studio " + (i % 7), Integer.toString(i % 5), i + 1));
+        }
+    }
+
+    @Test
+    void removalsCompactTheColumns() throws Exception {
+        removeTwoInThree();
+
+        assertEquals(expected.size(), store.size());
+        assertTrue(rowCount() < ROWS, "dead rows should have been dropped");
+        assertMatches();
+    }
+
+    @Test
+    void compactedStoreTakesNewRowsAndEdits() {
+        removeTwoInThree();
+
+        put(new Dvd("Title 1", "2024", "PG-13", "New director", "New studio", "3", 9_001));
+        put(new Dvd("Brand new", "2024", "G", "Someone", "Studio 0", "5", 9_002));
+        Dvd edited = store.edit("Title 3", DvdField.STUDIO, "Edited");
+        expected.put("Title 3", edited);
+        assertNull(store.edit("Title 2", DvdField.STUDIO, "Gone"));
+
+        assertEquals("Edited", store.get("Title 3").getStudio());
+        assertMatches();
+    }
+
+    @Test
+    void repeatedCompactionsKeepTheLiveRows() {
+        for (int round = 0; round < 3; round++) {
+            removeTwoInThree();
+            int size = expected.size();
+            for (int i = 0; i < ROWS - size; i++) {
+                put(new Dvd("Round " + round + " title " + i, "2000", "PG", "Director", "Studio", "4",
+                        100_000L * (round + 1) + i));
+            }
+            assertMatches();
+        }
+    }
+
+    /**
+     * Removes two DVDs in every three, in title order.
+     */
+    private void removeTwoInThree() {
+        int i = 0;
+        for (String title : new ArrayList<>(expected.keySet())) {
+            if (i++ % 3 != 0) {
+                assertEquals(expected.remove(title), store.remove(title));
+            }
+        }
+        assertNull(store.remove("Title 0 never stored"));
+    }
+
+    private void put(Dvd dvd) {
+        store.put(dvd.getTitle(), dvd);
+        expected.put(dvd.getTitle(), dvd);
+    }
+
+    /**
+     * Checks lookups, title order, versions and queries against the
+     * expected library.
+     */
+    private void assertMatches() {
+        assertEquals(expected.size(), store.size());
+        for (Dvd dvd : expected.values()) {
+            Dvd stored = store.get(dvd.getTitle());
+            assertEquals(dvd, stored);
+            assertEquals(dvd.getVersion(), stored.getVersion(), dvd.getTitle());
+        }
+
+        List<Dvd> inOrder = new ArrayList<>(expected.values());
+        inOrder.sort(DvdLibraryDao.TITLE_ORDER);
+        assertEquals(inOrder, store.page(0, Integer.MAX_VALUE));
+        assertEquals(inOrder.subList(1, 11), store.after(inOrder.get(0).getTitle(), 10));
+
+        List<Dvd> values = new ArrayList<>(store.values());
+        assertEquals(expected.size(), values.size());
+        assertTrue(values.containsAll(expected.values()));
+
+        DvdQuery query = new DvdQuery();
+        query.setStudio("Studio 3");
+        long matches = expected.values().stream().filter(dvd -> dvd.getStudio().equals("Studio 3")).count();
+        assertEquals(matches, store.find(query).size());
+    }
+
+    private int rowCount() throws ReflectiveOperationException {
+        Field rowCount = DvdColumnStore.class.getDeclaredField("rowCount");
+        rowCount.setAccessible(true);
+        return rowCount.getInt(store);
+    }
+}
@@ -0,0 +1,214 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that applyBatch and applyChanges apply all of a batch or
+ * none of it on every backend, both in memory and once the library
+ * is opened again from storage.
+ */
+
+class DvdLibraryDaoBatchTest {
+
+    /**
+     * Backends under test, each opened on files in a test directory.
+     */
+    enum Backend {
+        FILE {
+            @Override
+            DvdLibraryDao open(Path dir) {
+                return new DvdLibraryDaoFileImpl(dir.resolve("library.txt").toString());
+            }
+        },
+        CONCURRENT {
+            @Override
+            DvdLibraryDao open(Path dir) {
+                return new DvdLibraryDaoConcurrentImpl(dir.resolve("library.txt").toString());
+            }
+        },
+        JOURNAL {
+            @Override
+            DvdLibraryDao open(Path dir) {
+                return new DvdLibraryDaoJournalImpl(dir.resolve("library.txt").toString(), 64, 0, 100_000);
+            }
+        },
+        DATABASE {
+            @Override
+            DvdLibraryDao open(Path dir) {
+                return new DvdLibraryDaoDatabaseImpl(dir.resolve("library").toString(), null, 2);
+            }
+        },
+        BINARY {
+            @Override
+            DvdLibraryDao open(Path dir) {
+                return new DvdLibraryDaoBinaryImpl(dir.resolve("library.dvdb").toString());
+            }
+        },
+        OFF_HEAP {
+            @Override
+            DvdLibraryDao open(Path dir) {
+                return new DvdLibraryDaoOffHeapImpl(dir.resolve("library.txt").toString());
+            }
+        },
+        MAPPED {
+            @Override
+            DvdLibraryDao open(Path dir) {
+                return new DvdLibraryDaoMappedImpl(dir.resolve("library.txt").toString());
+            }
+        };
+
+        abstract DvdLibraryDao open(Path dir);
+    }
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void applyBatchWithStaleVersionChangesNothing(Backend backend) throws Exception {
+        DvdLibraryDao dao = seeded(backend);
+        Map<String, Dvd> before = snapshot(dao);
+        long alienVersion = dao.getDvd("Alien").getVersion();
+        long heatVersion = dao.getDvd("Heat").getVersion();
+
+        List<DvdEdit> edits = List.of(
+                new DvdEdit("Alien", DvdField.STUDIO, "Edited", alienVersion),
+                new DvdEdit("Heat", DvdField.MPAA, "NC-17", heatVersion + 1));
+        DvdLibraryConflictException conflict = assertThrows(DvdLibraryConflictException.class,
+                () -> dao.applyBatch(edits));
+        assertEquals("Heat", conflict.getTitle());
+        assertEquals(heatVersion, conflict.getActualVersion());
+
+        assertUnchanged(before, dao);
+        dao.close();
+        DvdLibraryDao reopened = reopened(backend);
+        assertUnchanged(before, reopened);
+        reopened.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void applyBatchWithMissingTitleChangesNothing(Backend backend) throws Exception {
+        DvdLibraryDao dao = seeded(backend);
+        Map<String, Dvd> before = snapshot(dao);
+
+        List<DvdEdit> edits = List.of(
+                new DvdEdit("Alien", DvdField.STUDIO, "Edited"),
+                new DvdEdit("Missing", DvdField.STUDIO, "Edited"));
+        assertThrows(DvdLibraryDaoException.class, () -> dao.applyBatch(edits));
+
+        assertUnchanged(before, dao);
+        dao.close();
+        DvdLibraryDao reopened = reopened(backend);
+        assertUnchanged(before, reopened);
+        reopened.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void applyChangesWithStaleVersionChangesNothing(Backend backend) throws Exception {
+        DvdLibraryDao dao = seeded(backend);
+        Map<String, Dvd> before = snapshot(dao);
+        long alienVersion = dao.getDvd("Alien").getVersion();
+        long heatVersion = dao.getDvd("Heat").getVersion();
+
+        List<DvdEdit> edits = List.of(
+                new DvdEdit("Alien", DvdField.STUDIO, "Edited", alienVersion),
+                new DvdEdit("Heat", DvdField.MPAA, "NC-17", heatVersion + 1));
+        assertThrows(DvdLibraryConflictException.class, () -> dao.applyChanges(edits,
+                List.of("Jaws"), List.of(new Dvd("Ran", "1985", "R", "Kurosawa", "Toho", "5"))));
+
+        assertUnchanged(before, dao);
+        dao.close();
+        DvdLibraryDao reopened = reopened(backend);
+        assertUnchanged(before, reopened);
+        reopened.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void applyChangesAppliesEditsRemovalsAndAdditionsTogether(Backend backend) throws Exception {
+        DvdLibraryDao dao = seeded(backend);
+        long alienVersion = dao.getDvd("Alien").getVersion();
+
+        dao.applyChanges(List.of(new DvdEdit("Alien", DvdField.STUDIO, "Edited", alienVersion)),
+                List.of("Jaws"), List.of(new Dvd("Ran", "1985", "R", "Kurosawa", "Toho", "5")));
+
+        assertApplied(dao, alienVersion);
+        dao.close();
+        DvdLibraryDao reopened = reopened(backend);
+        assertApplied(reopened, alienVersion);
+        reopened.close();
+    }
+
+    /**
+     * Opens a backend on an empty library and adds three DVDs.
+     */
+    private DvdLibraryDao seeded(Backend backend) throws IOException, DvdLibraryDaoException {
+        Files.createFile(dir.resolve("library.txt")); // Text backends expect the file to exist
+        DvdLibraryDao dao = backend.open(dir);
+        dao.addDvd("Alien", new Dvd("Alien", "1979", "R", "Scott", "Fox", "5"));
+        dao.addDvd("Heat", new Dvd("Heat", "1995", "R", "Mann", "Warner", "4"));
+        dao.addDvd("Jaws", new Dvd("Jaws", "1975", "PG", "Spielberg", "Universal", "4"));
+        return dao;
+    }
+
+    private DvdLibraryDao reopened(Backend backend) {
+        return backend.open(dir);
+    }
+
+    private static void assertApplied(DvdLibraryDao dao, long alienVersion) throws DvdLibraryDaoException {
+        Dvd alien = dao.getDvd("Alien");
+        assertEquals("Edited", alien.getStudio());
+        assertNotEquals(alienVersion, alien.getVersion(), "edit should stamp a new version");
+        assertNull(dao.getDvd("Jaws"));
+        assertNotNull(dao.getDvd("Ran"));
+        assertEquals(List.of("Alien", "Heat", "Ran"), titles(dao));
+    }
+
+    private static void assertUnchanged(Map<String, Dvd> before, DvdLibraryDao dao) throws DvdLibraryDaoException {
+        Map<String, Dvd> after = snapshot(dao);
+        assertEquals(before, after);
+        for (Map.Entry<String, Dvd> entry : before.entrySet()) {
+            assertEquals(entry.getValue().getVersion(), after.get(entry.getKey()).getVersion(),
+                    "version of " + entry.getKey());
+        }
+    }
+
+    private static Map<String, Dvd> snapshot(DvdLibraryDao dao) throws DvdLibraryDaoException {
+        Map<String, Dvd> dvds = new TreeMap<>();
+        for (Dvd dvd : dao.getAllDvds()) {
+            dvds.put(dvd.getTitle(), dvd);
+        }
+        return dvds;
+    }
+
+    private static List<String> titles(DvdLibraryDao dao) throws DvdLibraryDaoException {
+        List<Dvd> dvds = new ArrayList<>(dao.getAllDvds());
+        dvds.sort(Comparator.comparing(Dvd::getTitle));
+        List<String> titles = new ArrayList<>();
+        for (Dvd dvd : dvds) {
+            titles.add(dvd.getTitle());
+        }
+        return titles;
+    }
+}
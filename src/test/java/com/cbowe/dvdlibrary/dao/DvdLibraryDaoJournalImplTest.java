@@ -0,0 +1,115 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import com.cbowe.dvdlibrary.dto.DvdEdit;
+import com.cbowe.dvdlibrary.dto.DvdField;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks how DvdLibraryDaoJournalImpl replays a journal left behind
+ * by a crash part way through an append.
+ */
+
+class DvdLibraryDaoJournalImplTest {
+
+    private static final Dvd RAN = new Dvd("Ran", "1985", "R", "Kurosawa", "Toho", "5");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void batchWithoutCommitIsDroppedAndTruncated() throws Exception {
+        Path journal = writeCommittedJournal();
+        long committedLength = Files.size(journal);
+        append(journal, "BEGIN\nREMOVE::Alien\nADD::" + DvdTextFormat.marshallDvd(RAN) + "\n");
+
+        DvdLibraryDaoJournalImpl dao = open();
+        assertNotNull(dao.getDvd("Alien"));
+        assertNull(dao.getDvd("Ran"));
+        assertEquals("Edited", dao.getDvd("Heat").getStudio());
+        assertEquals(committedLength, Files.size(journal));
+        dao.close();
+    }
+
+    @Test
+    void lineWithoutLineBreakIsDroppedAndTruncated() throws Exception {
+        Path journal = writeCommittedJournal();
+        long committedLength = Files.size(journal);
+        append(journal, "ADD::Ran::1985::R::Kurosa");
+
+        DvdLibraryDaoJournalImpl dao = open();
+        assertNull(dao.getDvd("Ran"));
+        assertEquals(List.of("Alien", "Heat"), titles(dao));
+        assertEquals(committedLength, Files.size(journal));
+        dao.close();
+    }
+
+    @Test
+    void commitLineCutShortDropsTheBatch() throws Exception {
+        Path journal = writeCommittedJournal();
+        append(journal, "BEGIN\nREMOVE::Heat\nCOMM");
+
+        DvdLibraryDaoJournalImpl dao = open();
+        assertNotNull(dao.getDvd("Heat"));
+        dao.close();
+    }
+
+    @Test
+    void appendsAfterTornTailSurviveReopening() throws Exception {
+        Path journal = writeCommittedJournal();
+        append(journal, "BEGIN\nREMOVE::Alien\n");
+
+        DvdLibraryDaoJournalImpl dao = open();
+        dao.addDvd("Ran", RAN);
+        dao.close();
+
+        DvdLibraryDaoJournalImpl reopened = open();
+        assertEquals(List.of("Alien", "Heat", "Ran"), titles(reopened));
+        reopened.close();
+    }
+
+    @Test
+    void commitWithoutBeginIsMalformed() throws Exception {
+        Path journal = writeCommittedJournal();
+        append(journal, "COMMIT\n");
+
+        DvdLibraryDaoJournalImpl dao = open();
+        assertThrows(DvdLibraryDaoException.class, dao::getAllDvds);
+    }
+
+    /**
+     * Writes a journal holding two ADD records and one committed batch
+     * that edits one of them, and returns its path.
+     */
+    private Path writeCommittedJournal() throws DvdLibraryDaoException {
+        DvdLibraryDaoJournalImpl dao = open();
+        dao.addDvd("Alien", new Dvd("Alien", "1979", "R", "Scott", "Fox", "5"));
+        dao.addDvd("Heat", new Dvd("Heat", "1995", "R", "Mann", "Warner", "4"));
+        dao.applyBatch(List.of(new DvdEdit("Heat", DvdField.STUDIO, "Edited")));
+        dao.close();
+        return dir.resolve("library.txt.journal");
+    }
+
+    private DvdLibraryDaoJournalImpl open() {
+        return new DvdLibraryDaoJournalImpl(dir.resolve("library.txt").toString(), 1, 0, 100_000);
+    }
+
+    private static void append(Path journal, String text) throws Exception {
+        Files.write(journal, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private static List<String> titles(DvdLibraryDao dao) throws DvdLibraryDaoException {
+        return dao.getAllDvds().stream().map(Dvd::getTitle).sorted().toList();
+    }
+}
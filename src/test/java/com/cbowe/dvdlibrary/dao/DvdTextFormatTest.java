@@ -0,0 +1,110 @@
+package com.cbowe.dvdlibrary.dao;
+
+import com.cbowe.dvdlibrary.dto.Dvd;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the parallel reader of large library files hands DVDs
+ * over in file order, so the last line for a title still wins.
+ */
+
+class DvdTextFormatTest {
+
+    // Comfortably over the 4 MiB at which files are read in parallel
+    private static final int LINE_COUNT = 120_000;
+
+    @TempDir
+    Path dir;
+
+    private Path library;
+    // Titles in file order, including every repeat of "Dup"
+    private final List<String> titles = new ArrayList<>();
+
+    @BeforeEach
+    void writeLibrary() throws Exception {
+        library = dir.resolve("library.txt");
+        try (BufferedWriter out = Files.newBufferedWriter(library, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < LINE_COUNT; i++) {
+                String studio = "Studio " + (i % 50);
+                String title = "Title " + i;
+                if (i == 0 || i == LINE_COUNT / 2 || i == LINE_COUNT - 1) {
+                    title = "Dup";
+                    studio = i == 0 ? "first" : i == LINE_COUNT - 1 ? "last" : "middle";
+                }
+                titles.add(title);
+                out.write(DvdTextFormat.marshallDvd(new Dvd(title, "2000", "PG", "Director " + (i % 300),
+                        studio, "4", i + 1)));
+                out.write('\n');
+            }
+        }
+        assertTrue(Files.size(library) > 4L * 1024 * 1024, "library must be big enough to read in parallel");
+        assertTrue(ForkJoinPool.getCommonPoolParallelism() > 1,
+                "run with -Djava.util.concurrent.ForkJoinPool.common.parallelism=4, as the pom does");
+    }
+
+    @Test
+    void parallelReadKeepsFileOrder() throws Exception {
+        List<String> read = new ArrayList<>();
+        long count = DvdTextFormat.readLibrary(library, dvd -> read.add(dvd.getTitle()));
+
+        assertEquals(LINE_COUNT, count);
+        assertEquals(titles, read);
+    }
+
+    @Test
+    void parallelReadKeepsLastDuplicate() throws Exception {
+        Map<String, Dvd> dvds = new LinkedHashMap<>();
+        DvdTextFormat.readLibrary(library, dvd -> dvds.put(dvd.getTitle(), dvd));
+
+        assertEquals("last", dvds.get("Dup").getStudio());
+        assertEquals(LINE_COUNT - 2, dvds.size());
+    }
+
+    @Test
+    void fileDaoKeepsLastDuplicate() throws Exception {
+        DvdLibraryDaoFileImpl dao = new DvdLibraryDaoFileImpl(library.toString());
+        try {
+            assertEquals("last", dao.getDvd("Dup").getStudio());
+            assertEquals(LINE_COUNT - 2, dao.countDvds());
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void parallelReadChecksumsBytesInOrder() throws Exception {
+        CRC32C read = new CRC32C();
+        DvdTextFormat.readLibrary(library, 0, Files.size(library), read, dvd -> { });
+
+        CRC32C expected = new CRC32C();
+        expected.update(Files.readAllBytes(library));
+        assertEquals(expected.getValue(), read.getValue());
+    }
+
+    @Test
+    void malformedLineIsReportedWithItsLineNumber() throws Exception {
+        List<String> lines = Files.readAllLines(library, StandardCharsets.UTF_8);
+        lines.set(LINE_COUNT - 10, "not a record");
+        Files.write(library, lines, StandardCharsets.UTF_8);
+
+        DvdLibraryDaoException e = assertThrows(DvdLibraryDaoException.class,
+                () -> DvdTextFormat.readLibrary(library, dvd -> { }));
+        assertTrue(e.getMessage().contains("line " + (LINE_COUNT - 9)), e.getMessage());
+    }
+}